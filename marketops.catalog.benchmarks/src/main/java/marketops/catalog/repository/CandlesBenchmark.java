@@ -0,0 +1,77 @@
+package marketops.catalog.repository;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A year of ticks (one every 10 s) as candles: folded from the rollup tiers versus scanning the raw
+ * history the way clients did, plus the one-off cost of seeding the tiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class CandlesBenchmark {
+
+    private static final long START = 1_672_531_200_000L; // 2023-01-01T00:00Z
+    private static final int TICKS = 365 * 24 * 360;
+
+    @Param({"1h", "1d"})
+    public String interval;
+
+    private PriceHistory history;
+    private Candles candles;
+    private Candles.Query query;
+
+    @Setup
+    public void setUp() {
+        history = new PriceHistory();
+        for (int i = 0; i < TICKS; i++) history.append(START + i * 10_000L, 100.0 + (i % 37) * 0.25, i % 3 == 0 ? null : 10.0 + i % 11);
+        candles = new Candles(this::seed);
+        query = new Candles.Query(RollingStats.window(interval), 0, Long.MAX_VALUE, Candles.MAX_LIMIT);
+        candles.query("asset", query);
+    }
+
+    private boolean seed(String assetId, RollingStats.TickSink sink) {
+        for (int i = 0, n = history.size(); i < n; i++) sink.accept(i, history.timestampAt(i), history.priceAt(i), history.demandAt(i));
+        return true;
+    }
+
+    @Benchmark
+    public List<Candles.Candle> rollup() { return candles.query("asset", query); }
+
+    @Benchmark
+    public List<Candles.Candle> scan() {
+        List<Candles.Candle> out = new ArrayList<>();
+        long width = query.interval;
+        int i = 0, n = history.size();
+        while (i < n) {
+            long start = Math.floorDiv(history.timestampAt(i), width) * width;
+            double open = Double.NaN, high = Double.NEGATIVE_INFINITY, low = Double.POSITIVE_INFINITY, close = Double.NaN, demand = 0;
+            long demands = 0, ticks = 0;
+            for (; i < n && history.timestampAt(i) < start + width; i++) {
+                double p = history.priceAt(i), d = history.demandAt(i);
+                ticks++;
+                if (!Double.isNaN(p)) {
+                    if (Double.isNaN(open)) open = p;
+                    high = Math.max(high, p);
+                    low = Math.min(low, p);
+                    close = p;
+                }
+                if (!Double.isNaN(d)) { demand += d; demands++; }
+            }
+            out.add(new Candles.Candle(start, open, high, low, close, demands == 0 ? Double.NaN : demand / demands, ticks));
+        }
+        return out;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Candles.Candle> seedAndQuery() { return new Candles(this::seed).query("asset", query); }
+}
@@ -0,0 +1,87 @@
+package marketops.catalog.repository;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CatalogSearch over a catalog of synthetic data sets: a name, a six-word description and an eight-column
+ * schema each, drawn from a vocabulary of VOCABULARY words (columns are word_word pairs).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CatalogSearchBenchmark {
+
+    private static final int VOCABULARY = 20_000;
+
+    @Param({"100000", "1000000"})
+    public int objects;
+
+    private CatalogSearch search;
+    private String[] words;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        words = new String[VOCABULARY];
+        String[] syllables = { "ka", "lo", "mi", "nu", "pe", "ra", "si", "to", "vu", "xe", "ba", "de", "fo", "gu", "hi", "jo" };
+        for (int w = 0; w < VOCABULARY; w++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = w; sb.length() == 0 || n > 0; n /= syllables.length) sb.append(syllables[n % syllables.length]);
+            words[w] = sb.toString();
+        }
+        search = new CatalogSearch();
+        search.type("data-sets", marketops2.DataSet.class, "name", "description", "schema");
+        for (int i = 0; i < objects; i++) search.put(dataSet(i, random));
+    }
+
+    private marketops2.DataSet dataSet(int i, Random random) {
+        marketops2.DataSet ds = new marketops2.DataSet();
+        ds.id = "ds" + i;
+        ds.name = word(random) + " " + word(random) + " ds" + i;
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < 6; w++) text.append(word(random)).append(' ');
+        ds.description = text.toString();
+        text.setLength(0);
+        for (int c = 0; c < 8; c++) text.append(word(random)).append('_').append(word(random)).append(c < 7 ? "," : "");
+        ds.schema = text.toString();
+        return ds;
+    }
+
+    // Skewed towards the start of the vocabulary, so common words have long postings
+    private String word(Random random) { return words[(int) (VOCABULARY * Math.pow(random.nextDouble(), 3))]; }
+
+    @Benchmark
+    public CatalogSearch.Result searchById() { return search.search("ds" + ThreadLocalRandom.current().nextInt(objects), null, 20); }
+
+    @Benchmark
+    public CatalogSearch.Result searchRareWord() { return search.search(words[VOCABULARY - 1 - ThreadLocalRandom.current().nextInt(1_000)], null, 20); }
+
+    @Benchmark
+    public CatalogSearch.Result searchColumn() {
+        Random random = ThreadLocalRandom.current();
+        return search.search(words[random.nextInt(VOCABULARY)] + "_" + words[random.nextInt(VOCABULARY)], null, 20);
+    }
+
+    // Both words drawn with the catalog's skew, so often words that most objects contain
+    @Benchmark
+    public CatalogSearch.Result searchCommonWords() {
+        Random random = ThreadLocalRandom.current();
+        return search.search(word(random) + "_" + word(random), null, 20);
+    }
+
+    @Benchmark
+    public CatalogSearch.Result searchPrefix() {
+        String w = words[VOCABULARY / 2 + ThreadLocalRandom.current().nextInt(VOCABULARY / 2)];
+        return search.search(w.substring(0, w.length() - 1), null, 20);
+    }
+
+    @Benchmark
+    public void put() { search.put(dataSet(ThreadLocalRandom.current().nextInt(objects), ThreadLocalRandom.current())); }
+}
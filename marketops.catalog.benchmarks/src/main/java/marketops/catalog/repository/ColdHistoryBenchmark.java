@@ -0,0 +1,70 @@
+package marketops.catalog.repository;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A month of ticks (one every 1 or 2 s, prices moving by cents): packing and unpacking one cold block,
+ * and a full scan of the month from plain PriceHistory chunks versus sealed ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ColdHistoryBenchmark {
+
+    private static final long START = 1_672_531_200_000L; // 2023-01-01T00:00Z
+    private static final int TICKS = 30 * 86_400 / 2;
+
+    private long[] timestamps = new long[ColdHistory.BLOCK_TICKS];
+    private double[] prices = new double[ColdHistory.BLOCK_TICKS], demands = new double[ColdHistory.BLOCK_TICKS];
+    private byte[] block;
+    private PriceHistory hot, sealed;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        hot = new PriceHistory();
+        sealed = new PriceHistory();
+        long ts = START;
+        double price = 100;
+        for (int i = 0; i < TICKS; i++) {
+            ts += 1_000 + random.nextInt(2) * 1_000;
+            price = Math.round(price * 100 + random.nextInt(5) - 2) / 100.0;
+            Double demand = i % 3 == 0 ? null : (double) random.nextInt(50);
+            hot.append(ts, price, demand);
+            sealed.append(ts, price, demand);
+            if (i < ColdHistory.BLOCK_TICKS) {
+                timestamps[i] = ts;
+                prices[i] = price;
+                demands[i] = demand == null ? Double.NaN : demand;
+            }
+        }
+        sealed.seal(Long.MAX_VALUE);
+        block = ColdHistory.encode(null, timestamps, prices, demands, 0, ColdHistory.BLOCK_TICKS);
+    }
+
+    @Benchmark
+    public byte[] encodeBlock() { return ColdHistory.encode(null, timestamps, prices, demands, 0, ColdHistory.BLOCK_TICKS); }
+
+    @Benchmark
+    public int decodeBlock() { return ColdHistory.decode(block, null, timestamps, prices, demands); }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double scanHot() { return sum(hot); }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double scanSealed() { return sum(sealed); }
+
+    private static double sum(PriceHistory history) {
+        double[] sum = new double[1];
+        history.forEach((timestamp, price, demand) -> sum[0] += price);
+        return sum[0];
+    }
+}
@@ -0,0 +1,93 @@
+package marketops.catalog.repository;
+
+import marketops.catalog.repository.marketops2.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** In-memory GovernanceEngine paths: permission checks, grants, and object registry reads/writes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GovernanceBenchmark {
+
+    private static final int USERS = 1_000;
+
+    @Param({"10000", "1000000"})
+    public int objects;
+
+    private GovernanceEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new GovernanceEngine();
+        engine.addIndex(MarketAsset.class, "type", ma -> ma.type);
+        engine.addIndex(ETL.class, "dataSourceId", etl -> etl.dataSourceId);
+        for (int u = 0; u < USERS; u++) {
+            engine.forceGrant("user" + u, "READ:ASSET" + u);
+            engine.forceGrant("user" + u, "WRITE:ASSET" + (u + 1));
+        }
+        engine.forceGrant("admin_user", "ADMIN:ALL");
+        for (int i = 0; i < objects; i++) {
+            // One ETL per hundred objects, so getAllByClass reads a small partition of a large store
+            if (i % 100 == 0) engine.registerObject("etl" + i, etl(i));
+            else engine.registerObject("ds" + i, dataSet(i));
+        }
+    }
+
+    @Benchmark
+    public boolean hasAccessOnAll() { return engine.hasAccess("admin_user", "ADMIN", "ALL"); }
+
+    @Benchmark
+    public boolean hasAccessOnTarget() {
+        int u = ThreadLocalRandom.current().nextInt(USERS);
+        return engine.hasAccess("user" + u, "READ", "asset" + u);
+    }
+
+    @Benchmark
+    public boolean hasAccessDenied() {
+        int u = ThreadLocalRandom.current().nextInt(USERS);
+        return engine.hasAccess("user" + u, "DELETE", "asset" + u);
+    }
+
+    @Benchmark
+    public String executeGrant() {
+        int u = ThreadLocalRandom.current().nextInt(USERS);
+        return engine.executeGrant("GRANT READ ON ASSET" + (u + 7) + " TO user" + u);
+    }
+
+    @Benchmark
+    public void registerObject() {
+        int i = ThreadLocalRandom.current().nextInt(objects);
+        if (i % 100 != 0) engine.registerObject("ds" + i, dataSet(i));
+    }
+
+    @Benchmark
+    public Object getObject() { return engine.getObject("ds" + (ThreadLocalRandom.current().nextInt(objects) | 1)); }
+
+    @Benchmark
+    public List<Object> getAllByClass() { return engine.getAllByClass(ETL.class); }
+
+    private static DataSet dataSet(int i) {
+        DataSet ds = new DataSet();
+        ds.id = "ds" + i;
+        ds.name = "set" + (i % 1000);
+        ds.description = "Benchmark data set " + i;
+        ds.path = "/data/" + i;
+        return ds;
+    }
+
+    private static ETL etl(int i) {
+        ETL etl = new ETL();
+        etl.id = "etl" + i;
+        etl.name = "job" + i;
+        etl.dataSourceId = "src" + (i % 50);
+        etl.triggerType = "schedule";
+        return etl;
+    }
+}
@@ -0,0 +1,81 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * marketops4 setupCrud handlers end to end on an ephemeral loopback port, with an in-memory H2
+ * database standing in for Postgres. Absolute numbers are not Postgres numbers; relative changes
+ * in the handler, Hibernate mapping and batching code still show up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmarketops.upsert.ttlMs=3600000")
+public class HibernateCrudBenchmark {
+
+    private static final int PRELOADED = 5_000;
+
+    private Javalin app;
+    private LoopbackClient client;
+    private long revision;
+
+    @Setup
+    public void setUp() throws Exception {
+        marketops4.initDatabase(Map.of(
+                "hibernate.connection.driver_class", "org.h2.Driver",
+                "hibernate.connection.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;IGNORE_UNKNOWN_SETTINGS=TRUE",
+                "hibernate.connection.username", "sa",
+                "hibernate.connection.password", "",
+                "hibernate.dialect", "org.hibernate.dialect.H2Dialect",
+                "hibernate.show_sql", "false"));
+        marketops4.bootstrapAdmin();
+        app = Javalin.create(config -> config.showJavalinBanner = false);
+        marketops4.setupCrud(app, "data-sets", marketops4.DataSet.class);
+        marketops4.setupCrud(app, "market-assets", marketops4.MarketAsset.class);
+        app.start(0);
+        client = new LoopbackClient(app.port());
+        StringBuilder bulk = new StringBuilder("[");
+        for (int i = 0; i < PRELOADED; i++) bulk.append(i == 0 ? "" : ",").append(InMemoryCrudBenchmark.dataSet(i));
+        client.post("/catalog/data-sets/bulk", bulk.append(']').toString(), 200);
+        for (int i = 0; i < 100; i++) client.post("/catalog/market-assets", asset(i, 0), 201);
+    }
+
+    @TearDown
+    public void tearDown() { app.stop(); }
+
+    @Benchmark
+    public String postDataSet() throws Exception { return client.post("/catalog/data-sets", InMemoryCrudBenchmark.dataSet(ThreadLocalRandom.current().nextInt(PRELOADED), ++revision), 201); }
+
+    @Benchmark
+    public String repostUnchanged() throws Exception { return client.post("/catalog/data-sets", InMemoryCrudBenchmark.dataSet(ThreadLocalRandom.current().nextInt(PRELOADED)), 200); }
+
+    @Benchmark
+    public String postMarketAsset() throws Exception { return client.post("/catalog/market-assets", asset(ThreadLocalRandom.current().nextInt(100), ++revision), 201); }
+
+    @Benchmark
+    public String getById() throws Exception { return client.get("/catalog/data-sets/ds" + ThreadLocalRandom.current().nextInt(PRELOADED)); }
+
+    @Benchmark
+    public String listPage() throws Exception { return client.get("/catalog/data-sets?limit=100&after=ds" + ThreadLocalRandom.current().nextInt(PRELOADED)); }
+
+    @Benchmark
+    public String bulkChunk() throws Exception {
+        int from = ThreadLocalRandom.current().nextInt(PRELOADED - CatalogBulk.CHUNK);
+        StringBuilder bulk = new StringBuilder("[");
+        long r = ++revision;
+        for (int i = from; i < from + CatalogBulk.CHUNK; i++) bulk.append(i == from ? "" : ",").append(InMemoryCrudBenchmark.dataSet(i, r));
+        return client.post("/catalog/data-sets/bulk", bulk.append(']').toString(), 200);
+    }
+
+    private static String asset(int i, long revision) {
+        return "{\"id\":\"asset" + i + "\",\"name\":\"Asset " + i + (revision == 0 ? "" : " r" + revision) + "\",\"type\":\"stock\",\"currentPrice\":"
+                + (100 + i % 7) + ",\"demand\":" + (i % 13) + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package marketops.catalog.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import marketops.catalog.repository.marketops2.MarketAsset;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Jackson round trip of a MarketAsset with a long price history, through the mapper the handlers use. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistorySerializationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int ticks;
+
+    private final ObjectMapper mapper = JavalinJackson.defaultMapper();
+    private MarketAsset asset;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        asset = new MarketAsset();
+        asset.id = "asset-1";
+        asset.name = "Benchmark asset";
+        asset.type = "stock";
+        for (int i = 0; i < ticks; i++) asset.history.append(1_700_000_000_000L + i * 1000L, 100.0 + (i % 37) * 0.25, i % 3 == 0 ? null : 10.0 + i % 11);
+        asset.currentPrice = asset.history.priceAt(ticks - 1);
+        json = mapper.writeValueAsBytes(asset);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException { return mapper.writeValueAsBytes(asset); }
+
+    @Benchmark
+    public MarketAsset deserialize() throws IOException { return mapper.readValue(json, MarketAsset.class); }
+}
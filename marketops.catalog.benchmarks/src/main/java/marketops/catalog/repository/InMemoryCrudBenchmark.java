@@ -0,0 +1,79 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import marketops.catalog.repository.marketops2.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * marketops2 setupCrud handlers end to end (Jetty, routing, JSON, engine, log) on an ephemeral
+ * loopback port, with the store in a temp directory. Writes post a new revision each time, so they
+ * are stored; repostUnchanged posts what is already stored, which is answered from its content hash.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmarketops.upsert.ttlMs=3600000")
+public class InMemoryCrudBenchmark {
+
+    private static final int PRELOADED = 10_000;
+
+    private Path store;
+    private Javalin app;
+    private LoopbackClient client;
+    private long revision;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = Files.createTempDirectory("marketops-bench");
+        System.setProperty("marketops.store", store.toString());
+        marketops2.engine.forceGrant("admin_user", "ADMIN:ALL");
+        marketops2.engine.addIndex(DataSet.class, "name", ds -> ds.name);
+        app = Javalin.create(config -> config.showJavalinBanner = false);
+        marketops2.setupCrud(app, "data-sets", DataSet.class, ds -> ds.id);
+        marketops2.setupCrud(app, "market-assets", MarketAsset.class, ma -> ma.id);
+        marketops2.recover();
+        app.start(0);
+        client = new LoopbackClient(app.port());
+        for (int i = 0; i < PRELOADED; i++) client.post("/catalog/data-sets", dataSet(i), 201);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        app.stop();
+        try (Stream<Path> files = Files.walk(store)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String post() throws Exception { return client.post("/catalog/data-sets", dataSet(ThreadLocalRandom.current().nextInt(PRELOADED), ++revision), 201); }
+
+    @Benchmark
+    public String repostUnchanged() throws Exception { return client.post("/catalog/data-sets", dataSet(ThreadLocalRandom.current().nextInt(PRELOADED)), 200); }
+
+    @Benchmark
+    public String getById() throws Exception { return client.get("/catalog/data-sets/ds" + ThreadLocalRandom.current().nextInt(PRELOADED)); }
+
+    @Benchmark
+    public String listPage() throws Exception { return client.get("/catalog/data-sets?limit=100&after=ds" + ThreadLocalRandom.current().nextInt(PRELOADED)); }
+
+    @Benchmark
+    public String listFiltered() throws Exception { return client.get("/catalog/data-sets?name=set" + ThreadLocalRandom.current().nextInt(100)); }
+
+    static String dataSet(int i) { return dataSet(i, 0); }
+
+    static String dataSet(int i, long revision) {
+        return "{\"id\":\"ds" + i + "\",\"name\":\"set" + (i % 100) + "\",\"description\":\"Benchmark data set " + i
+                + (revision == 0 ? "" : " r" + revision) + "\",\"path\":\"/data/" + i + "\"}";
+    }
+}
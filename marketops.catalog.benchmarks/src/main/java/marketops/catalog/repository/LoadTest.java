@@ -0,0 +1,138 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import org.h2.api.Trigger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Closed-loop load against the marketops4 read path: N clients each keep one GET /catalog/data-sets/{id}
+ * in flight over their own keep-alive connection, and requests/sec plus latency percentiles are reported
+ * per client count. The server runs in-process on in-memory H2 with ServerConfig, so the execution mode
+ * and pool come from the usual properties (marketops.threads, marketops.pool.size, ...).
+ * -Dload.latencyMs= makes every SELECT on data_sets sleep that long, standing in for a slow database.
+ * GET-by-id responses are cached (ResponseCache); -Dmarketops.cache.ttlMs=0 measures the database path,
+ * with or without -Dmarketops.l2cache=true.
+ *
+ *   java -Dmarketops.threads=virtual -Dload.latencyMs=20 -cp target/benchmarks.jar \
+ *        marketops.catalog.repository.LoadTest 1000 5000 10000
+ */
+public final class LoadTest {
+
+    private static final int ROWS = 5_000;
+    private static final int SECONDS = Integer.getInteger("load.seconds", 10);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 3);
+    private static final int LATENCY_MS = Integer.getInteger("load.latencyMs", 0);
+
+    private LoadTest() {}
+
+    /** BEFORE SELECT trigger on data_sets: the simulated query time. */
+    public static class Slow implements Trigger {
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws java.sql.SQLException {
+            try { Thread.sleep(LATENCY_MS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] levels = args.length == 0 ? new int[] { 1_000, 5_000, 10_000 } : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        marketops4.initDatabase(Map.of(
+                "hibernate.connection.driver_class", "org.h2.Driver",
+                "hibernate.connection.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1;IGNORE_UNKNOWN_SETTINGS=TRUE",
+                "hibernate.connection.username", "sa",
+                "hibernate.connection.password", "",
+                "hibernate.dialect", "org.hibernate.dialect.H2Dialect",
+                "hibernate.show_sql", "false"));
+        marketops4.bootstrapAdmin();
+        Javalin app = Javalin.create(config -> { ServerConfig.server(config); config.showJavalinBanner = false; });
+        marketops4.setupCrud(app, "data-sets", marketops4.DataSet.class);
+        ServerConfig.routes(app, marketops4.sessionFactory);
+        app.start(0);
+        try {
+            LoopbackClient admin = new LoopbackClient(app.port());
+            StringBuilder bulk = new StringBuilder("[");
+            for (int i = 0; i < ROWS; i++) bulk.append(i == 0 ? "" : ",").append(InMemoryCrudBenchmark.dataSet(i));
+            admin.post("/catalog/data-sets/bulk", bulk.append(']').toString(), 200);
+            if (LATENCY_MS > 0) {
+                try (var session = marketops4.sessionFactory.openSession()) {
+                    var tx = session.beginTransaction();
+                    session.createNativeMutationQuery("create trigger slow_select before select on data_sets call \"" + Slow.class.getName() + "\"").executeUpdate();
+                    tx.commit();
+                }
+            }
+            System.out.printf(">>> threads=%s pool=%d timeout=%dms latency=%dms, %ds per level after %ds warmup%n",
+                    ServerConfig.VIRTUAL ? "virtual" : "platform", ServerConfig.POOL_SIZE, ServerConfig.POOL_TIMEOUT_MS, LATENCY_MS, SECONDS, WARMUP_SECONDS);
+            for (int clients : levels) run(app.port(), clients);
+            System.out.println(">>> " + ServerConfig.stats(marketops4.sessionFactory));
+            if (EntityCache.ENABLED) System.out.println(">>> " + EntityCache.stats(marketops4.sessionFactory));
+        } finally {
+            app.stop();
+            System.exit(0);
+        }
+    }
+
+    private static void run(int port, int clients) throws InterruptedException {
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(java.time.Duration.ofSeconds(30)).build();
+        Recorder recorder = new Recorder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            loop(http, port, recorder, running, done);
+            if (c % 500 == 499) Thread.sleep(50); // ramp up instead of one SYN burst
+        }
+        Thread.sleep(WARMUP_SECONDS * 1000L);
+        recorder.reset();
+        long start = System.nanoTime();
+        Thread.sleep(SECONDS * 1000L);
+        Recorder.Snapshot s = recorder.snapshot((System.nanoTime() - start) / 1e9);
+        running.set(false);
+        done.await(60, TimeUnit.SECONDS);
+        System.out.printf(">>> %6d clients: %8.0f req/s  p50 %6.1f ms  p99 %7.1f ms  max %7.1f ms  statuses %s%n",
+                clients, s.perSecond, s.p50, s.p99, s.max, s.statuses);
+    }
+
+    private static void loop(HttpClient http, int port, Recorder recorder, AtomicBoolean running, CountDownLatch done) {
+        if (!running.get()) { done.countDown(); return; }
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/catalog/data-sets/ds"
+                + ThreadLocalRandom.current().nextInt(ROWS))).GET().build();
+        long t0 = System.nanoTime();
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            recorder.record(System.nanoTime() - t0, error != null ? "error" : String.valueOf(response.statusCode()));
+            loop(http, port, recorder, running, done);
+        });
+    }
+
+    /** Latencies of one measurement window; sorted once at the end for the percentiles. */
+    private static final class Recorder {
+        private long[] nanos = new long[1 << 20];
+        private int size;
+        private final Map<String, Long> statuses = new TreeMap<>();
+
+        record Snapshot(double perSecond, double p50, double p99, double max, Map<String, Long> statuses) {}
+
+        synchronized void record(long latency, String status) {
+            if (size == nanos.length) nanos = Arrays.copyOf(nanos, size * 2);
+            nanos[size++] = latency;
+            statuses.merge(status, 1L, Long::sum);
+        }
+
+        synchronized void reset() { size = 0; statuses.clear(); }
+
+        synchronized Snapshot snapshot(double seconds) {
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            return new Snapshot(size / seconds, millis(sorted, 0.50), millis(sorted, 0.99), millis(sorted, 1.0), new TreeMap<>(statuses));
+        }
+
+        private static double millis(long[] sorted, double q) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)] / 1e6;
+        }
+    }
+}
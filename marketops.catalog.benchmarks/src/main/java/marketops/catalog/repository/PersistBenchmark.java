@@ -0,0 +1,61 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import marketops.catalog.repository.marketops2.DataSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * marketops2.persist(): log append plus fsync wait, against a fresh store in a temp directory.
+ * The concurrent variant shows how far group commit spreads one fsync across writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistBenchmark {
+
+    private Path store;
+
+    @Setup
+    public void setUp() throws IOException {
+        store = Files.createTempDirectory("marketops-bench");
+        System.setProperty("marketops.store", store.toString());
+        marketops2.setupCrud(Javalin.create(), "data-sets", DataSet.class, ds -> ds.id); // registers the log type tag
+        marketops2.recover();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(store)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void persistSingleWriter() throws IOException { persistOne(); }
+
+    @Benchmark
+    @Threads(16)
+    public void persistSixteenWriters() throws IOException { persistOne(); }
+
+    private static void persistOne() throws IOException {
+        int i = ThreadLocalRandom.current().nextInt(100_000);
+        DataSet ds = new DataSet();
+        ds.id = "ds" + i;
+        ds.name = "set" + i;
+        ds.description = "Benchmark data set " + i;
+        ds.path = "/data/" + i;
+        marketops2.persist(ds.id, ds);
+    }
+}
@@ -0,0 +1,208 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * OHLC candles (open/high/low/close price, average demand, tick count) per MarketAsset.
+ * Candles are aligned to the epoch in UTC, so a 1h candle starts on the hour and a 1d candle at midnight UTC.
+ * For the in-memory store an asset's history is rolled up into 1m, 1h and 1d tiers the first time someone
+ * asks for it, and from then on the tiers are updated on every history append, the way RollingStats is.
+ * A query folds the widest tier that divides the interval, so a year of ticks at 1d is 365 candles read
+ * straight off the tier. The database server builds the same Candle rows with one grouped query instead.
+ */
+public class Candles {
+
+    public static final long MINUTE = 60_000L, HOUR = 3_600_000L, DAY = 86_400_000L;
+    private static final long[] TIERS = { MINUTE, HOUR, DAY };
+    public static final int DEFAULT_LIMIT = 1_000, MAX_LIMIT = 10_000;
+
+    /** One candle; prices are null when the interval had no priced tick, demand when it had no demand. */
+    public static class Candle {
+        public final long start;
+        public final Double open, high, low, close, demand;
+        public final long ticks;
+
+        public Candle(long start, double open, double high, double low, double close, double demand, long ticks) {
+            this.start = start;
+            this.open = boxed(open);
+            this.high = boxed(high);
+            this.low = boxed(low);
+            this.close = boxed(close);
+            this.demand = boxed(demand);
+            this.ticks = ticks;
+        }
+
+        private static Double boxed(double x) { return Double.isNaN(x) || Double.isInfinite(x) ? null : x; }
+    }
+
+    /**
+     * ?interval=1h&from=&to=&limit= as candle bounds: every candle that overlaps [from, to], the newest
+     * limit of them. from is rounded down to its candle start, end is the exclusive end of to's candle.
+     */
+    public static final class Query {
+        public final long interval, from, end;
+        public final int limit;
+
+        Query(long interval, long from, long to, int limit) {
+            this.interval = interval;
+            this.from = Math.floorDiv(from, interval) * interval;
+            long last = Math.floorDiv(to, interval);
+            this.end = last >= Long.MAX_VALUE / interval ? Long.MAX_VALUE : (last + 1) * interval;
+            this.limit = limit;
+        }
+    }
+
+    public static Query query(Context ctx) {
+        String value = ctx.queryParam("interval");
+        long interval = value == null || value.isBlank() ? HOUR : RollingStats.window(value);
+        if (interval <= 0 || interval % MINUTE != 0) throw new BadRequestResponse("Invalid interval: " + value + " (whole minutes, e.g. 1m, 15m, 1h, 1d)");
+        long from = longParam(ctx, "from", 0), to = longParam(ctx, "to", Long.MAX_VALUE);
+        int limit = (int) Math.min(Math.max(longParam(ctx, "limit", DEFAULT_LIMIT), 1), MAX_LIMIT);
+        return new Query(interval, from, to, limit);
+    }
+
+    public static void respond(Context ctx, String assetId, Query query, List<Candle> candles) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("assetId", assetId);
+        result.put("interval", query.interval / 1000 + "s");
+        result.put("candles", candles);
+        ctx.json(result);
+    }
+
+    private static long longParam(Context ctx, String name, long fallback) {
+        String value = ctx.queryParam(name);
+        if (value == null || value.isBlank()) return fallback;
+        try { return Long.parseLong(value); } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid " + name + ": " + value); }
+    }
+
+    /** Candles of query folded from ticks in timestamp order, for histories the database cannot group (cold blocks). */
+    public static List<Candle> fold(Query query, Consumer<PriceHistory.TickConsumer> ticks) {
+        Tier tier = new Tier(query.interval);
+        ticks.accept((timestamp, price, demand) -> { if (timestamp >= query.from && timestamp < query.end) tier.add(timestamp, price, demand); });
+        return tier.fold(query);
+    }
+
+    // --- IN-MEMORY ROLLUPS ---
+
+    /** Candles of one width in start order, as growable primitive columns. Not thread-safe. */
+    private static final class Tier {
+        final long width;
+        int size;
+        long[] starts = new long[16];
+        long[] ticks = new long[16];
+        double[] open = new double[16], high = new double[16], low = new double[16], close = new double[16];
+        double[] demandSum = new double[16];
+        long[] demandCount = new long[16];
+
+        Tier(long width) { this.width = width; }
+
+        void add(long timestamp, double price, double demand) {
+            long start = Math.floorDiv(timestamp, width) * width;
+            int i = size - 1;
+            // A tick older than the newest candle counts in it, as PriceHistory clamps late ticks
+            if (i < 0 || start > starts[i]) i = open(start);
+            ticks[i]++;
+            if (!Double.isNaN(price)) {
+                if (Double.isNaN(open[i])) open[i] = price;
+                high[i] = Math.max(high[i], price);
+                low[i] = Math.min(low[i], price);
+                close[i] = price;
+            }
+            if (!Double.isNaN(demand)) {
+                demandSum[i] += demand;
+                demandCount[i]++;
+            }
+        }
+
+        private int open(long start) {
+            if (size == starts.length) {
+                int n = size * 2;
+                starts = Arrays.copyOf(starts, n);
+                ticks = Arrays.copyOf(ticks, n);
+                open = Arrays.copyOf(open, n);
+                high = Arrays.copyOf(high, n);
+                low = Arrays.copyOf(low, n);
+                close = Arrays.copyOf(close, n);
+                demandSum = Arrays.copyOf(demandSum, n);
+                demandCount = Arrays.copyOf(demandCount, n);
+            }
+            int i = size++;
+            starts[i] = start;
+            open[i] = close[i] = Double.NaN;
+            high[i] = Double.NEGATIVE_INFINITY;
+            low[i] = Double.POSITIVE_INFINITY;
+            return i;
+        }
+
+        /** First candle whose start is >= the given one (size if none). */
+        int lowerBound(long start) {
+            int i = Arrays.binarySearch(starts, 0, size, start);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /** The newest query.limit candles of query.interval in [query.from, query.end), folded from this tier newest first. */
+        List<Candle> fold(Query query) {
+            ArrayDeque<Candle> out = new ArrayDeque<>();
+            int first = lowerBound(query.from);
+            int i = lowerBound(query.end) - 1;
+            while (i >= first && out.size() < query.limit) {
+                long start = Math.floorDiv(starts[i], query.interval) * query.interval;
+                double o = Double.NaN, h = Double.NEGATIVE_INFINITY, l = Double.POSITIVE_INFINITY, c = Double.NaN, dSum = 0;
+                long dCount = 0, n = 0;
+                for (; i >= first && starts[i] >= start; i--) {
+                    if (!Double.isNaN(open[i])) o = open[i];
+                    if (Double.isNaN(c)) c = close[i];
+                    h = Math.max(h, high[i]);
+                    l = Math.min(l, low[i]);
+                    dSum += demandSum[i];
+                    dCount += demandCount[i];
+                    n += ticks[i];
+                }
+                out.addFirst(new Candle(start, o, h, l, c, dCount == 0 ? Double.NaN : dSum / dCount, n));
+            }
+            return new ArrayList<>(out);
+        }
+    }
+
+    private static final class Series extends SeededSeries.Series {
+        final Tier[] tiers = new Tier[TIERS.length];
+
+        Series() { for (int t = 0; t < TIERS.length; t++) tiers[t] = new Tier(TIERS[t]); }
+
+        @Override
+        protected void accept(long timestamp, double price, double demand) { for (Tier tier : tiers) tier.add(timestamp, price, demand); }
+
+        synchronized List<Candle> query(Query query) {
+            Tier tier = tiers[0];
+            for (Tier t : tiers) if (query.interval % t.width == 0) tier = t;
+            return tier.fold(query);
+        }
+    }
+
+    private final SeededSeries<Series> series;
+
+    public Candles(RollingStats.Seeder seeder) { this.series = new SeededSeries<>(seeder, Series::new); }
+
+    /** Drops an asset's rollups, e.g. when its history was replaced wholesale; the next query reseeds them. */
+    public void invalidate(String assetId) { series.invalidate(assetId); }
+
+    /** Called after every history append; a no-op for assets nobody has asked about. */
+    public void update(String assetId, long seq, long timestamp, double price, double demand) { series.update(assetId, seq, timestamp, price, demand); }
+
+    /** Candles from the rollup tiers, seeding them on first use; null if the asset is unknown. */
+    public List<Candle> query(String assetId, Query query) {
+        Series s = series.get(assetId);
+        return s == null ? null : s.query(query);
+    }
+
+    /** GET /catalog/market-assets/{id}/candles?interval=1h&from=&to=&limit= */
+    public void serve(Context ctx, String assetId) {
+        Query query = query(ctx);
+        List<Candle> candles = query(assetId, query);
+        if (candles != null) respond(ctx, assetId, query, candles); else ctx.status(404).result("Not Found");
+    }
+}
@@ -0,0 +1,87 @@
+package marketops.catalog.repository;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared pieces of POST /catalog/{path}/bulk.
+ * The body is either a JSON array or NDJSON and is parsed one item at a time; the handler writes
+ * items in chunks (one transaction per chunk) and answers with one Result per item, in body order.
+ */
+public final class CatalogBulk {
+
+    public static final int CHUNK = 500;
+
+    private static final ObjectMapper MAPPER = JavalinJackson.defaultMapper();
+
+    private CatalogBulk() {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Result {
+        public int index;
+        public String id;
+        public int status; // 201 created, 200 updated, 4xx/5xx failed
+        public String error;
+
+        public Result(int index, String id, int status, String error) {
+            this.index = index;
+            this.id = id;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    /** Chunked reader over the items of an array or NDJSON body; never holds more than one chunk. */
+    public static class Reader<T> {
+        private final MappingIterator<T> items;
+        private final List<T> chunk = new ArrayList<>(CHUNK);
+        private int firstIndex;
+        private Result error;
+
+        Reader(MappingIterator<T> items) { this.items = items; }
+
+        /**
+         * Next chunk of up to CHUNK items, empty once the body is done. A parse error ends the body
+         * (the parser cannot resynchronize) and is reported by error() at the item's index.
+         */
+        public List<T> next() {
+            firstIndex += chunk.size();
+            chunk.clear();
+            if (error != null) return chunk;
+            try {
+                while (chunk.size() < CHUNK && items.hasNextValue()) chunk.add(items.nextValue());
+            } catch (IOException | RuntimeException e) {
+                error = new Result(firstIndex + chunk.size(), null, 400, "Unreadable item: " + e.getMessage());
+            }
+            return chunk;
+        }
+
+        public int firstIndex() { return firstIndex; }
+        public Result error() { return error; }
+    }
+
+    public static <T> Reader<T> read(Context ctx, Class<T> clazz) throws IOException { return read(ctx, reader(clazz)); }
+
+    /** With a reader prebuilt by reader(Class). */
+    public static <T> Reader<T> read(Context ctx, ObjectReader reader) throws IOException {
+        return new Reader<>(reader.readValues(ctx.bodyInputStream()));
+    }
+
+    /** Reader for request bodies, configured like ctx.bodyAsClass(). */
+    public static ObjectReader reader(Class<?> clazz) { return MAPPER.readerFor(clazz); }
+
+    /** Same result for every item of a chunk, e.g. when its transaction rolled back. */
+    public static List<Result> failed(List<String> ids, int firstIndex, int status, String error) {
+        List<Result> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) results.add(new Result(firstIndex + i, ids.get(i), status, error));
+        return results;
+    }
+}
@@ -0,0 +1,115 @@
+package marketops.catalog.repository;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Streaming list responses shared by the setupCrud variants.
+ * GET /catalog/{path}?limit=&after= pages by id (keyset: "after" is the last id of the previous page),
+ * and ?format=ndjson or "Accept: application/x-ndjson" switches from a JSON array to one object per line.
+ * Rows are written to the response as the source yields them, so memory stays flat whatever the size.
+ */
+public final class CatalogLists {
+
+    public static final String NDJSON = "application/x-ndjson";
+    public static final int MAX_PAGE = 10_000;
+    public static final int FETCH_SIZE = 500;
+    /** Query parameters owned by paging/format; anything else on a list request is a field filter. */
+    public static final Set<String> PARAMS = Set.of("limit", "after", "format");
+
+    // Same configuration as ctx.json(), minus the flush after every row
+    private static final ObjectWriter WRITER = JavalinJackson.defaultMapper().writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private CatalogLists() {}
+
+    /** ?limit= and ?after= of a list request; limit 0 means the whole remainder. */
+    public static class Page {
+        public final int limit;
+        public final String after;
+        Page(int limit, String after) { this.limit = limit; this.after = after; }
+        public boolean keyset() { return after != null; }
+        public boolean paged() { return limit > 0 || after != null; }
+    }
+
+    public static Page page(Context ctx) {
+        String limit = ctx.queryParam("limit");
+        String after = ctx.queryParam("after");
+        int n;
+        try {
+            n = (limit == null || limit.isBlank()) ? 0 : Math.min(Math.max(Integer.parseInt(limit), 1), MAX_PAGE);
+        } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid limit: " + limit); }
+        return new Page(n, (after == null || after.isBlank()) ? null : after);
+    }
+
+    public static boolean ndjson(Context ctx) {
+        String accept = ctx.header("Accept");
+        return "ndjson".equalsIgnoreCase(ctx.queryParam("format")) || (accept != null && accept.contains(NDJSON));
+    }
+
+    /** The list writer bound to one row type, so serializers are resolved once instead of per row. */
+    public static ObjectWriter writer(Class<?> type) { return WRITER.forType(type); }
+
+    /** Writes rows as they come; afterWrite runs once a row is serialized (e.g. to detach it from a session). */
+    public static <T> void write(Context ctx, Iterator<T> rows, Consumer<? super T> afterWrite) throws IOException {
+        write(ctx, WRITER, rows, afterWrite);
+    }
+
+    public static <T> void write(Context ctx, ObjectWriter writer, Iterator<T> rows, Consumer<? super T> afterWrite) throws IOException {
+        boolean ndjson = ndjson(ctx);
+        ctx.contentType(ndjson ? NDJSON : "application/json");
+        OutputStream out = ctx.outputStream();
+        try (SequenceWriter seq = ndjson ? writer.withRootValueSeparator("\n").writeValues(out) : writer.writeValuesAsArray(out)) {
+            boolean first = true;
+            while (rows.hasNext()) {
+                T row = rows.next();
+                seq.write(row);
+                afterWrite.accept(row);
+                if (first) { seq.flush(); first = false; } // get the first byte out right away
+            }
+            if (ndjson && !first) { seq.flush(); out.write('\n'); }
+        }
+    }
+
+    public static <T> void write(Context ctx, Iterator<T> rows) throws IOException { write(ctx, rows, row -> {}); }
+
+    /**
+     * Pulls rows a batch of up to size ahead of the consumer, so while a batch is written all of it sits in the
+     * session: a lazy collection with @BatchSize(size = FETCH_SIZE) then loads for the whole batch in one query.
+     */
+    public static <T> Iterator<T> readAhead(Iterator<T> rows, int size) {
+        return new Iterator<T>() {
+            private final ArrayList<T> batch = new ArrayList<>(size);
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next < batch.size()) return true;
+                batch.clear();
+                next = 0;
+                while (batch.size() < size && rows.hasNext()) batch.add(rows.next());
+                return !batch.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                T row = batch.get(next);
+                batch.set(next++, null);
+                return row;
+            }
+        };
+    }
+}
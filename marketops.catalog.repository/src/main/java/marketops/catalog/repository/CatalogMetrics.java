@@ -0,0 +1,342 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.hibernate.SessionEventListener;
+import org.hibernate.SessionFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.*;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Prometheus text-format metrics for the catalog servers, served at GET /metrics.
+ * Latencies go into HdrHistogram Recorders: writers record without locks, and a scrape swaps out
+ * the interval histogram and folds it into a running total, which is exported as cumulative buckets.
+ * Recording costs well under a microsecond, so it stays on. Gauges are computed when scraped, from
+ * suppliers the servers register; the ones that query the database are cached for a minute.
+ */
+public final class CatalogMetrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    /** Bucket upper bounds in seconds. */
+    private static final double[] BUCKETS = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+    private static final long DB_GAUGE_TTL_NANOS = 60_000_000_000L;
+    private static final int TOP_ASSETS = 20;
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+
+    public static final Family HTTP = family("marketops_http_request_duration_seconds", "Request handling time by route", "method", "route", "status");
+    public static final Family AUTH = family("marketops_auth_check_duration_seconds", "Permission check time", "result");
+    public static final Family DB = family("marketops_db_duration_seconds", "Store time per unit of work: JDBC prepare/execute/batch per session (marketops3/4), engine + log write (marketops2)", "entity");
+    public static final Family JSON = family("marketops_json_duration_seconds", "JSON (de)serialization time by type", "op", "type");
+
+    private CatalogMetrics() {}
+
+    /** A latency histogram; record() is safe from any thread and does not block. */
+    public static final class Timer {
+        private final String[] labels;
+        private final Recorder recorder = new Recorder(2);
+        private final LongAdder sumNanos = new LongAdder();
+        private final Histogram total = new Histogram(2);
+        private Histogram interval;
+
+        Timer(String[] labels) { this.labels = labels; }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            recorder.recordValue(nanos);
+            sumNanos.add(nanos);
+        }
+
+        public void since(long startNanos) { record(System.nanoTime() - startNanos); }
+
+        synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return total;
+        }
+    }
+
+    /** Timers of one metric name, one per combination of label values. */
+    public static final class Family {
+        final String name, help;
+        final String[] labelNames;
+        private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String[] labelNames) { this.name = name; this.help = help; this.labelNames = labelNames; }
+
+        public Timer timer(String... labelValues) {
+            Timer t = timers.get(key(labelValues));
+            return t != null ? t : timers.computeIfAbsent(key(labelValues), k -> new Timer(labelValues.clone()));
+        }
+
+        private static String key(String[] values) { return values.length == 1 ? values[0] : String.join("\u0001", values); }
+    }
+
+    public static Family family(String name, String help, String... labelNames) {
+        return FAMILIES.computeIfAbsent(name, n -> new Family(n, help, labelNames));
+    }
+
+    // --- GAUGES ---
+
+    /** Receives the samples of a gauge, one call per combination of label values. */
+    @FunctionalInterface
+    public interface Sink { void sample(double value, String... labelValues); }
+
+    @FunctionalInterface
+    public interface Source { void collect(Sink sink); }
+
+    private record Gauge(String name, String help, String type, String[] labelNames, Source source) {}
+
+    public static void gauge(String name, String help, String[] labelNames, Source source) {
+        GAUGES.put(name, new Gauge(name, help, "gauge", labelNames, source));
+    }
+
+    public static void counter(String name, String help, String[] labelNames, Source source) {
+        GAUGES.put(name, new Gauge(name, help, "counter", labelNames, source));
+    }
+
+    /** Objects per entity type, counted in the database (cached). */
+    public static void entityCounts(SessionFactory sessionFactory, Class<?>... types) {
+        Supplier<Map<String, Long>> counts = cached(() -> {
+            Map<String, Long> m = new TreeMap<>();
+            try (var session = sessionFactory.openSession()) {
+                for (Class<?> type : types) m.put(type.getSimpleName(), session.createQuery("select count(e) from " + type.getName() + " e", Long.class).getSingleResult());
+            }
+            return m;
+        });
+        gauge("marketops_catalog_objects", "Objects in the catalog store by type", new String[] { "type" },
+                sink -> counts.get().forEach((type, n) -> sink.sample(n, type)));
+    }
+
+    /** History rows per asset from the market_history table (cached). */
+    public static void historyRows(SessionFactory sessionFactory) {
+        historyRows(sessionFactory, "select asset_id, count(*) from market_history group by asset_id");
+    }
+
+    /** History rows per asset as counted by a query returning (asset_id, count) rows (cached). */
+    public static void historyRows(SessionFactory sessionFactory, String countsSql) {
+        Supplier<Map<String, Long>> rows = cached(() -> {
+            Map<String, Long> m = new HashMap<>();
+            try (var session = sessionFactory.openSession()) {
+                for (Object[] r : session.createNativeQuery(countsSql, Object[].class).getResultList()) {
+                    if (r[0] != null) m.put(r[0].toString(), ((Number) r[1]).longValue());
+                }
+            }
+            return m;
+        });
+        historyRows(rows);
+    }
+
+    /**
+     * History rows per asset: totals over all assets plus one series for each of the largest
+     * TOP_ASSETS, so the number of series stays bounded however many assets there are.
+     */
+    public static void historyRows(Supplier<Map<String, Long>> rowsByAsset) {
+        gauge("marketops_history_rows", "History rows of the largest assets, and in total (asset=\"_all\")", new String[] { "asset" }, sink -> {
+            Map<String, Long> rows = rowsByAsset.get();
+            long total = 0;
+            for (long n : rows.values()) total += n;
+            sink.sample(total, "_all");
+            rows.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(TOP_ASSETS)
+                    .forEach(e -> sink.sample(e.getValue(), e.getKey()));
+        });
+        gauge("marketops_history_assets", "Assets with stored history", new String[0], sink -> sink.sample(rowsByAsset.get().size()));
+    }
+
+    private static <T> Supplier<T> cached(Supplier<T> load) {
+        return new Supplier<>() {
+            private T value;
+            private long loadedAt;
+            @Override public synchronized T get() {
+                if (value == null || System.nanoTime() - loadedAt > DB_GAUGE_TTL_NANOS) { value = load.get(); loadedAt = System.nanoTime(); }
+                return value;
+            }
+        };
+    }
+
+    // --- RECORDING HOOKS ---
+
+    /** Request timing plus timed JSON mapping; call after anything else that sets useVirtualThreads. */
+    public static void install(JavalinConfig config) {
+        config.jsonMapper(new TimedJsonMapper(new JavalinJackson(JavalinJackson.defaultMapper(), config.useVirtualThreads)));
+        config.requestLogger.http(CatalogMetrics::request);
+    }
+
+    public static void routes(Javalin app) {
+        app.get("/metrics", ctx -> ctx.contentType(CONTENT_TYPE).result(scrape()));
+    }
+
+    private static void request(Context ctx, Float executionTimeMs) {
+        String contentType = ctx.res().getContentType();
+        if (contentType != null && contentType.startsWith("text/event-stream")) return; // lifetime of a subscription, not a request
+        String route;
+        try {
+            route = ctx.endpointHandlerPath();
+        } catch (IllegalStateException e) { route = "unmatched"; } // no endpoint: keep raw paths out of the labels
+        HTTP.timer(ctx.method().name(), route, String.valueOf(ctx.statusCode())).record((long) (executionTimeMs * 1_000_000.0));
+    }
+
+    public static void auth(long startNanos, boolean allowed) { (allowed ? AUTH_ALLOWED : AUTH_DENIED).since(startNanos); }
+    private static final Timer AUTH_ALLOWED = AUTH.timer("allowed"), AUTH_DENIED = AUTH.timer("denied");
+
+    // Per-class (serialize, deserialize) timers, resolved once per class
+    private static final ClassValue<Timer[]> JSON_TIMERS = new ClassValue<>() {
+        @Override protected Timer[] computeValue(Class<?> type) {
+            return new Timer[] { JSON.timer("serialize", type.getSimpleName()), JSON.timer("deserialize", type.getSimpleName()) };
+        }
+    };
+
+    public static Timer json(Class<?> type, boolean serialize) { return JSON_TIMERS.get(type)[serialize ? 0 : 1]; }
+
+    private static Timer json(Type type, boolean serialize) {
+        if (type instanceof Class<?> c) return json(c, serialize);
+        if (type instanceof ParameterizedType p && p.getRawType() instanceof Class<?> c) return json(c, serialize);
+        return json(Object.class, serialize);
+    }
+
+    /** ctx.json() / bodyAsClass() through the default Jackson mapper, timed per type. */
+    private static final class TimedJsonMapper implements JsonMapper {
+        private final JsonMapper delegate;
+        TimedJsonMapper(JsonMapper delegate) { this.delegate = delegate; }
+
+        @Override public String toJsonString(Object obj, Type type) {
+            long t0 = System.nanoTime();
+            try { return delegate.toJsonString(obj, type); } finally { json(type, true).since(t0); }
+        }
+        @Override public InputStream toJsonStream(Object obj, Type type) {
+            long t0 = System.nanoTime();
+            try { return delegate.toJsonStream(obj, type); } finally { json(type, true).since(t0); }
+        }
+        @Override public void writeToOutputStream(Stream<?> stream, OutputStream out) {
+            long t0 = System.nanoTime();
+            try { delegate.writeToOutputStream(stream, out); } finally { json(Stream.class, true).since(t0); }
+        }
+        @Override public <T> T fromJsonString(String json, Type type) {
+            long t0 = System.nanoTime();
+            try { return delegate.fromJsonString(json, type); } finally { json(type, false).since(t0); }
+        }
+        @Override public <T> T fromJsonStream(InputStream json, Type type) {
+            long t0 = System.nanoTime();
+            try { return delegate.fromJsonStream(json, type); } finally { json(type, false).since(t0); }
+        }
+    }
+
+    /** Session listener summing JDBC prepare/execute/batch time; recorded under the entity when the session ends. */
+    public static SessionEventListener db(String entity) { return new DbTime(DB.timer(entity)); }
+
+    private static final class DbTime implements SessionEventListener {
+        private static final long serialVersionUID = 1L;
+        private final transient Timer timer;
+        private long start, total;
+
+        DbTime(Timer timer) { this.timer = timer; }
+
+        @Override public void jdbcPrepareStatementStart() { start = System.nanoTime(); }
+        @Override public void jdbcPrepareStatementEnd() { total += System.nanoTime() - start; }
+        @Override public void jdbcExecuteStatementStart() { start = System.nanoTime(); }
+        @Override public void jdbcExecuteStatementEnd() { total += System.nanoTime() - start; }
+        @Override public void jdbcExecuteBatchStart() { start = System.nanoTime(); }
+        @Override public void jdbcExecuteBatchEnd() { total += System.nanoTime() - start; }
+        @Override public void end() { if (total > 0) timer.record(total); }
+    }
+
+    // --- EXPOSITION ---
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family f : FAMILIES.values()) {
+            if (f.timers.isEmpty()) continue;
+            header(out, f.name, f.help, "histogram");
+            for (Timer t : f.timers.values()) {
+                Histogram h = t.snapshot();
+                long count = h.getTotalCount();
+                if (count == 0) continue;
+                for (double le : BUCKETS) {
+                    series(out, f.name + "_bucket", f.labelNames, t.labels, "le", format(le)).append(h.getCountBetweenValues(0, (long) (le * 1e9))).append('\n');
+                }
+                series(out, f.name + "_bucket", f.labelNames, t.labels, "le", "+Inf").append(count).append('\n');
+                series(out, f.name + "_sum", f.labelNames, t.labels, null, null).append(format(t.sumNanos.sum() / 1e9)).append('\n');
+                series(out, f.name + "_count", f.labelNames, t.labels, null, null).append(count).append('\n');
+            }
+        }
+        for (Gauge g : GAUGES.values()) {
+            header(out, g.name, g.help, g.type);
+            try {
+                g.source.collect((value, labelValues) -> series(out, g.name, g.labelNames, labelValues, null, null).append(format(value)).append('\n'));
+            } catch (RuntimeException e) { out.append("# ").append(g.name).append(" unavailable: ").append(e.getMessage()).append('\n'); }
+        }
+        jvm(out);
+        return out.toString();
+    }
+
+    private static void jvm(StringBuilder out) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        header(out, "jvm_memory_bytes", "JVM memory by area and kind", "gauge");
+        for (String[] area : new String[][] { { "heap" }, { "nonheap" } }) {
+            MemoryUsage u = area[0].equals("heap") ? memory.getHeapMemoryUsage() : memory.getNonHeapMemoryUsage();
+            out.append("jvm_memory_bytes{area=\"").append(area[0]).append("\",kind=\"used\"} ").append(u.getUsed()).append('\n');
+            out.append("jvm_memory_bytes{area=\"").append(area[0]).append("\",kind=\"committed\"} ").append(u.getCommitted()).append('\n');
+            if (u.getMax() >= 0) out.append("jvm_memory_bytes{area=\"").append(area[0]).append("\",kind=\"max\"} ").append(u.getMax()).append('\n');
+        }
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        header(out, "jvm_gc_collections_total", "GC runs by collector", "counter");
+        for (GarbageCollectorMXBean gc : gcs) out.append("jvm_gc_collections_total{gc=\"").append(escape(gc.getName())).append("\"} ").append(gc.getCollectionCount()).append('\n');
+        header(out, "jvm_gc_seconds_total", "GC time by collector", "counter");
+        for (GarbageCollectorMXBean gc : gcs) out.append("jvm_gc_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ").append(format(gc.getCollectionTime() / 1e3)).append('\n');
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        header(out, "jvm_threads", "Live platform threads", "gauge");
+        out.append("jvm_threads ").append(threads.getThreadCount()).append('\n');
+        header(out, "process_uptime_seconds", "JVM uptime", "gauge");
+        out.append("process_uptime_seconds ").append(format(ManagementFactory.getRuntimeMXBean().getUptime() / 1e3)).append('\n');
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            header(out, "process_cpu_seconds_total", "CPU time used by the process", "counter");
+            out.append("process_cpu_seconds_total ").append(format(os.getProcessCpuTime() / 1e9)).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static StringBuilder series(StringBuilder out, String name, String[] names, String[] values, String extraName, String extraValue) {
+        out.append(name);
+        if (names.length > 0 || extraName != null) {
+            out.append('{');
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) out.append(',');
+                out.append(names[i]).append("=\"").append(escape(i < values.length ? values[i] : "")).append('"');
+            }
+            if (extraName != null) out.append(names.length > 0 ? "," : "").append(extraName).append("=\"").append(extraValue).append('"');
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "";
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+}
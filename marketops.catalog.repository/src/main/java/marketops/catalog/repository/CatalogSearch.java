@@ -0,0 +1,417 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over the text fields of catalog objects (names, descriptions, schemas, equations), so a
+ * data set can be found by a column name or a model by a word of its description without listing the catalog.
+ * Text is split into lower-case words at anything that is not a letter or digit and at camelCase humps
+ * ("close_price", "closePrice" and "Close Price" all give close + price).
+ *
+ * A query matches the objects that contain every one of its words. Its last word, as it is being typed, also
+ * matches as the prefix of longer words if it has MIN_PREFIX or more characters (at most MAX_EXPANSIONS of them).
+ * Each matched word scores its rarity (idf), triple in the object's name field, half for a prefix match;
+ * hits are the objects with the highest total.
+ *
+ * Terms are kept sorted, so prefixes are a range of the term map. Postings are doc numbers in increasing
+ * order: re-indexing an object deletes its old doc number and appends a new one, and the postings are
+ * compacted once deleted docs outnumber live ones. Queries share a read lock; writes take the write lock.
+ * A query costs about the postings of its rarest word, so one made only of words most objects contain
+ * (say "id date") scans a large part of the index.
+ */
+public final class CatalogSearch {
+
+    public static final int DEFAULT_LIMIT = 20, MAX_LIMIT = 1_000;
+    static final int MIN_PREFIX = 2, MAX_EXPANSIONS = 128, MAX_TOKEN = 64;
+    private static final float NAME_WEIGHT = 3, TEXT_WEIGHT = 1, PREFIX_WEIGHT = 0.5f;
+    private static final int COMPACT_MIN = 4_096;
+
+    public static final CatalogMetrics.Family QUERIES = CatalogMetrics.family("marketops_search_query_duration_seconds", "Catalog search time by type filter", "type");
+
+    public static class Hit {
+        public final String type;
+        public final String id;
+        public final double score;
+
+        Hit(String type, String id, double score) { this.type = type; this.id = id; this.score = score; }
+    }
+
+    /** The best hits and how many objects matched in all. */
+    public static class Result {
+        public final String query;
+        public final int total;
+        public final List<Hit> hits;
+
+        Result(String query, int total, List<Hit> hits) { this.query = query; this.total = total; this.hits = hits; }
+    }
+
+    private static final class Type {
+        final int index;
+        final String path;
+        final Field id;
+        final Field[] fields;
+        final String[] properties;
+        final Map<String, Integer> docs = new HashMap<>(); // id -> live doc; guarded by lock
+
+        Type(int index, String path, Field id, Field[] fields, String[] properties) {
+            this.index = index; this.path = path; this.id = id; this.fields = fields; this.properties = properties;
+        }
+    }
+
+    // Docs containing a term, in increasing order, with a bit per field the term occurs in (bit 0 = name)
+    private static final class Postings {
+        int[] docs = new int[2];
+        byte[] fields = new byte[2];
+        int size;
+
+        void add(int doc, byte mask) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            docs[size] = doc;
+            fields[size++] = mask;
+        }
+
+        void remap(int[] to) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (to[docs[i]] < 0) continue;
+                docs[n] = to[docs[i]];
+                fields[n++] = fields[i];
+            }
+            size = n;
+        }
+    }
+
+    private record Term(Postings postings, float weight) {}
+
+    private final List<Type> types = new ArrayList<>();
+    private final Map<Class<?>, Type> byClass = new HashMap<>();
+    private final Map<String, Type> byPath = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private byte[] docType = new byte[1_024];
+    private String[] docId = new String[1_024];
+    private long[] docHash = new long[1_024];
+    private final BitSet deleted = new BitSet();
+    private int next, dead;
+
+    /** Indexes objects of clazz by these public String fields; the first is the object's name. Call before indexing. */
+    public void type(String path, Class<?> clazz, String... properties) {
+        try {
+            Field[] fields = new Field[properties.length];
+            for (int i = 0; i < properties.length; i++) fields[i] = clazz.getField(properties[i]);
+            Type type = new Type(types.size(), path, clazz.getField("id"), fields, properties.clone());
+            types.add(type);
+            byClass.put(clazz, type);
+            byPath.put(path, type);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("No field " + e.getMessage() + " in " + clazz.getSimpleName());
+        }
+    }
+
+    /** The indexed fields of clazz (null if not indexed), in the order put(clazz, id, texts) takes them. */
+    public String[] properties(Class<?> clazz) {
+        Type type = byClass.get(clazz);
+        return type == null ? null : type.properties.clone();
+    }
+
+    /** Indexes a stored object; objects of types that are not indexed are ignored. */
+    public void put(Object item) {
+        Type type = byClass.get(item.getClass());
+        if (type == null) return;
+        try {
+            String id = (String) type.id.get(item);
+            String[] texts = new String[type.fields.length];
+            for (int i = 0; i < texts.length; i++) texts[i] = (String) type.fields[i].get(item);
+            put(type, id, texts);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Indexes an object given its field values, as when loading projections at startup. */
+    public void put(Class<?> clazz, String id, String... texts) {
+        Type type = byClass.get(clazz);
+        if (type != null) put(type, id, texts);
+    }
+
+    private void put(Type type, String id, String[] texts) {
+        if (id == null) return;
+        long hash = hash(texts);
+        Map<String, Integer> masks = new HashMap<>();
+        for (int f = 0; f < texts.length; f++) {
+            int bit = 1 << f;
+            tokenize(texts[f], word -> masks.merge(word, bit, (a, b) -> a | b));
+        }
+        lock.writeLock().lock();
+        try {
+            Integer old = type.docs.get(id);
+            if (old != null) {
+                if (docHash[old] == hash) return;
+                deleted.set(old);
+                docId[old] = null;
+                dead++;
+            }
+            int doc = next++;
+            if (doc == docId.length) {
+                docType = Arrays.copyOf(docType, doc * 2);
+                docId = Arrays.copyOf(docId, doc * 2);
+                docHash = Arrays.copyOf(docHash, doc * 2);
+            }
+            docType[doc] = (byte) type.index;
+            docId[doc] = id;
+            docHash[doc] = hash;
+            type.docs.put(id, doc);
+            masks.forEach((word, mask) -> terms.computeIfAbsent(word, w -> new Postings()).add(doc, (byte) (int) mask));
+            if (dead > COMPACT_MIN && dead > next - dead) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Renumbers live docs densely; order is kept, so postings stay sorted. Caller holds the write lock.
+    private void compact() {
+        int[] to = new int[next];
+        int n = 0;
+        for (int d = 0; d < next; d++) {
+            if (deleted.get(d)) { to[d] = -1; continue; }
+            to[d] = n;
+            docType[n] = docType[d];
+            docId[n] = docId[d];
+            docHash[n++] = docHash[d];
+        }
+        Arrays.fill(docId, n, next, null);
+        for (Iterator<Postings> it = terms.values().iterator(); it.hasNext(); ) {
+            Postings p = it.next();
+            p.remap(to);
+            if (p.size == 0) it.remove();
+        }
+        for (Type type : types) type.docs.replaceAll((id, d) -> to[d]);
+        deleted.clear();
+        next = n;
+        dead = 0;
+    }
+
+    // --- QUERIES ---
+
+    /** The limit best objects (of type, if given) containing every word of q. */
+    public Result search(String q, String type, int limit) {
+        long t0 = System.nanoTime();
+        Type only = null;
+        if (type != null && (only = byPath.get(type)) == null) throw new IllegalArgumentException("Unknown type: " + type);
+        Set<String> words = new LinkedHashSet<>();
+        tokenize(q, words::add);
+        lock.readLock().lock();
+        try {
+            return words.isEmpty() ? new Result(q, 0, List.of()) : search(q, words, only, limit);
+        } finally {
+            lock.readLock().unlock();
+            QUERIES.timer(type == null ? "all" : type).since(t0);
+        }
+    }
+
+    private Result search(String q, Set<String> words, Type only, int limit) {
+        int live = next - dead;
+        List<List<Term>> matches = new ArrayList<>(words.size());
+        int w = 0;
+        for (String word : words) {
+            List<Term> m = new ArrayList<>();
+            Postings exact = terms.get(word);
+            if (exact != null) m.add(new Term(exact, idf(exact, live)));
+            if (++w == words.size() && word.length() >= MIN_PREFIX) {
+                for (Postings p : terms.subMap(word, false, word + Character.MAX_VALUE, false).values()) {
+                    if (m.size() > MAX_EXPANSIONS) break;
+                    m.add(new Term(p, idf(p, live) * PREFIX_WEIGHT));
+                }
+            }
+            if (m.isEmpty()) return new Result(q, 0, List.of());
+            matches.add(m);
+        }
+        matches.sort(Comparator.comparingLong(CatalogSearch::postings)); // fewest postings first: it bounds the candidates
+
+        // Candidates are the docs of the first word; each further word keeps those it also occurs in
+        List<Term> first = matches.get(0);
+        int n = (int) postings(first);
+        int[] docs = new int[n];
+        float[] scores = new float[n];
+        int c = 0;
+        if (first.size() == 1) {
+            Term t = first.get(0);
+            Postings p = t.postings;
+            for (int i = 0; i < p.size; i++) {
+                int doc = p.docs[i];
+                if (deleted.get(doc) || (only != null && docType[doc] != only.index)) continue;
+                docs[c] = doc;
+                scores[c++] = t.weight * weight(p.fields[i]);
+            }
+        } else {
+            long[] packed = new long[n];
+            int k = 0;
+            for (Term t : first) {
+                Postings p = t.postings;
+                for (int i = 0; i < p.size; i++) {
+                    int doc = p.docs[i];
+                    if (deleted.get(doc) || (only != null && docType[doc] != only.index)) continue;
+                    packed[k++] = (long) doc << 32 | Float.floatToRawIntBits(t.weight * weight(p.fields[i]));
+                }
+            }
+            Arrays.sort(packed, 0, k); // by doc, then score (positive floats order as their bits)
+            for (int i = 0; i < k; i++) {
+                int doc = (int) (packed[i] >>> 32);
+                if (c > 0 && docs[c - 1] == doc) c--; // a later entry of the same doc scores at least as much
+                docs[c] = doc;
+                scores[c++] = Float.intBitsToFloat((int) packed[i]);
+            }
+        }
+        for (w = 1; w < matches.size() && c > 0; w++) {
+            float[] best = new float[c];
+            for (Term t : matches.get(w)) intersect(docs, c, t, best);
+            int kept = 0;
+            for (int i = 0; i < c; i++) {
+                if (best[i] == 0) continue;
+                docs[kept] = docs[i];
+                scores[kept++] = scores[i] + best[i];
+            }
+            c = kept;
+        }
+        return new Result(q, c, top(docs, scores, c, limit));
+    }
+
+    // best[i] = the highest score t gives docs[i], if more than what it has
+    private static void intersect(int[] docs, int c, Term t, float[] best) {
+        Postings p = t.postings;
+        int j = 0;
+        for (int i = 0; i < c && j < p.size; i++) {
+            j = seek(p.docs, j, p.size, docs[i]);
+            if (j < p.size && p.docs[j] == docs[i]) {
+                float s = t.weight * weight(p.fields[j]);
+                if (s > best[i]) best[i] = s;
+            }
+        }
+    }
+
+    // First index >= from whose doc is >= doc: galloping, since candidates are usually far fewer than postings
+    private static int seek(int[] a, int from, int size, int doc) {
+        int step = 1, hi = from;
+        while (hi < size && a[hi] < doc) { from = hi + 1; hi += step; step <<= 1; }
+        hi = Math.min(hi, size);
+        while (from < hi) {
+            int mid = (from + hi) >>> 1;
+            if (a[mid] < doc) from = mid + 1; else hi = mid;
+        }
+        return from;
+    }
+
+    private List<Hit> top(int[] docs, float[] scores, int c, int limit) {
+        // Min-heap of the best limit candidates; equal scores rank the earlier-indexed doc first
+        Comparator<Integer> worstFirst = (a, b) -> scores[a] != scores[b] ? Float.compare(scores[a], scores[b]) : Integer.compare(docs[b], docs[a]);
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, c) + 1, worstFirst);
+        for (int i = 0; i < c; i++) {
+            if (heap.size() < limit) heap.add(i);
+            else if (worstFirst.compare(i, heap.peek()) > 0) { heap.poll(); heap.add(i); }
+        }
+        Hit[] hits = new Hit[heap.size()];
+        for (int k = hits.length - 1; k >= 0; k--) {
+            int i = heap.poll();
+            hits[k] = new Hit(types.get(docType[docs[i]]).path, docId[docs[i]], scores[i]);
+        }
+        return Arrays.asList(hits);
+    }
+
+    private static float idf(Postings p, int live) { return (float) Math.log(1 + (double) Math.max(live, 1) / p.size); }
+
+    private static float weight(byte fields) { return (fields & 1) != 0 ? NAME_WEIGHT : TEXT_WEIGHT; }
+
+    private static long postings(List<Term> terms) {
+        long n = 0;
+        for (Term t : terms) n += t.postings.size;
+        return n;
+    }
+
+    // --- TEXT ---
+
+    @FunctionalInterface
+    interface Words { void add(String word); }
+
+    /** Lower-case words of text: runs of letters and digits, also split where a lower-case letter meets an upper-case one. */
+    static void tokenize(String text, Words out) {
+        if (text == null) return;
+        int start = -1, n = text.length();
+        for (int i = 0; i <= n; i++) {
+            char ch = i < n ? text.charAt(i) : ' ';
+            boolean letter = Character.isLetterOrDigit(ch);
+            boolean hump = letter && start >= 0 && Character.isUpperCase(ch) && Character.isLowerCase(text.charAt(i - 1));
+            if (start >= 0 && (!letter || hump)) {
+                out.add(text.substring(start, Math.min(i, start + MAX_TOKEN)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            if (letter && start < 0) start = i;
+        }
+    }
+
+    // FNV-1a over the fields, so re-posting an object whose text did not change leaves the index alone
+    private static long hash(String[] texts) {
+        long h = 0xcbf29ce484222325L;
+        for (String text : texts) {
+            if (text != null) for (int i = 0; i < text.length(); i++) h = (h ^ text.charAt(i)) * 0x100000001b3L;
+            h = (h ^ (text == null ? 0x10000 : 0x10001)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // --- HTTP ---
+
+    public void routes(Javalin app) { app.get("/catalog/search", this::serve); }
+
+    /** GET /catalog/search?q=&type=&limit= */
+    public void serve(Context ctx) {
+        String q = ctx.queryParam("q");
+        if (q == null || q.isBlank()) throw new BadRequestResponse("Missing q");
+        String limitParam = ctx.queryParam("limit");
+        int limit;
+        try { limit = limitParam == null ? DEFAULT_LIMIT : Math.min(Math.max(Integer.parseInt(limitParam), 1), MAX_LIMIT); }
+        catch (NumberFormatException e) { throw new BadRequestResponse("Invalid limit: " + limitParam); }
+        try {
+            ctx.json(search(q, ctx.queryParam("type"), limit));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse(e.getMessage());
+        }
+    }
+
+    public String stats() {
+        lock.readLock().lock();
+        try {
+            return String.format("(%d objects, %d terms)", next - dead, terms.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void metrics() {
+        CatalogMetrics.gauge("marketops_search_documents", "Objects in the search index by type", new String[] { "type" }, sink -> {
+            lock.readLock().lock();
+            try {
+                for (Type type : types) sink.sample(type.docs.size(), type.path);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+        CatalogMetrics.gauge("marketops_search_terms", "Distinct words in the search index", new String[0], sink -> {
+            lock.readLock().lock();
+            try {
+                sink.sample(terms.size());
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+}
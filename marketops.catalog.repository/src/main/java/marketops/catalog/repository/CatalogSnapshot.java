@@ -0,0 +1,346 @@
+package marketops.catalog.repository;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Binary catalog snapshot that is read through memory mappings and decoded one record at a time.
+ *
+ * Layout (big-endian):
+ *   header     long MAGIC, int VERSION, int 0, long directory offset, long record count
+ *   data       per record its JSON, then its ticks as three columns (long timestamps, double prices,
+ *              double demands); the JSON never straddles a REGION boundary, so it sits in one mapping, while
+ *              the columns may run on across regions (a long history can outgrow one) and are read piecewise
+ *   directory  tagged entries: TYPE (name, indexed attribute names), RECORD (id, attribute values,
+ *              data offset, JSON length, tick count), GRANT (username, permission), END
+ * open() reads the directory only; JSON and ticks stay in the page cache until a record is asked for.
+ * The writer streams data and spills the directory to a side file, so neither side holds a copy of the catalog.
+ */
+public final class CatalogSnapshot {
+
+    public static final long MAGIC = 0x4d4f50534e415031L; // "MOPSNAP1"
+    public static final int VERSION = 2; // 1 is read too: the same layout, with no columns across regions
+    private static final int HEADER = 32;
+    private static final int REGION_BITS = 30;
+    private static final long REGION = 1L << REGION_BITS; // one mapping per GiB
+    private static final byte TYPE = 'T', RECORD = 'R', GRANT = 'G', END = 'E';
+
+    private final MappedByteBuffer[] regions;
+    private final List<Section> sections = new ArrayList<>();
+    private final List<String[]> grants = new ArrayList<>();
+    private final long records;
+
+    /** Records of one catalog type, in id order. */
+    public static final class Section {
+        public final String type;
+        public final List<String> attributes;
+        private final CatalogSnapshot snapshot;
+        private String[] ids = new String[16];
+        private String[][] values;  // [attribute][record], null when the object had no value
+        private long[] offsets = new long[16];
+        private int[] jsonLengths = new int[16];
+        private int[] tickCounts = new int[16];
+        private int size;
+
+        Section(CatalogSnapshot snapshot, String type, List<String> attributes) {
+            this.snapshot = snapshot;
+            this.type = type;
+            this.attributes = attributes;
+            this.values = new String[attributes.size()][16];
+        }
+
+        void add(String id, String[] attrs, long offset, int jsonLength, int ticks) {
+            if (size == ids.length) {
+                int n = size * 2;
+                ids = Arrays.copyOf(ids, n);
+                for (int a = 0; a < values.length; a++) values[a] = Arrays.copyOf(values[a], n);
+                offsets = Arrays.copyOf(offsets, n);
+                jsonLengths = Arrays.copyOf(jsonLengths, n);
+                tickCounts = Arrays.copyOf(tickCounts, n);
+            }
+            ids[size] = id;
+            for (int a = 0; a < values.length; a++) values[a][size] = attrs[a];
+            offsets[size] = offset;
+            jsonLengths[size] = jsonLength;
+            tickCounts[size] = ticks;
+            size++;
+        }
+
+        public int size() { return size; }
+        public String id(int i) { return ids[i]; }
+
+        /** Value the indexed attribute had when the snapshot was written, or null. */
+        public String attribute(int i, String name) {
+            int a = attributes.indexOf(name);
+            return a < 0 ? null : values[a][i];
+        }
+
+        /** The record's JSON, straight off the mapping. */
+        public ByteBuffer json(int i) { return snapshot.slice(offsets[i], jsonLengths[i]); }
+
+        public int ticks(int i) { return tickCounts[i]; }
+
+        /** Appends the record's ticks to a history (in one go, already sorted). */
+        public void readHistory(int i, PriceHistory into) {
+            int n = tickCounts[i];
+            if (n == 0) return;
+            long cols = offsets[i] + jsonLengths[i];
+            long[] timestamps = new long[n];
+            double[] prices = new double[n];
+            double[] demands = new double[n];
+            snapshot.column(cols, n, timestamps, null);
+            snapshot.column(cols + n * 8L, n, null, prices);
+            snapshot.column(cols + n * 16L, n, null, demands);
+            into.appendAll(timestamps, prices, demands, n);
+        }
+    }
+
+    private CatalogSnapshot(FileChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && ch.read(header, header.position()) > 0) {}
+        header.flip();
+        if (header.remaining() < HEADER || header.getLong() != MAGIC) throw new IOException("Not a mapped catalog snapshot");
+        int version = header.getInt();
+        if (version != VERSION && version != 1) throw new IOException("Unsupported snapshot version " + version);
+        header.getInt();
+        long directory = header.getLong();
+        this.records = header.getLong();
+
+        int n = (int) ((directory + REGION - 1) >>> REGION_BITS);
+        regions = new MappedByteBuffer[n];
+        for (int r = 0; r < n; r++) {
+            long start = (long) r << REGION_BITS;
+            regions[r] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION, directory - start));
+        }
+
+        ch.position(directory);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+        Section section = null;
+        String[] attrs = new String[0];
+        for (byte tag = in.readByte(); tag != END; tag = in.readByte()) {
+            switch (tag) {
+                case TYPE: {
+                    String type = in.readUTF();
+                    List<String> names = new ArrayList<>();
+                    for (int a = in.readInt(); a > 0; a--) names.add(in.readUTF());
+                    section = new Section(this, type, List.copyOf(names));
+                    sections.add(section);
+                    attrs = new String[names.size()];
+                    break;
+                }
+                case RECORD: {
+                    if (section == null) throw new IOException("Snapshot record before its type");
+                    String id = in.readUTF();
+                    for (int a = 0; a < attrs.length; a++) attrs[a] = in.readBoolean() ? in.readUTF() : null;
+                    section.add(id, attrs, in.readLong(), in.readInt(), in.readInt());
+                    break;
+                }
+                case GRANT: grants.add(new String[] { in.readUTF(), in.readUTF() }); break;
+                default: throw new IOException("Corrupt snapshot directory (tag " + tag + ")");
+            }
+        }
+    }
+
+    /** True if the file starts with this format's magic (older snapshots are framed log records). */
+    public static boolean isMapped(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readLong() == MAGIC;
+        } catch (EOFException e) { return false; }
+    }
+
+    /** Maps the file; the mappings stay valid after the file is closed (or unlinked) while records reference them. */
+    public static CatalogSnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new CatalogSnapshot(ch);
+        }
+    }
+
+    public List<Section> sections() { return sections; }
+    public long records() { return records; }
+    public void forEachGrant(BiConsumer<String, String> action) { for (String[] g : grants) action.accept(g[0], g[1]); }
+
+    private ByteBuffer slice(long offset, int length) {
+        return regions[(int) (offset >>> REGION_BITS)].slice((int) (offset & (REGION - 1)), length);
+    }
+
+    // Reads count 8-byte values into longs or doubles: runs of whole values straight off each mapping, and a
+    // value split by a region boundary through a scratch buffer
+    private void column(long offset, int count, long[] longs, double[] doubles) {
+        for (int i = 0; i < count; ) {
+            int r = (int) (offset >>> REGION_BITS), at = (int) (offset & (REGION - 1));
+            int fit = (int) Math.min(count - i, (REGION - at) >>> 3);
+            if (fit == 0) {
+                int head = (int) (REGION - at);
+                long bits = ByteBuffer.allocate(8).put(regions[r].slice(at, head)).put(regions[r + 1].slice(0, 8 - head)).flip().getLong();
+                if (longs != null) longs[i] = bits; else doubles[i] = Double.longBitsToDouble(bits);
+                i++;
+                offset += 8;
+                continue;
+            }
+            ByteBuffer run = regions[r].slice(at, fit << 3);
+            if (longs != null) run.asLongBuffer().get(longs, i, fit); else run.asDoubleBuffer().get(doubles, i, fit);
+            i += fit;
+            offset += (long) fit << 3;
+        }
+    }
+
+    // Hands length bytes at offset to the writer one mapping at a time
+    private void copyTo(Writer out, long offset, long length) throws IOException {
+        while (length > 0) {
+            int at = (int) (offset & (REGION - 1));
+            int n = (int) Math.min(length, REGION - at);
+            out.write(regions[(int) (offset >>> REGION_BITS)].slice(at, n));
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // --- WRITING ---
+
+    public static Writer create(Path file) throws IOException { return new Writer(file); }
+
+    /**
+     * Streams a snapshot to a file: type(), then that type's records in id order, then the next type;
+     * grants may come at any point. finish() appends the directory and seals the header.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel ch;
+        private final Path dirFile;
+        private final DataOutputStream dir;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private long position = HEADER;
+        private long records;
+        private List<String> attributes = List.of();
+
+        Writer(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            dirFile = file.resolveSibling(file.getFileName() + ".dir");
+            dir = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dirFile), 1 << 16));
+            ch.position(HEADER);
+        }
+
+        /** Starts the section of a type; attributes name the indexed values each record carries. */
+        public void type(String type, List<String> attributes) throws IOException {
+            this.attributes = List.copyOf(attributes);
+            dir.writeByte(TYPE);
+            dir.writeUTF(type);
+            dir.writeInt(attributes.size());
+            for (String a : attributes) dir.writeUTF(a);
+        }
+
+        /** attrs line up with the section's attributes; history may be null. */
+        public void put(String id, byte[] json, String[] attrs, PriceHistory history) throws IOException {
+            int ticks = history == null ? 0 : history.size();
+            long offset = reserve(json.length);
+            write(ByteBuffer.wrap(json));
+            if (ticks > 0) {
+                // One pass per column, streamed so sealed chunks are decoded a block at a time
+                try {
+                    history.forEachIndex(0, ticks, (timestamp, price, demand) -> putLong(timestamp));
+                    history.forEachIndex(0, ticks, (timestamp, price, demand) -> putLong(Double.doubleToRawLongBits(price)));
+                    history.forEachIndex(0, ticks, (timestamp, price, demand) -> putLong(Double.doubleToRawLongBits(demand)));
+                } catch (UncheckedIOException e) { throw e.getCause(); }
+                position += ticks * 24L;
+            }
+            entry(id, attrs, offset, json.length, ticks);
+        }
+
+        /** Carries a record over from a mapped snapshot byte for byte, without decoding it. */
+        public void copy(Section from, int i) throws IOException {
+            int length = from.jsonLengths[i], ticks = from.tickCounts[i];
+            long offset = reserve(length);
+            from.snapshot.copyTo(this, from.offsets[i], length + ticks * 24L);
+            String[] attrs = new String[attributes.size()];
+            for (int a = 0; a < attrs.length; a++) attrs[a] = from.attribute(i, attributes.get(a));
+            entry(from.ids[i], attrs, offset, length, ticks);
+        }
+
+        public void grant(String username, String permission) {
+            try {
+                dir.writeByte(GRANT);
+                dir.writeUTF(username);
+                dir.writeUTF(permission);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+
+        private void entry(String id, String[] attrs, long offset, int jsonLength, int ticks) throws IOException {
+            dir.writeByte(RECORD);
+            dir.writeUTF(id);
+            for (String v : attrs) {
+                dir.writeBoolean(v != null);
+                if (v != null) dir.writeUTF(v);
+            }
+            dir.writeLong(offset);
+            dir.writeInt(jsonLength);
+            dir.writeInt(ticks);
+            records++;
+        }
+
+        // Pads to the next region if a record's JSON would straddle one; returns where the record starts
+        private long reserve(long length) throws IOException {
+            if (length > REGION) throw new IOException("Snapshot JSON of " + length + " bytes exceeds a mapping region");
+            long used = position & (REGION - 1);
+            if (used + length > REGION) {
+                long pad = REGION - used;
+                while (pad > 0) { ensure(1); int n = (int) Math.min(pad, buf.remaining()); buf.position(buf.position() + n); pad -= n; }
+                position += REGION - used;
+            }
+            return position;
+        }
+
+        private void write(ByteBuffer src) throws IOException {
+            position += src.remaining();
+            while (src.hasRemaining()) {
+                ensure(1);
+                int n = Math.min(src.remaining(), buf.remaining());
+                buf.put(src.slice(src.position(), n));
+                src.position(src.position() + n);
+            }
+        }
+
+        private void putLong(long value) {
+            try {
+                ensure(8);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            buf.putLong(value);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() >= bytes) return;
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        /** Writes the directory after the data, then the header, and forces the file. */
+        public void finish() throws IOException {
+            ensure(buf.capacity());
+            dir.writeByte(END);
+            dir.close();
+            long directory = position;
+            try (FileChannel d = FileChannel.open(dirFile, StandardOpenOption.READ)) {
+                for (long done = 0, size = d.size(); done < size; ) done += d.transferTo(done, size - done, ch.position(directory + done));
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putLong(MAGIC).putInt(VERSION).putInt(0).putLong(directory).putLong(records);
+            header.flip();
+            while (header.hasRemaining()) ch.write(header, header.position());
+            ch.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { dir.close(); } finally {
+                ch.close();
+                Files.deleteIfExists(dirFile);
+            }
+        }
+    }
+}
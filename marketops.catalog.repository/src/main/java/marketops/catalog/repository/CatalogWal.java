@@ -0,0 +1,332 @@
+package marketops.catalog.repository;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log with periodic snapshots for the in-memory catalog (marketops2).
+ *
+ * Files in the store directory:
+ *   wal-{seq}.log       segments of framed records, seq = number of the first record in the segment
+ *   snapshot-{seq}.bin  every live object as of the start of segment {seq} in CatalogSnapshot's mapped format,
+ *                       written to a temp file then renamed (older framed-record snapshots still replay)
+ * A record is [int length][int crc32][body]; body starts with a kind byte (PUT, TICK_AT, GRANT, or TICK in older logs).
+ *
+ * Writers frame records into an in-memory buffer under the log lock and then wait in awaitDurable(); one
+ * sync thread writes the buffer out and forces the channel for everything appended so far, so concurrent
+ * writers share one write and one fsync (group commit).
+ * Recovery hands the newest snapshot over mapped, replays the segments after it in order and cuts a torn tail off.
+ */
+public class CatalogWal implements Closeable {
+
+    public static final byte PUT = 1;   // type, id, JSON payload
+    public static final byte TICK = 2;  // asset id, timestamp, price, demand (older logs)
+    public static final byte GRANT = 3; // username, permission
+    public static final byte TICK_AT = 4; // asset id, history index, timestamp, price, demand
+
+    /** Callbacks recovery replays into, in log order. */
+    public interface Replay {
+        void snapshot(CatalogSnapshot snapshot) throws IOException;
+        void put(String type, String id, byte[] json) throws IOException;
+        /** index is the tick's position in the asset's history, or -1 for records written before it was logged. */
+        void tick(String assetId, int index, long timestamp, double price, double demand);
+        void grant(String username, String permission);
+    }
+
+    /** What a snapshot writes; the engine walks its state type by type. */
+    public interface SnapshotSource { void writeTo(CatalogSnapshot.Writer out) throws IOException; }
+
+    private final Path dir;
+    private FileChannel segment;
+    private final ByteBuffer buffer = ByteBuffer.allocate(256 * 1024); // framed records not yet written to the segment
+    private final CRC32 crc = new CRC32();
+
+    private long appended;      // records appended (next record number), guarded by this
+    private long durable;       // records known to be on disk, guarded by this
+    private long segmentStart;  // first record number of the open segment
+    private boolean closed;
+    private IOException failure; // set when an fsync fails; every later append/await rethrows it
+    private final Thread syncer;
+
+    private long syncs, bytes, lastSnapshotAt;
+
+    public CatalogWal(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.syncer = new Thread(this::syncLoop, "wal-sync");
+        this.syncer.setDaemon(true);
+    }
+
+    // --- RECOVERY ---
+
+    /** Must run once before any append: replays snapshot + log and opens the segment appends go to. Returns records replayed. */
+    public long recover(Replay replay) throws IOException {
+        long snapshotSeq = newest("snapshot-", ".bin");
+        long count = 0;
+        if (snapshotSeq >= 0) {
+            Path snapshot = file("snapshot-", snapshotSeq, ".bin");
+            if (CatalogSnapshot.isMapped(snapshot)) {
+                CatalogSnapshot mapped = CatalogSnapshot.open(snapshot);
+                replay.snapshot(mapped);
+                count += mapped.records();
+            } else {
+                count += readFile(snapshot, replay, false);
+            }
+        }
+        long next = Math.max(snapshotSeq, 0);
+        for (long seq : list("wal-", ".log")) {
+            if (seq < next) continue;
+            long n = readFile(file("wal-", seq, ".log"), replay, true);
+            count += n;
+            next = seq + n;
+        }
+        synchronized (this) {
+            appended = durable = next;
+            lastSnapshotAt = Math.max(snapshotSeq, 0);
+            openSegment(next);
+        }
+        syncer.start();
+        return count;
+    }
+
+    private long readFile(Path file, Replay replay, boolean truncateTornTail) throws IOException {
+        long count = 0, good = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+            CRC32 check = new CRC32();
+            while (true) {
+                int length;
+                try { length = in.readInt(); } catch (EOFException e) { break; }
+                byte[] body;
+                int expected;
+                try {
+                    expected = in.readInt();
+                    if (length <= 0 || length > (64 << 20)) break;
+                    body = in.readNBytes(length);
+                    if (body.length < length) break;
+                } catch (EOFException e) { break; }
+                check.reset();
+                check.update(body);
+                if ((int) check.getValue() != expected) break;
+                apply(body, replay);
+                count++;
+                good += 8 + length;
+            }
+            if (truncateTornTail && good < ch.size()) {
+                System.err.println(">>> WAL " + file.getFileName() + ": dropping torn tail after record " + count);
+                ch.truncate(good);
+            }
+        }
+        return count;
+    }
+
+    private static void apply(byte[] body, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte kind = in.readByte();
+        switch (kind) {
+            case PUT: {
+                String type = in.readUTF(), id = in.readUTF();
+                replay.put(type, id, in.readNBytes(in.readInt()));
+                break;
+            }
+            case TICK: replay.tick(in.readUTF(), -1, in.readLong(), in.readDouble(), in.readDouble()); break;
+            case TICK_AT: replay.tick(in.readUTF(), in.readInt(), in.readLong(), in.readDouble(), in.readDouble()); break;
+            case GRANT: replay.grant(in.readUTF(), in.readUTF()); break;
+            default: throw new IOException("Unknown WAL record kind " + kind);
+        }
+    }
+
+    // --- APPEND ---
+
+    public long appendPut(String type, String id, byte[] json) throws IOException {
+        return append(out -> { out.writeByte(PUT); out.writeUTF(type); out.writeUTF(id); out.writeInt(json.length); out.write(json); });
+    }
+
+    /** Callers append ticks of one history in index order, so replay can skip those a snapshot already holds. */
+    public long appendTick(String assetId, int index, long timestamp, double price, double demand) throws IOException {
+        return append(out -> {
+            out.writeByte(TICK_AT); out.writeUTF(assetId); out.writeInt(index);
+            out.writeLong(timestamp); out.writeDouble(price); out.writeDouble(demand);
+        });
+    }
+
+    public long appendGrant(String username, String permission) throws IOException {
+        return append(out -> { out.writeByte(GRANT); out.writeUTF(username); out.writeUTF(permission); });
+    }
+
+    private interface Body { void write(DataOutputStream out) throws IOException; }
+
+    private static final class Scratch extends ByteArrayOutputStream {
+        Scratch() { super(256); }
+        byte[] array() { return buf; }
+    }
+    private final Scratch scratch = new Scratch();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+
+    /** Returns the record number to pass to awaitDurable(). */
+    private synchronized long append(Body body) throws IOException {
+        if (closed) throw new IOException("WAL closed");
+        if (failure != null) throw failure;
+        scratch.reset();
+        body.write(scratchOut);
+        int length = scratch.size();
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        if (buffer.remaining() < length + 8) writeBuffer();
+        if (buffer.remaining() < length + 8) {
+            ByteBuffer big = ByteBuffer.allocate(length + 8);
+            big.putInt(length).putInt((int) crc.getValue()).put(scratch.array(), 0, length).flip();
+            while (big.hasRemaining()) segment.write(big);
+        } else {
+            buffer.putInt(length).putInt((int) crc.getValue()).put(scratch.array(), 0, length);
+        }
+        bytes += length + 8;
+        if (appended == durable) notifyAll(); // first pending record: wake the sync thread
+        return ++appended;
+    }
+
+    // Caller holds the lock
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) segment.write(buffer);
+        buffer.clear();
+    }
+
+    /** Blocks until the given record (and everything before it) has been fsynced. */
+    public synchronized void awaitDurable(long record) throws IOException {
+        while (durable < record) {
+            if (failure != null) throw failure;
+            try { wait(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            long target;
+            FileChannel ch;
+            synchronized (this) {
+                while (appended == durable && !closed) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                if (appended == durable) return;
+                try {
+                    writeBuffer();
+                } catch (IOException e) {
+                    failure = e;
+                    notifyAll();
+                    return;
+                }
+                target = appended;
+                ch = segment;
+            }
+            try {
+                ch.force(false); // appends keep going into the page cache meanwhile
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (ch != segment) continue; // rolled by a snapshot, which forced it already
+                    System.err.println(">>> WAL fsync failed: " + e);
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                if (ch == segment) durable = Math.max(durable, target);
+                syncs++;
+                notifyAll();
+            }
+        }
+    }
+
+    // --- SNAPSHOTS ---
+
+    public synchronized long recordsSinceSnapshot() { return appended - lastSnapshotAt; }
+
+    /**
+     * Rolls the log to a new segment, writes a snapshot of the source as of (at least) that point and
+     * deletes the segments and snapshot it supersedes. Appends continue during the snapshot; records
+     * that land in both the snapshot and the new segment replay idempotently.
+     */
+    public void snapshot(SnapshotSource source) throws IOException {
+        long seq;
+        synchronized (this) {
+            writeBuffer();
+            segment.force(false);
+            durable = appended;
+            notifyAll();
+            seq = appended;
+            segment.close();
+            openSegment(seq);
+        }
+        Path tmp = dir.resolve("snapshot-" + seq + ".tmp");
+        try (CatalogSnapshot.Writer writer = CatalogSnapshot.create(tmp)) {
+            source.writeTo(writer);
+            writer.finish();
+        }
+        Files.move(tmp, file("snapshot-", seq, ".bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) { lastSnapshotAt = seq; }
+        for (long old : list("wal-", ".log")) if (old < seq) Files.deleteIfExists(file("wal-", old, ".log"));
+        for (long old : list("snapshot-", ".bin")) {
+            if (old >= seq) continue;
+            // Unlinking is fine on POSIX while the old snapshot is still mapped; elsewhere retry next time
+            try { Files.deleteIfExists(file("snapshot-", old, ".bin")); } catch (IOException e) { System.err.println(">>> Could not delete old snapshot: " + e); }
+        }
+    }
+
+    // --- FILES ---
+
+    private void openSegment(long seq) throws IOException {
+        segment = FileChannel.open(file("wal-", seq, ".log"), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentStart = seq;
+    }
+
+    private Path file(String prefix, long seq, String suffix) { return dir.resolve(prefix + String.format("%016d", seq) + suffix); }
+
+    private long newest(String prefix, String suffix) throws IOException {
+        List<Long> all = list(prefix, suffix);
+        return all.isEmpty() ? -1 : all.get(all.size() - 1);
+    }
+
+    private List<Long> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(prefix) && n.endsWith(suffix))
+                    .map(n -> Long.parseLong(n.substring(prefix.length(), n.length() - suffix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("records", appended);
+        stats.put("durable", durable);
+        stats.put("segmentStart", segmentStart);
+        stats.put("bytes", bytes);
+        stats.put("fsyncs", syncs);
+        stats.put("sinceSnapshot", appended - lastSnapshotAt);
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try { syncer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        synchronized (this) {
+            writeBuffer();
+            segment.force(false);
+            durable = appended;
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package marketops.catalog.repository;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import io.javalin.websocket.WsConfig;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ordered log of catalog writes, for consumers that would otherwise poll listings and diff them.
+ * Every stored POST/bulk item (type = its catalog path) and every grant (type "grants", id = the user,
+ * detail = the permission) gets the next offset; the newest marketops.feed.retention changes are kept in
+ * a ring. Changes name what changed, not its content: GET /catalog/{type}/{id} serves the current state.
+ *
+ * Offsets start at the server's start time in microseconds, so they keep increasing across restarts. A
+ * client resumes from the last offset it processed; one whose offset is no longer retained, or was never
+ * handed out by this process, gets 410 (or a reset event) and re-lists. To start: take next from
+ * GET /changes, list, then follow from that offset (changes made while listing come again; they are idempotent).
+ *
+ * Stream subscribers each have a sender thread reading the ring by cursor, so writers never wait on a
+ * slow client; a client that falls a whole ring behind gets a reset event and is disconnected.
+ */
+public class ChangeFeed {
+
+    public static final int RETENTION = Integer.getInteger("marketops.feed.retention", 100_000);
+    public static final int DEFAULT_LIMIT = 1_000, MAX_LIMIT = 10_000;
+    public static final String GRANTS = "grants";
+    private static final String CHANGE = "change", RESET = "reset", HEARTBEAT = "heartbeat";
+    private static final long HEARTBEAT_MS = 15_000;
+    private static final int BATCH = 256;
+
+    public static class Change {
+        public final long offset;
+        public final long timestamp;
+        public final String type;
+        public final String id;
+        public final String detail;
+
+        Change(long offset, String type, String id, String detail) {
+            this.offset = offset; this.timestamp = System.currentTimeMillis(); this.type = type; this.id = id; this.detail = detail;
+        }
+    }
+
+    /** Changes after a since offset; next is the offset to ask from next time (past filtered-out changes too). */
+    public static class Page {
+        public final List<Change> changes;
+        public final long next;
+        public final long latest;
+
+        Page(List<Change> changes, long next, long latest) { this.changes = changes; this.next = next; this.latest = latest; }
+    }
+
+    private final Change[] ring = new Change[RETENTION];
+    private final long base = System.currentTimeMillis() * 1000; // first offset is base + 1
+    private long last = base; // guarded by this
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final Set<Follower> followers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Follower> sockets = new ConcurrentHashMap<>();
+
+    /** A catalog object was stored; call after it is durable. */
+    public void changed(String type, String id) { append(type, id, null); }
+
+    /** A permission was granted; call after it is durable. */
+    public void granted(String user, String permission) { append(GRANTS, user, permission); }
+
+    private void append(String type, String id, String detail) {
+        synchronized (this) {
+            long offset = ++last;
+            ring[(int) (offset % ring.length)] = new Change(offset, type, id, detail);
+            notifyAll();
+        }
+        counts.computeIfAbsent(type, k -> new LongAdder()).increment();
+    }
+
+    public synchronized long latest() { return last; }
+
+    /** Changes after since, at most limit of them, only of type if given; null if since is not in the retained window. */
+    public synchronized Page read(long since, int limit, String type) {
+        if (since < Math.max(base, last - ring.length) || since > last) return null;
+        List<Change> out = new ArrayList<>(Math.min(limit, (int) (last - since)));
+        long o = since;
+        while (o < last && out.size() < limit) {
+            Change c = ring[(int) (++o % ring.length)];
+            if (type == null || type.equals(c.type)) out.add(c);
+        }
+        return new Page(out, o, last);
+    }
+
+    // Followers wait here instead of polling the ring
+    private synchronized void await(long since, long millis) throws InterruptedException {
+        if (last == since) wait(millis);
+    }
+
+    // --- HTTP ---
+
+    public void routes(Javalin app) {
+        app.get("/changes", this::serve);
+        app.sse("/changes/stream", this::sse);
+        app.ws("/changes/ws", this::ws);
+    }
+
+    /** GET /changes?since=&limit=&type= ; without since, an empty page whose next is the latest offset. */
+    public void serve(Context ctx) {
+        String type = ctx.queryParam("type");
+        String limitParam = ctx.queryParam("limit");
+        int limit;
+        try { limit = limitParam == null ? DEFAULT_LIMIT : Math.min(Math.max(Integer.parseInt(limitParam), 1), MAX_LIMIT); }
+        catch (NumberFormatException e) { throw new BadRequestResponse("Invalid limit: " + limitParam); }
+        Long since = since(ctx.queryParam("since"));
+        Page page = read(since == null ? latest() : since, limit, type);
+        if (page == null) ctx.status(410).json(gone());
+        else ctx.json(page);
+    }
+
+    /** GET /changes/stream?since=&type= (text/event-stream); resumes from Last-Event-ID on reconnect. */
+    public void sse(SseClient client) {
+        client.keepAlive();
+        Context ctx = client.ctx();
+        String since = ctx.header("Last-Event-ID") != null ? ctx.header("Last-Event-ID") : ctx.queryParam("since");
+        Follower f = follow(since(since), ctx.queryParam("type"), (event, data, offset) -> {
+            client.sendEvent(event, data, offset == null ? null : offset.toString());
+            if (client.terminated()) throw new IOException("SSE client disconnected");
+        }, client::close, "changes-sse");
+        client.onClose(() -> unfollow(f));
+    }
+
+    /** WS /changes/ws?since=&type= : one JSON message per change; a reset message before the socket is closed. */
+    public void ws(WsConfig ws) {
+        ws.onConnect(ctx -> sockets.put(ctx.sessionId(), follow(since(ctx.queryParam("since")), ctx.queryParam("type"),
+                (event, data, offset) -> ctx.send(data), ctx::closeSession, "changes-ws")));
+        ws.onClose(ctx -> { Follower f = sockets.remove(ctx.sessionId()); if (f != null) unfollow(f); });
+        ws.onError(ctx -> { Follower f = sockets.remove(ctx.sessionId()); if (f != null) unfollow(f); });
+    }
+
+    private static Long since(String value) {
+        if (value == null || value.isBlank()) return null;
+        try { return Long.parseLong(value.trim()); } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid since: " + value); }
+    }
+
+    private Map<String, Object> gone() {
+        long latest = latest();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("type", RESET.toUpperCase());
+        body.put("error", "Offset not retained; re-list and follow from latest");
+        body.put("latest", latest);
+        return body;
+    }
+
+    // --- FOLLOWERS ---
+
+    @FunctionalInterface
+    private interface Sink { void send(String event, Object data, Long offset) throws Exception; }
+
+    private final class Follower implements Runnable {
+        final String type;
+        final Sink sink;
+        final Runnable close;
+        long cursor;
+        volatile boolean closed;
+
+        Follower(long cursor, String type, Sink sink, Runnable close) { this.cursor = cursor; this.type = type; this.sink = sink; this.close = close; }
+
+        @Override
+        public void run() {
+            long idleSince = System.currentTimeMillis();
+            try {
+                while (!closed) {
+                    Page page = read(cursor, BATCH, type);
+                    if (page == null) {
+                        sink.send(RESET, gone(), null);
+                        break;
+                    }
+                    for (Change c : page.changes) sink.send(CHANGE, c, c.offset);
+                    cursor = page.next;
+                    if (!page.changes.isEmpty()) idleSince = System.currentTimeMillis();
+                    else if (System.currentTimeMillis() - idleSince >= HEARTBEAT_MS) {
+                        sink.send(HEARTBEAT, Map.of("type", HEARTBEAT.toUpperCase(), "latest", page.latest), null);
+                        idleSince = System.currentTimeMillis();
+                    }
+                    if (page.next == page.latest) await(page.next, 1_000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) { /* client gone */ }
+            unfollow(this);
+            try { close.run(); } catch (RuntimeException e) { /* already closed */ }
+        }
+    }
+
+    private Follower follow(Long since, String type, Sink sink, Runnable close, String name) {
+        Follower f = new Follower(since == null ? latest() : since, type, sink, close);
+        followers.add(f);
+        Thread t = new Thread(f, name);
+        t.setDaemon(true);
+        t.start();
+        return f;
+    }
+
+    private void unfollow(Follower f) {
+        f.closed = true;
+        followers.remove(f);
+    }
+
+    public void metrics() {
+        CatalogMetrics.counter("marketops_change_feed_changes_total", "Catalog changes appended to the feed by type", new String[] { "type" },
+                sink -> counts.forEach((type, n) -> sink.sample(n.sum(), type)));
+        CatalogMetrics.gauge("marketops_change_feed_subscribers", "Open change feed streams", new String[0], sink -> sink.sample(followers.size()));
+    }
+}
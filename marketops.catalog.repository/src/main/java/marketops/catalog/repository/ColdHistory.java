@@ -0,0 +1,298 @@
+package marketops.catalog.repository;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cold tier of market history: ticks older than marketops.history.coldAfterMs packed per asset into blocks
+ * of up to BLOCK_TICKS, Gorilla style. Timestamps (and sequence numbers, if kept) are stored as
+ * delta-of-delta in 1 to 69 bits, so evenly spaced ticks cost one bit. Prices and demands are XORed with
+ * the previous value and only the differing bits are kept, so repeated values also cost one bit.
+ * Missing values (NaN) round-trip bit for bit.
+ *
+ * Blocks are decoded on read. A compactor moves ticks into blocks every marketops.history.compactEveryMs
+ * (0 = never): marketops4 moves market_history rows into market_history_blocks, and marketops2 seals
+ * PriceHistory chunks in place if marketops.history.sealInMemory is set (it trades heap for scan speed).
+ */
+public final class ColdHistory {
+
+    public static final long COLD_AFTER_MS = Long.getLong("marketops.history.coldAfterMs", 7 * 86_400_000L);
+    public static final long COMPACT_EVERY_MS = Long.getLong("marketops.history.compactEveryMs", 600_000);
+    public static final boolean SEAL_IN_MEMORY = Boolean.getBoolean("marketops.history.sealInMemory");
+    public static final int BLOCK_TICKS = 4_096;
+
+    public static final CatalogMetrics.Family COMPACTION = CatalogMetrics.family("marketops_history_compaction_duration_seconds", "History compactor pass time by store", "store");
+    private static final LongAdder archivedTicks = new LongAdder(), archivedBytes = new LongAdder();
+
+    private ColdHistory() {}
+
+    // --- ENCODING ---
+
+    /** Packs ticks [from, from + count) into a block; seqs may be null when the store has no sequence numbers. */
+    public static byte[] encode(long[] seqs, long[] timestamps, double[] prices, double[] demands, int from, int count) {
+        BitWriter out = new BitWriter(count);
+        out.write(count, 32);
+        out.write(seqs == null ? 0 : 1, 1);
+        DeltaOfDelta ts = new DeltaOfDelta(), seq = new DeltaOfDelta();
+        Xor price = new Xor(), demand = new Xor();
+        for (int i = from; i < from + count; i++) {
+            ts.write(out, timestamps[i]);
+            if (seqs != null) seq.write(out, seqs[i]);
+            price.write(out, Double.doubleToRawLongBits(prices[i]));
+            demand.write(out, Double.doubleToRawLongBits(demands[i]));
+        }
+        return out.toBytes();
+    }
+
+    public static int count(byte[] block) {
+        return (block[0] & 0xff) << 24 | (block[1] & 0xff) << 16 | (block[2] & 0xff) << 8 | (block[3] & 0xff);
+    }
+
+    /** Passes a block's ticks in order; seq is 0 for blocks packed without sequence numbers. */
+    public static void decode(byte[] block, RollingStats.TickSink sink) {
+        BitReader in = new BitReader(block);
+        int count = (int) in.read(32);
+        boolean withSeqs = in.read(1) == 1;
+        DeltaOfDelta ts = new DeltaOfDelta(), seq = new DeltaOfDelta();
+        Xor price = new Xor(), demand = new Xor();
+        for (int i = 0; i < count; i++) {
+            long t = ts.read(in);
+            long s = withSeqs ? seq.read(in) : 0;
+            double p = Double.longBitsToDouble(price.read(in));
+            sink.accept(s, t, p, Double.longBitsToDouble(demand.read(in)));
+        }
+    }
+
+    /** Unpacks a block into columns at least count(block) long; seqs may be null. Returns the tick count. */
+    public static int decode(byte[] block, long[] seqs, long[] timestamps, double[] prices, double[] demands) {
+        int[] i = { 0 };
+        decode(block, (seq, timestamp, price, demand) -> {
+            if (seqs != null) seqs[i[0]] = seq;
+            timestamps[i[0]] = timestamp;
+            prices[i[0]] = price;
+            demands[i[0]++] = demand;
+        });
+        return i[0];
+    }
+
+    // Timestamps: first raw, then the change in delta under a 1-5 bit prefix: 0 | 10+7 | 110+9 | 1110+12 | 11110+32 | 11111+64 bits
+    private static final class DeltaOfDelta {
+        private static final int[] WIDTHS = { 7, 9, 12, 32 };
+        long prev, delta;
+        boolean started;
+
+        void write(BitWriter out, long value) {
+            if (!started) {
+                out.write(value, 64);
+                started = true;
+            } else {
+                long d = value - prev, dod = d - delta;
+                delta = d;
+                if (dod == 0) out.write(0, 1);
+                else {
+                    int w = 0;
+                    while (w < WIDTHS.length && (dod < -(1L << (WIDTHS[w] - 1)) || dod >= 1L << (WIDTHS[w] - 1))) w++;
+                    if (w < WIDTHS.length) out.write((1L << (w + 2)) - 2, w + 2); // w + 1 ones, then a zero
+                    else out.write((1L << (w + 1)) - 1, w + 1);
+                    out.write(dod, w < WIDTHS.length ? WIDTHS[w] : 64);
+                }
+            }
+            prev = value;
+        }
+
+        long read(BitReader in) {
+            if (!started) {
+                started = true;
+                return prev = in.read(64);
+            }
+            int w = 0;
+            while (w <= WIDTHS.length && in.read(1) == 1) w++;
+            long dod = 0;
+            if (w > 0) {
+                int width = w - 1 < WIDTHS.length ? WIDTHS[w - 1] : 64;
+                dod = in.read(width);
+                if (width < 64) dod = dod << (64 - width) >> (64 - width);
+            }
+            delta += dod;
+            return prev += delta;
+        }
+    }
+
+    // Doubles: first raw, then value XOR previous: 0 = same | 10 + bits inside the previous window | 11 + 5-bit leading zeros + 6-bit length + bits
+    private static final class Xor {
+        long prev;
+        int leading = -1, trailing;
+        boolean started;
+
+        void write(BitWriter out, long bits) {
+            if (!started) {
+                out.write(bits, 64);
+                started = true;
+                prev = bits;
+                return;
+            }
+            long x = bits ^ prev;
+            prev = bits;
+            if (x == 0) { out.write(0, 1); return; }
+            int lead = Math.min(Long.numberOfLeadingZeros(x), 31), trail = Long.numberOfTrailingZeros(x);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                out.write(0b10, 2);
+                out.write(x >>> trailing, 64 - leading - trailing);
+            } else {
+                int length = 64 - lead - trail;
+                out.write(0b11, 2);
+                out.write(lead, 5);
+                out.write(length & 63, 6); // 64 is written as 0
+                out.write(x >>> trail, length);
+                leading = lead;
+                trailing = trail;
+            }
+        }
+
+        long read(BitReader in) {
+            if (!started) {
+                started = true;
+                return prev = in.read(64);
+            }
+            if (in.read(1) == 0) return prev;
+            if (in.read(1) == 1) {
+                leading = (int) in.read(5);
+                int length = (int) in.read(6);
+                trailing = 64 - leading - (length == 0 ? 64 : length);
+            }
+            return prev ^= in.read(64 - leading - trailing) << trailing;
+        }
+    }
+
+    private static final class BitWriter {
+        long[] words;
+        int bits;
+
+        BitWriter(int ticks) { words = new long[Math.max(4, ticks * 3 / 4)]; } // about 48 bits a tick before growing
+
+        void write(long value, int n) {
+            if (n == 0) return;
+            if (n < 64) value &= (1L << n) - 1;
+            int word = bits >>> 6, free = 64 - (bits & 63);
+            if (word + 1 >= words.length) words = Arrays.copyOf(words, words.length * 2);
+            if (n <= free) words[word] |= value << (free - n);
+            else {
+                words[word] |= value >>> (n - free);
+                words[word + 1] |= value << (64 - (n - free));
+            }
+            bits += n;
+        }
+
+        byte[] toBytes() {
+            byte[] out = new byte[(bits + 7) >>> 3];
+            for (int i = 0; i < out.length; i++) out[i] = (byte) (words[i >>> 3] >>> (56 - 8 * (i & 7)));
+            return out;
+        }
+    }
+
+    private static final class BitReader {
+        final long[] words;
+        int bits;
+
+        BitReader(byte[] block) {
+            words = new long[(block.length + 7) / 8 + 1];
+            for (int i = 0; i < block.length; i++) words[i >>> 3] |= (block[i] & 0xffL) << (56 - 8 * (i & 7));
+        }
+
+        long read(int n) {
+            if (n == 0) return 0;
+            int word = bits >>> 6, used = bits & 63, free = 64 - used;
+            long hi = words[word] << used;
+            long v = hi >>> (64 - n);
+            if (n > free) v |= words[word + 1] >>> (64 - (n - free));
+            bits += n;
+            return v;
+        }
+    }
+
+    // --- READING ACROSS TIERS ---
+
+    /**
+     * Passes at most limit ticks with from <= timestamp <= to that sort after (afterTs, afterSeq), in
+     * (timestamp, seq) order, from rows of (seq, timestamp, price, demand) and blocks that are each in that
+     * order. A tick in both (the rows were read before a compaction, the blocks after) is passed once.
+     * Blocks are decoded one at a time, as the merge reaches them. Returns the ticks passed.
+     */
+    public static int merge(Iterator<Object[]> rows, Iterator<byte[]> blocks, long from, long to, long afterTs, long afterSeq, int limit,
+                            RollingStats.TickSink sink) {
+        long[] seqs = new long[BLOCK_TICKS], timestamps = new long[BLOCK_TICKS];
+        double[] prices = new double[BLOCK_TICKS], demands = new double[BLOCK_TICKS];
+        int size = 0, b = 0, passed = 0;
+        Object[] row = rows.hasNext() ? rows.next() : null;
+        while (passed < limit) {
+            while (b == size && blocks.hasNext()) {
+                byte[] block = blocks.next();
+                if (count(block) > seqs.length) {
+                    int n = count(block);
+                    seqs = new long[n]; timestamps = new long[n]; prices = new double[n]; demands = new double[n];
+                }
+                size = decode(block, seqs, timestamps, prices, demands);
+                b = 0;
+                while (b < size && (timestamps[b] < from || timestamps[b] < afterTs || (timestamps[b] == afterTs && seqs[b] <= afterSeq))) b++;
+            }
+            boolean fromBlock = b < size;
+            if (row == null && !fromBlock) break;
+            if (row != null) {
+                long rowSeq = (Long) row[0], rowTs = (Long) row[1];
+                int order = fromBlock ? compare(rowTs, rowSeq, timestamps[b], seqs[b]) : -1;
+                if (order <= 0) {
+                    if (rowTs > to) break;
+                    sink.accept(rowSeq, rowTs, row[2] == null ? Double.NaN : (Double) row[2], row[3] == null ? Double.NaN : (Double) row[3]);
+                    passed++;
+                    row = rows.hasNext() ? rows.next() : null;
+                    if (order == 0) b++;
+                    continue;
+                }
+            }
+            if (timestamps[b] > to) break;
+            sink.accept(seqs[b], timestamps[b], prices[b], demands[b]);
+            passed++;
+            b++;
+        }
+        return passed;
+    }
+
+    private static int compare(long ts1, long seq1, long ts2, long seq2) { return ts1 != ts2 ? Long.compare(ts1, ts2) : Long.compare(seq1, seq2); }
+
+    // --- COMPACTION ---
+
+    /** Runs the compactor every COMPACT_EVERY_MS on a daemon thread; a failed pass is logged and retried next time. */
+    public static void schedule(String store, Runnable pass) {
+        if (COMPACT_EVERY_MS <= 0) return;
+        CatalogMetrics.Timer timer = COMPACTION.timer(store);
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            long t0 = System.nanoTime();
+            try {
+                pass.run();
+            } catch (RuntimeException e) {
+                System.err.println(">>> History compaction failed: " + e);
+            }
+            timer.since(t0);
+        }, COMPACT_EVERY_MS, COMPACT_EVERY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Counts ticks a compactor packed, and the bytes the cold tier grew by. */
+    public static void archived(long ticks, long bytes) {
+        archivedTicks.add(ticks);
+        archivedBytes.add(bytes);
+    }
+
+    public static void metrics() {
+        CatalogMetrics.counter("marketops_history_archived_ticks_total", "Ticks packed into cold history blocks", new String[0], sink -> sink.sample(archivedTicks.sum()));
+        CatalogMetrics.counter("marketops_history_archived_bytes_total", "Bytes added to cold history blocks", new String[0], sink -> sink.sample(archivedBytes.sum()));
+    }
+}
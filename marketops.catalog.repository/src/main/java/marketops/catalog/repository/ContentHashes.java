@@ -0,0 +1,83 @@
+package marketops.catalog.repository;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Last stored content per catalog object, so re-POSTing an unchanged object (cataloglib does, on every
+ * decorated call) is answered without a write. The content is the posted object as the server serializes
+ * it, which ignores field order and whitespace; only 64 bits of its SHA-256 are kept per id.
+ * A hash is recorded once a write is durable and dropped whenever the object changes by another path
+ * (ticks, simulation or ETL lineage). Writes made by other processes are not seen, so re-posting a value
+ * another process has since overwritten is skipped for up to marketops.upsert.ttlMs (0 = always write);
+ * marketops.upsert.maxEntries caps the ids kept per type.
+ */
+public final class ContentHashes {
+
+    public static final long TTL_MS = Long.getLong("marketops.upsert.ttlMs", 60_000);
+    public static final int MAX_ENTRIES = Integer.getInteger("marketops.upsert.maxEntries", 100_000);
+
+    private record Entry(long hash, long expiresAt) {}
+
+    private static final class Region {
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        final LongAdder written = new LongAdder(), unchanged = new LongAdder(), preconditionFailed = new LongAdder();
+    }
+
+    private final Map<Class<?>, Region> regions = new ConcurrentHashMap<>();
+
+    public static long hash(byte[] content) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(content)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** True if this content is what was last stored for the id; counts the upsert as skipped. */
+    public boolean unchanged(Class<?> type, String id, long hash) {
+        if (TTL_MS <= 0 || id == null) return false;
+        Region region = region(type);
+        Entry entry = region.entries.get(id);
+        if (entry == null || entry.hash != hash || System.currentTimeMillis() >= entry.expiresAt) return false;
+        region.unchanged.increment();
+        return true;
+    }
+
+    /** Call once the write of this content is durable. */
+    public void stored(Class<?> type, String id, long hash) {
+        Region region = region(type);
+        region.written.increment();
+        if (TTL_MS <= 0 || id == null) return;
+        if (region.entries.size() >= MAX_ENTRIES && !region.entries.containsKey(id)) {
+            Iterator<String> it = region.entries.keySet().iterator(); // as in ResponseCache: drop whichever iterates first
+            if (it.hasNext()) { it.next(); it.remove(); }
+        }
+        region.entries.put(id, new Entry(hash, System.currentTimeMillis() + TTL_MS));
+    }
+
+    /** The object changed by some other path than an upsert: the next upsert writes. */
+    public void forget(Class<?> type, String id) {
+        Region region = regions.get(type);
+        if (region != null && id != null) region.entries.remove(id);
+    }
+
+    /** An If-Match precondition did not hold. */
+    public void preconditionFailed(Class<?> type) { region(type).preconditionFailed.increment(); }
+
+    public void metrics() {
+        CatalogMetrics.counter("marketops_upserts_total", "POST and bulk upserts by type and result", new String[] { "type", "result" },
+                sink -> regions.forEach((type, r) -> {
+                    sink.sample(r.written.sum(), type.getSimpleName(), "written");
+                    sink.sample(r.unchanged.sum(), type.getSimpleName(), "unchanged");
+                    sink.sample(r.preconditionFailed.sum(), type.getSimpleName(), "precondition_failed");
+                }));
+    }
+
+    private Region region(Class<?> type) { return regions.computeIfAbsent(type, t -> new Region()); }
+}
@@ -0,0 +1,136 @@
+package marketops.catalog.repository;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.javalin.Javalin;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.Cache;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in Hibernate second-level and query cache (-Dmarketops.l2cache=true) for read-mostly entities.
+ * Every @Cache region of the given entities and their collections is created up front in a local
+ * Caffeine JCache provider, holding at most marketops.l2cache.maxEntries (per region:
+ * marketops.l2cache.{region}.maxEntries) for at most marketops.l2cache.ttlMs, which bounds how long a
+ * write from another process goes unseen. Hibernate is told to fail on any other region, so none is unbounded.
+ * Hits, misses and puts per region come from Hibernate statistics: GET /admin/cache and /metrics.
+ */
+public final class EntityCache {
+
+    public static final boolean ENABLED = Boolean.getBoolean("marketops.l2cache");
+    public static final long MAX_ENTRIES = Long.getLong("marketops.l2cache.maxEntries", 10_000);
+    public static final long TTL_MS = Long.getLong("marketops.l2cache.ttlMs", 300_000);
+
+    private static final String QUERY_REGION = RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME;
+    private static final String TIMESTAMPS_REGION = RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME;
+    private static final Map<String, javax.cache.Cache<Object, Object>> REGIONS = new ConcurrentSkipListMap<>();
+
+    private EntityCache() {}
+
+    /** Cache settings for the given @Cache entities; call before applying overrides so they win. */
+    public static void configure(Configuration cfg, String name, Class<?>... entities) {
+        // hibernate-jcache on the classpath would otherwise be picked up as the region factory on its own
+        cfg.setProperty("hibernate.cache.use_second_level_cache", String.valueOf(ENABLED));
+        cfg.setProperty("hibernate.cache.use_query_cache", String.valueOf(ENABLED));
+        if (!ENABLED) return;
+
+        CacheManager manager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create(name), EntityCache.class.getClassLoader());
+        for (Class<?> entity : entities) {
+            region(manager, entity.getAnnotation(Cache.class), entity.getName());
+            for (Field field : entity.getFields()) if (field.isAnnotationPresent(Cache.class)) region(manager, field.getAnnotation(Cache.class), entity.getName() + "." + field.getName());
+        }
+        region(manager, QUERY_REGION, true);
+        region(manager, TIMESTAMPS_REGION, false); // must outlive every cached query result: no eviction, no expiry
+
+        cfg.setProperty("hibernate.cache.region.factory_class", "jcache");
+        cfg.getProperties().put("hibernate.javax.cache.cache_manager", manager);
+        cfg.setProperty("hibernate.javax.cache.missing_cache_strategy", "fail");
+        cfg.setProperty("hibernate.generate_statistics", "true");
+        cfg.setProperty("hibernate.session.events.log", "false"); // statistics would otherwise log a summary per session
+    }
+
+    /** Whether entities of this type (and so their queries) are cached. */
+    public static boolean cached(Class<?> entity) {
+        return ENABLED && entity.isAnnotationPresent(Cache.class);
+    }
+
+    /** GET /admin/cache, and the same counts as metrics. */
+    public static void routes(Javalin app, SessionFactory sessionFactory) {
+        app.get("/admin/cache", ctx -> ctx.json(stats(sessionFactory)));
+        if (!ENABLED) return;
+        CatalogMetrics.counter("marketops_l2cache_requests_total", "Second-level cache lookups by region and result", new String[] { "region", "result" }, sink -> {
+            Statistics statistics = sessionFactory.getStatistics();
+            for (String region : REGIONS.keySet()) {
+                CacheRegionStatistics r = statistics(statistics, region);
+                if (r == null) continue;
+                sink.sample(r.getHitCount(), region, "hit");
+                sink.sample(r.getMissCount(), region, "miss");
+            }
+        });
+        CatalogMetrics.gauge("marketops_l2cache_entries", "Entries held per second-level cache region", new String[] { "region" },
+                sink -> REGIONS.forEach((region, cache) -> sink.sample(size(cache), region)));
+    }
+
+    public static Map<String, Object> stats(SessionFactory sessionFactory) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", ENABLED);
+        if (!ENABLED) return m;
+        m.put("maxEntries", MAX_ENTRIES);
+        m.put("ttlMs", TTL_MS);
+        Statistics statistics = sessionFactory.getStatistics();
+        Map<String, Object> regions = new LinkedHashMap<>();
+        REGIONS.forEach((region, cache) -> {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("entries", size(cache));
+            CacheRegionStatistics s = statistics(statistics, region);
+            if (s != null) {
+                long lookups = s.getHitCount() + s.getMissCount();
+                r.put("hits", s.getHitCount());
+                r.put("misses", s.getMissCount());
+                r.put("puts", s.getPutCount());
+                r.put("hitRatio", lookups == 0 ? 0.0 : (double) s.getHitCount() / lookups);
+            }
+            regions.put(region, r);
+        });
+        m.put("regions", regions);
+        return m;
+    }
+
+    private static void region(CacheManager manager, Cache cache, String owner) {
+        if (cache.region().isEmpty()) throw new IllegalStateException("@Cache on " + owner + " needs an explicit region");
+        region(manager, cache.region(), true);
+    }
+
+    private static void region(CacheManager manager, String name, boolean bounded) {
+        CaffeineConfiguration<Object, Object> config = new CaffeineConfiguration<>();
+        if (bounded) {
+            config.setMaximumSize(OptionalLong.of(Long.getLong("marketops.l2cache." + name + ".maxEntries", MAX_ENTRIES)));
+            config.setExpireAfterWrite(OptionalLong.of(TimeUnit.MILLISECONDS.toNanos(TTL_MS)));
+        }
+        if (manager.getCache(name) != null) manager.destroyCache(name); // a rebuilt session factory starts cold
+        REGIONS.put(name, manager.createCache(name, config));
+    }
+
+    private static CacheRegionStatistics statistics(Statistics statistics, String region) {
+        if (region.equals(TIMESTAMPS_REGION)) return null;
+        return region.equals(QUERY_REGION) ? statistics.getQueryRegionStatistics(region) : statistics.getDomainDataRegionStatistics(region);
+    }
+
+    private static long size(javax.cache.Cache<Object, Object> cache) {
+        return cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class).estimatedSize();
+    }
+}
@@ -0,0 +1,401 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs registered ETL jobs in-process instead of from external cron.
+ * A job reads its dataSourceId and writes its dataSetId, so a job whose source is another job's data set
+ * runs after it: every run is a plan of jobs ordered by those links (jobs on a cycle are skipped, and so
+ * is everything downstream of a failure). Scheduled jobs run as one plan every marketops.etl.intervalMs;
+ * event jobs run when the entity they read is written, directly or by an upstream job; any job can be run
+ * by hand. Python and SQL jobs run as subprocesses (marketops.etl.python / marketops.etl.sql plus the
+ * job's path, output in marketops.etl.logDir), Java jobs in-process (path = a Runnable or a class with
+ * main). Jobs execute on a work-stealing pool of marketops.etl.workers threads, at most
+ * marketops.etl.perSource at a time per data source; a job waiting for its source holds no thread.
+ */
+public class EtlScheduler {
+
+    public static final int WORKERS = Integer.getInteger("marketops.etl.workers", Runtime.getRuntime().availableProcessors());
+    public static final int PER_SOURCE = Integer.getInteger("marketops.etl.perSource", 2);
+    public static final long INTERVAL_MS = Long.getLong("marketops.etl.intervalMs", 3_600_000);
+    public static final long TIMEOUT_MS = Long.getLong("marketops.etl.timeoutMs", 3_600_000);
+    public static final String PYTHON = System.getProperty("marketops.etl.python", "python3");
+    public static final String SQL = System.getProperty("marketops.etl.sql", "psql -v ON_ERROR_STOP=1 -f");
+    public static final Path LOG_DIR = Paths.get(System.getProperty("marketops.etl.logDir", "etl_logs"));
+    private static final int HISTORY = 1_000;
+
+    public static final CatalogMetrics.Family DURATION = CatalogMetrics.family("marketops_etl_run_duration_seconds", "ETL job run time by job and status", "job", "status");
+
+    public enum Trigger {
+        MANUAL, SCHEDULED, EVENT;
+
+        /** "schedule"/"scheduled" and "event"/"event-based" as the catalog clients write them. */
+        static Trigger of(String triggerType) {
+            String t = triggerType == null ? "" : triggerType.toLowerCase();
+            return t.startsWith("schedul") ? SCHEDULED : t.startsWith("event") ? EVENT : MANUAL;
+        }
+    }
+
+    public static final class Job {
+        public final String id, dataSourceId, dataSetId, path, language;
+        public final Trigger trigger;
+
+        Job(String id, String triggerType, String dataSourceId, String dataSetId, String path, String language) {
+            this.id = id;
+            this.trigger = Trigger.of(triggerType);
+            this.dataSourceId = dataSourceId;
+            this.dataSetId = dataSetId;
+            this.path = path;
+            this.language = language == null ? "" : language.toLowerCase();
+        }
+    }
+
+    /** One finished (or skipped) execution of a job. */
+    public static final class Run {
+        public final long runId;
+        public final String jobId, cause, user, status; // user: who ran it by hand, else null
+        public final long queuedAt, startedAt, waitMs, durationMs;
+        public final Integer exitCode;
+        public final String error, log;
+
+        Run(long runId, Job job, String cause, String user, String status, long queuedAt, long startedAt, long durationMs, Integer exitCode, String error, Path log) {
+            this.runId = runId;
+            this.jobId = job.id;
+            this.cause = cause;
+            this.user = user;
+            this.status = status;
+            this.queuedAt = queuedAt;
+            this.startedAt = startedAt;
+            this.waitMs = startedAt == 0 ? 0 : startedAt - queuedAt;
+            this.durationMs = durationMs;
+            this.exitCode = exitCode;
+            this.error = error;
+            this.log = log == null ? null : log.toString();
+        }
+
+        public boolean succeeded() { return status.equals("succeeded"); }
+    }
+
+    /** Called on the worker thread after every run, e.g. to record lineage. */
+    @FunctionalInterface
+    public interface Listener { void finished(Job job, Run run); }
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<Job>> readers = new ConcurrentHashMap<>(); // entity id -> jobs whose source it is, lists copied on write
+    private final ExecutorService pool = Executors.newWorkStealingPool(WORKERS);
+    private final Map<String, Gate> gates = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet(); // planned, not started yet
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong runIds = new AtomicLong();
+    private final ArrayDeque<Run> history = new ArrayDeque<>();
+    private final Listener listener;
+
+    public EtlScheduler(Listener listener) { this.listener = listener; }
+
+    /** Job states as gauges; run durations are in DURATION. */
+    public void metrics() {
+        CatalogMetrics.gauge("marketops_etl_jobs", "ETL jobs by state", new String[] { "state" }, sink -> {
+            sink.sample(jobs.size(), "registered");
+            sink.sample(pending.size(), "pending");
+            sink.sample(running.get(), "running");
+        });
+    }
+
+    // --- REGISTRY ---
+
+    /** Adds or replaces a job; called for every stored ETL. */
+    public synchronized void put(String id, String triggerType, String dataSourceId, String dataSetId, String path, String language) {
+        if (id == null) return;
+        Job job = new Job(id, triggerType, dataSourceId, dataSetId, path, language);
+        Job old = jobs.put(id, job);
+        if (old != null && old.dataSourceId != null) readers.computeIfPresent(old.dataSourceId, (k, list) -> {
+            List<Job> rest = new ArrayList<>(list);
+            rest.remove(old);
+            return rest.isEmpty() ? null : List.copyOf(rest);
+        });
+        if (job.dataSourceId != null) readers.merge(job.dataSourceId, List.of(job), (list, added) -> {
+            List<Job> all = new ArrayList<>(list);
+            all.addAll(added);
+            return List.copyOf(all);
+        });
+    }
+
+    /** Runs the scheduled jobs every INTERVAL_MS (0 = only on demand). */
+    public void start() {
+        if (INTERVAL_MS <= 0) return;
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "etl-schedule");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> {
+            List<Job> scheduled = jobs.values().stream().filter(j -> j.trigger == Trigger.SCHEDULED).toList();
+            if (!scheduled.isEmpty()) plan("schedule", null, scheduled);
+        }, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        System.out.printf(">>> ETL scheduler: %d jobs, %d workers, %d per source, every %d s%n", jobs.size(), WORKERS, PER_SOURCE, INTERVAL_MS / 1000);
+    }
+
+    // --- TRIGGERS ---
+
+    /** An entity was written: runs the event jobs that read it, and the event jobs downstream of those. */
+    public void fire(String entityId) {
+        List<Job> chain = events(entityId, Set.of());
+        if (!chain.isEmpty()) plan("event:" + entityId, null, chain);
+    }
+
+    /** Runs one job now on behalf of a user; false if there is no such job. */
+    public boolean run(String jobId, String user) {
+        Job job = jobs.get(jobId);
+        if (job == null) return false;
+        plan("manual", user, List.of(job));
+        return true;
+    }
+
+    // Event jobs reachable from an entity through source -> data set links, excluding the given ones
+    private List<Job> events(String entityId, Set<String> exclude) {
+        LinkedHashMap<String, Job> found = new LinkedHashMap<>();
+        ArrayDeque<String> queue = new ArrayDeque<>(List.of(entityId));
+        while (!queue.isEmpty()) {
+            for (Job job : readers.getOrDefault(queue.poll(), List.of())) {
+                if (job.trigger != Trigger.EVENT || exclude.contains(job.id) || found.putIfAbsent(job.id, job) != null) continue;
+                if (job.dataSetId != null) queue.add(job.dataSetId);
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    // --- PLANS ---
+
+    private void plan(String cause, String user, Collection<Job> candidates) {
+        List<Job> members = new ArrayList<>();
+        for (Job job : candidates) if (pending.add(job.id)) members.add(job); // already waiting to run: that run covers this one
+        if (!members.isEmpty()) new Plan(cause, user, members).start();
+    }
+
+    /** Jobs run together; each starts once the members it reads from have succeeded. */
+    private final class Plan {
+        final String cause, user;
+        final long queuedAt = System.currentTimeMillis();
+        final Map<String, Job> members = new LinkedHashMap<>();
+        final Map<String, Integer> waitingOn = new HashMap<>();
+        final Map<String, List<Job>> downstream = new HashMap<>();
+
+        Plan(String cause, String user, List<Job> jobs) {
+            this.cause = cause;
+            this.user = user;
+            Map<String, List<Job>> producers = new HashMap<>();
+            for (Job job : jobs) {
+                members.put(job.id, job);
+                if (job.dataSetId != null) producers.computeIfAbsent(job.dataSetId, k -> new ArrayList<>()).add(job);
+            }
+            for (Job job : jobs) {
+                int upstream = 0;
+                for (Job producer : producers.getOrDefault(job.dataSourceId, List.of())) {
+                    if (producer == job) continue;
+                    downstream.computeIfAbsent(producer.id, k -> new ArrayList<>()).add(job);
+                    upstream++;
+                }
+                waitingOn.put(job.id, upstream);
+            }
+        }
+
+        void start() {
+            // Kahn's order over a copy: whatever it cannot reach sits on a cycle (or behind one)
+            Map<String, Integer> indegree = new HashMap<>(waitingOn);
+            ArrayDeque<Job> ready = new ArrayDeque<>();
+            members.values().forEach(j -> { if (indegree.get(j.id) == 0) ready.add(j); });
+            Set<String> ordered = new HashSet<>();
+            for (Job j = ready.poll(); j != null; j = ready.poll()) {
+                ordered.add(j.id);
+                for (Job d : downstream.getOrDefault(j.id, List.of())) if (indegree.merge(d.id, -1, Integer::sum) == 0) ready.add(d);
+            }
+            List<Job> roots = new ArrayList<>();
+            synchronized (this) {
+                for (Job job : members.values()) {
+                    if (!ordered.contains(job.id)) skipped(job, "dependency cycle"); // so is everything downstream of it
+                    else if (waitingOn.get(job.id) == 0) roots.add(job);
+                }
+            }
+            roots.forEach(job -> submit(this, job));
+        }
+
+        void done(Job job, boolean ok) {
+            List<Job> ready = new ArrayList<>();
+            synchronized (this) {
+                for (Job d : downstream.getOrDefault(job.id, List.of())) {
+                    if (!ok) skip(d, "upstream " + job.id + " did not succeed");
+                    else if (waitingOn.merge(d.id, -1, Integer::sum) == 0) ready.add(d);
+                }
+            }
+            ready.forEach(d -> submit(this, d));
+            // The data set changed: event jobs reading it that this plan does not already run
+            if (ok && job.dataSetId != null) {
+                List<Job> chain = events(job.dataSetId, members.keySet());
+                if (!chain.isEmpty()) plan("event:" + job.dataSetId, null, chain);
+            }
+        }
+
+        private void skip(Job job, String reason) {
+            if (!skipped(job, reason)) return;
+            for (Job d : downstream.getOrDefault(job.id, List.of())) skip(d, "upstream " + job.id + " did not succeed");
+        }
+
+        private boolean skipped(Job job, String reason) {
+            if (waitingOn.put(job.id, -1) == -1) return false;
+            pending.remove(job.id);
+            finish(job, new Run(runIds.incrementAndGet(), job, cause, user, "skipped", queuedAt, 0, 0, null, reason, null));
+            return true;
+        }
+    }
+
+    // --- EXECUTION ---
+
+    /** Per data source admission: at most PER_SOURCE jobs on the pool, the rest queued here, not on a thread. */
+    private final class Gate {
+        private int permits = PER_SOURCE;
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+        synchronized void submit(Runnable task) {
+            if (permits > 0) { permits--; pool.execute(task); } else waiting.add(task);
+        }
+
+        synchronized void release() {
+            Runnable next = waiting.poll();
+            if (next != null) pool.execute(next); else permits++;
+        }
+    }
+
+    private void submit(Plan plan, Job job) {
+        Gate gate = gates.computeIfAbsent(job.dataSourceId == null ? "" : job.dataSourceId, k -> new Gate());
+        gate.submit(() -> {
+            try { execute(plan, job); } finally { gate.release(); }
+        });
+    }
+
+    private void execute(Plan plan, Job job) {
+        pending.remove(job.id);
+        running.incrementAndGet();
+        long runId = runIds.incrementAndGet(), startedAt = System.currentTimeMillis(), t0 = System.nanoTime();
+        String status = "succeeded", error = null;
+        Integer exitCode = null;
+        Path log = null;
+        try {
+            switch (job.language) {
+                case "python" -> { log = log(job, runId); exitCode = process(job, runId, PYTHON, log); }
+                case "sql" -> { log = log(job, runId); exitCode = process(job, runId, SQL, log); }
+                case "java" -> java(job);
+                default -> throw new IllegalArgumentException("Unsupported language: " + job.language);
+            }
+            if (exitCode != null && exitCode != 0) { status = "failed"; error = "Exit code " + exitCode; }
+        } catch (TimeoutException e) {
+            status = "timeout";
+            error = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = "failed";
+            error = "Interrupted";
+        } catch (Exception e) {
+            Throwable cause = e instanceof InvocationTargetException ite && ite.getCause() != null ? ite.getCause() : e;
+            status = "failed";
+            error = cause.toString();
+        } finally {
+            running.decrementAndGet();
+        }
+        long nanos = System.nanoTime() - t0;
+        DURATION.timer(job.id, status).record(nanos);
+        Run run = new Run(runId, job, plan.cause, plan.user, status, plan.queuedAt, startedAt, nanos / 1_000_000, exitCode, error, log);
+        finish(job, run);
+        plan.done(job, run.succeeded());
+    }
+
+    private void finish(Job job, Run run) {
+        synchronized (history) {
+            if (history.size() == HISTORY) history.removeFirst();
+            history.addLast(run);
+        }
+        try { listener.finished(job, run); } catch (RuntimeException e) { System.err.println(">>> ETL listener failed for " + job.id + ": " + e); }
+    }
+
+    private static Path log(Job job, long runId) throws IOException {
+        Files.createDirectories(LOG_DIR);
+        return LOG_DIR.resolve(job.id.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + runId + ".log");
+    }
+
+    private static int process(Job job, long runId, String command, Path log) throws IOException, InterruptedException, TimeoutException {
+        if (job.path == null) throw new IllegalArgumentException("Job has no path");
+        List<String> cmd = new ArrayList<>(Arrays.asList(command.trim().split("\\s+")));
+        cmd.add(job.path);
+        ProcessBuilder builder = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log.toFile());
+        Map<String, String> env = builder.environment();
+        env.put("MARKETOPS_ETL_ID", job.id);
+        env.put("MARKETOPS_ETL_RUN", String.valueOf(runId));
+        if (job.dataSourceId != null) env.put("MARKETOPS_DATA_SOURCE_ID", job.dataSourceId);
+        if (job.dataSetId != null) env.put("MARKETOPS_DATA_SET_ID", job.dataSetId);
+        Process process = builder.start();
+        if (!process.waitFor(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            throw new TimeoutException("No exit after " + TIMEOUT_MS + " ms");
+        }
+        return process.exitValue();
+    }
+
+    private static void java(Job job) throws Exception {
+        Class<?> clazz = Class.forName(job.path);
+        if (Runnable.class.isAssignableFrom(clazz)) ((Runnable) clazz.getDeclaredConstructor().newInstance()).run();
+        else clazz.getMethod("main", String[].class).invoke(null, (Object) new String[] { job.id, job.dataSourceId, job.dataSetId });
+    }
+
+    // --- HTTP ---
+
+    /** Newest first, optionally of one job. */
+    public List<Run> runs(String jobId, int limit) {
+        List<Run> out = new ArrayList<>();
+        synchronized (history) {
+            for (Iterator<Run> it = history.descendingIterator(); it.hasNext() && out.size() < limit; ) {
+                Run run = it.next();
+                if (jobId == null || run.jobId.equals(jobId)) out.add(run);
+            }
+        }
+        return out;
+    }
+
+    /** GET /etl/runs?job=&limit= */
+    public void serveRuns(Context ctx) {
+        String limit = ctx.queryParam("limit");
+        int n;
+        try { n = limit == null ? 100 : Math.min(Math.max(Integer.parseInt(limit), 1), HISTORY); }
+        catch (NumberFormatException e) { throw new io.javalin.http.BadRequestResponse("Invalid limit: " + limit); }
+        ctx.json(runs(ctx.queryParam("job"), n));
+    }
+
+    /** GET /etl/status: pool settings, job states and each job's upstream jobs. */
+    public void serveStatus(Context ctx) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("workers", WORKERS);
+        status.put("perSource", PER_SOURCE);
+        status.put("intervalMs", INTERVAL_MS);
+        status.put("jobs", jobs.size());
+        status.put("pending", new TreeSet<>(pending));
+        status.put("running", running.get());
+        Map<String, List<String>> upstream = new TreeMap<>();
+        Map<String, List<Job>> producers = new HashMap<>();
+        for (Job job : jobs.values()) if (job.dataSetId != null) producers.computeIfAbsent(job.dataSetId, k -> new ArrayList<>()).add(job);
+        for (Job job : jobs.values()) {
+            List<String> ids = new ArrayList<>();
+            for (Job p : producers.getOrDefault(job.dataSourceId, List.of())) if (p != job) ids.add(p.id);
+            upstream.put(job.id + " (" + job.trigger.name().toLowerCase() + ")", ids);
+        }
+        status.put("upstream", upstream);
+        ctx.json(status);
+    }
+}
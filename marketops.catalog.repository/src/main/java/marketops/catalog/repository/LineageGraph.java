@@ -0,0 +1,302 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory lineage graph built from LineageTracking records.
+ * Each record contributes the edges dataSource -> marketAsset, model -> marketAsset and
+ * user -> marketAsset; node ids share one namespace (an asset can be the source of another record),
+ * except users, which are keyed "user:{id}". Nodes are interned to ints and edges kept in primitive
+ * adjacency arrays in both directions, so a multi-hop walk touches no maps and allocates little.
+ * Edges are reference counted by the records that assert them, so re-posting a record with other
+ * ids moves its edges. Writers take the write lock; traversals share the read lock.
+ */
+public class LineageGraph {
+
+    public static final int SOURCE = 1, ASSET = 2, MODEL = 4, USER = 8;
+    public static final int DEFAULT_DEPTH = 10, MAX_DEPTH = 100;
+    public static final int DEFAULT_LIMIT = 10_000, MAX_LIMIT = 1_000_000;
+    private static final String[] KIND_NAMES = { "SOURCE", "ASSET", "MODEL", "USER" };
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[1024];
+    private byte[] kinds = new byte[1024];
+    private int[][] out = new int[1024][];
+    private int[] outSize = new int[1024];
+    private int[][] in = new int[1024][];
+    private int[] inSize = new int[1024];
+    private int nodes;
+    private final LongIntMap edgeRefs = new LongIntMap(); // (from << 32 | to) -> records asserting the edge
+    private final Map<String, long[]> edgesByRecord = new HashMap<>();
+    private long edges;
+
+    /** One node reached by a traversal; via is the node it was first reached from. */
+    public static class Node {
+        public final String id;
+        public final int depth;
+        public final List<String> kinds;
+        public final String via;
+        Node(String id, int depth, List<String> kinds, String via) { this.id = id; this.depth = depth; this.kinds = kinds; this.via = via; }
+    }
+
+    public static class Traversal {
+        public final String id;
+        public final String direction;
+        public final int maxDepth;
+        public final boolean truncated; // node limit hit before the walk finished
+        public final List<Node> nodes;
+        public final Map<String, Integer> byKind = new TreeMap<>();  // impact: reached nodes per kind
+        public final Map<Integer, Integer> byDepth = new TreeMap<>(); // and per hop
+        Traversal(String id, String direction, int maxDepth, boolean truncated, List<Node> nodes) {
+            this.id = id; this.direction = direction; this.maxDepth = maxDepth; this.truncated = truncated; this.nodes = nodes;
+        }
+    }
+
+    // --- WRITES ---
+
+    /** Adds or replaces the edges of one lineage record; null ids contribute no edge. */
+    public void record(String recordId, String dataSourceId, String marketAssetId, String modelRegistryId, String userId) {
+        lock.writeLock().lock();
+        try {
+            long[] old = recordId == null ? null : edgesByRecord.remove(recordId);
+            if (old != null) for (long e : old) release(e);
+            if (marketAssetId == null) return;
+            int asset = intern(marketAssetId, ASSET);
+            long[] added = new long[3];
+            int n = 0;
+            if (dataSourceId != null) n = link(added, n, intern(dataSourceId, SOURCE), asset);
+            if (modelRegistryId != null) n = link(added, n, intern(modelRegistryId, MODEL), asset);
+            if (userId != null) n = link(added, n, intern("user:" + userId, USER), asset);
+            if (recordId != null && n > 0) edgesByRecord.put(recordId, Arrays.copyOf(added, n));
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    private int link(long[] added, int n, int from, int to) {
+        long key = (long) from << 32 | to;
+        if (edgeRefs.increment(key) == 1) {
+            out[from] = append(out[from], outSize[from]++, to);
+            in[to] = append(in[to], inSize[to]++, from);
+            edges++;
+        }
+        added[n] = key;
+        return n + 1;
+    }
+
+    private void release(long key) {
+        if (edgeRefs.decrement(key) > 0) return;
+        int from = (int) (key >>> 32), to = (int) key;
+        outSize[from] = remove(out[from], outSize[from], to);
+        inSize[to] = remove(in[to], inSize[to], from);
+        edges--;
+    }
+
+    private int intern(String id, int kind) {
+        Integer known = ids.get(id);
+        int node;
+        if (known != null) {
+            node = known;
+        } else {
+            node = nodes++;
+            if (node == names.length) grow();
+            names[node] = id;
+            ids.put(id, node);
+        }
+        kinds[node] |= kind;
+        return node;
+    }
+
+    private void grow() {
+        int n = names.length * 2;
+        names = Arrays.copyOf(names, n);
+        kinds = Arrays.copyOf(kinds, n);
+        out = Arrays.copyOf(out, n);
+        outSize = Arrays.copyOf(outSize, n);
+        in = Arrays.copyOf(in, n);
+        inSize = Arrays.copyOf(inSize, n);
+    }
+
+    private static int[] append(int[] list, int size, int value) {
+        if (list == null) list = new int[4];
+        else if (size == list.length) list = Arrays.copyOf(list, size * 2);
+        list[size] = value;
+        return list;
+    }
+
+    // Swap-remove; adjacency order carries no meaning
+    private static int remove(int[] list, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (list[i] == value) { list[i] = list[size - 1]; return size - 1; }
+        }
+        return size;
+    }
+
+    // --- READS ---
+
+    public Traversal downstream(String id, int maxDepth, int limit) { return walk(id, true, maxDepth, limit); }
+    public Traversal upstream(String id, int maxDepth, int limit) { return walk(id, false, maxDepth, limit); }
+
+    /** Breadth-first walk up to maxDepth hops, visiting each node once; null if the id is not in the graph. */
+    private Traversal walk(String id, boolean down, int maxDepth, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer start = ids.get(id);
+            if (start == null) return null;
+            int[][] adj = down ? out : in;
+            int[] adjSize = down ? outSize : inSize;
+            LongIntMap seen = new LongIntMap();
+            int[] queue = new int[16], depth = new int[16], parent = new int[16];
+            int head = 0, tail = 0;
+            queue[tail] = start; depth[tail] = 0; parent[tail] = -1; tail++;
+            seen.increment(start);
+            boolean truncated = false;
+            while (head < tail) {
+                int node = queue[head], d = depth[head];
+                head++;
+                if (d == maxDepth) continue;
+                int[] next = adj[node];
+                for (int i = 0, n = adjSize[node]; i < n; i++) {
+                    int m = next[i];
+                    if (seen.increment(m) > 1) continue;
+                    if (tail - 1 >= limit) { truncated = true; break; }
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                        depth = Arrays.copyOf(depth, tail * 2);
+                        parent = Arrays.copyOf(parent, tail * 2);
+                    }
+                    queue[tail] = m; depth[tail] = d + 1; parent[tail] = node; tail++;
+                }
+                if (truncated) break;
+            }
+            List<Node> reached = new ArrayList<>(tail - 1);
+            Traversal t = new Traversal(id, down ? "downstream" : "upstream", maxDepth, truncated, reached);
+            for (int i = 1; i < tail; i++) {
+                List<String> k = kindNames(kinds[queue[i]]);
+                reached.add(new Node(names[queue[i]], depth[i], k, names[parent[i]]));
+                for (String kind : k) t.byKind.merge(kind, 1, Integer::sum);
+                t.byDepth.merge(depth[i], 1, Integer::sum);
+            }
+            return t;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /** GET /lineage/{id}/upstream|downstream?depth=&limit= */
+    public void serve(Context ctx, boolean down) {
+        int depth = intParam(ctx, "depth", DEFAULT_DEPTH, MAX_DEPTH);
+        int limit = intParam(ctx, "limit", DEFAULT_LIMIT, MAX_LIMIT);
+        Traversal t = walk(ctx.pathParam("id"), down, depth, limit);
+        if (t != null) ctx.json(t); else ctx.status(404).result("Not in lineage graph");
+    }
+
+    private static int intParam(Context ctx, String name, int fallback, int max) {
+        String value = ctx.queryParam(name);
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Math.min(Math.max(Integer.parseInt(value), 1), max);
+        } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid " + name + ": " + value); }
+    }
+
+    private static List<String> kindNames(int mask) {
+        List<String> k = new ArrayList<>(1);
+        for (int b = 0; b < KIND_NAMES.length; b++) if ((mask & (1 << b)) != 0) k.add(KIND_NAMES[b]);
+        return k;
+    }
+
+    /** Direct upstream ids (sources, models, users) of a node; empty if the id is not in the graph. */
+    public List<String> parents(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = ids.get(id);
+            if (node == null || inSize[node] == 0) return List.of();
+            List<String> p = new ArrayList<>(inSize[node]);
+            for (int i = 0; i < inSize[node]; i++) p.add(names[in[node][i]]);
+            return p;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try { return ids.containsKey(id); } finally { lock.readLock().unlock(); }
+    }
+
+    public Map<String, Long> stats() {
+        lock.readLock().lock();
+        try { return Map.of("nodes", (long) nodes, "edges", edges, "records", (long) edgesByRecord.size()); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /** Open-addressing long -> int counter map (no boxing), used for edge reference counts and visited sets. */
+    private static final class LongIntMap {
+        private static final long FREE = Long.MIN_VALUE;
+        private long[] keys = newKeys(16);
+        private int[] values = new int[16];
+        private int size;
+
+        private static long[] newKeys(int n) { long[] k = new long[n]; Arrays.fill(k, FREE); return k; }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int i = (int) (mix(key) & mask);
+            while (keys[i] != FREE && keys[i] != key) i = (i + 1) & mask;
+            return i;
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 29);
+        }
+
+        int increment(long key) {
+            int i = slot(key);
+            if (keys[i] == FREE) {
+                keys[i] = key;
+                if (++size * 4 > keys.length * 3) { values[i] = 1; rehash(keys.length * 2); return 1; }
+            }
+            return ++values[i];
+        }
+
+        int decrement(long key) {
+            int i = slot(key);
+            if (keys[i] == FREE) return 0;
+            if (--values[i] > 0) return values[i];
+            delete(i);
+            return 0;
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        private void delete(int i) {
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == FREE) break;
+                int home = (int) (mix(keys[j]) & mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = FREE;
+            values[i] = 0;
+            size--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(capacity);
+            values = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == FREE) continue;
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package marketops.catalog.repository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process cache of compiled user permissions for the authorize() hot path.
+ * "ACTION:TARGET" strings are compiled once per user into action bitmasks (one for ALL, one per
+ * specific target), so a check is a map lookup and a bit test instead of a DB round trip and string
+ * concatenation. Only the KNOWN actions get bits; grants accept any name, and other actions fall back to a
+ * set of "ACTION:TARGET" strings, so a grant can never grow state shared beyond its user's entry.
+ * Entries expire after a TTL and are dropped immediately by invalidate() when a grant commits; a load
+ * that raced with an invalidation is not cached.
+ */
+public class PermissionCache {
+
+    public static final String ALL = "ALL";
+
+    /** Actions with a bit of their own, in bit order; at most 64. */
+    public static final List<String> KNOWN = List.of("ADMIN", "READ", "WRITE", "DELETE", "EXECUTE", "GRANT");
+
+    private static final Map<String, Integer> ACTIONS = new HashMap<>();
+    static {
+        for (String name : KNOWN) ACTIONS.put(name, ACTIONS.size());
+    }
+
+    /** Bit position of a known action, or -1 for any other name. */
+    public static int action(String name) {
+        Integer id = ACTIONS.get(name.toUpperCase());
+        return id == null ? -1 : id;
+    }
+
+    /** Compiled permission set of one user. */
+    public static class Permissions {
+        public static final Permissions NONE = new Permissions(Collections.emptySet());
+
+        private final long onAll;
+        private final Map<String, Long> onTarget;
+        private final Set<String> other; // grants of actions that are not KNOWN, as "ACTION:TARGET"
+
+        public Permissions(Collection<String> granted) {
+            long all = 0;
+            Map<String, Long> targets = new HashMap<>();
+            Set<String> rest = new HashSet<>();
+            for (String permission : granted) {
+                int sep = permission.indexOf(':');
+                if (sep < 0) continue;
+                String name = permission.substring(0, sep).toUpperCase();
+                String target = permission.substring(sep + 1).toUpperCase();
+                int action = action(name);
+                if (action < 0) { rest.add(name + ":" + target); continue; }
+                long bit = 1L << action;
+                if (target.equals(ALL)) all |= bit; else targets.merge(target, bit, (a, b) -> a | b);
+            }
+            this.onAll = all;
+            this.onTarget = targets.isEmpty() ? Collections.emptyMap() : targets;
+            this.other = rest.isEmpty() ? Collections.emptySet() : rest;
+        }
+
+        /** Granted on ALL, or on this specific (upper-cased) target; action is a KNOWN bit. */
+        public boolean allows(int action, String target) {
+            long bit = 1L << action;
+            if ((onAll & bit) != 0) return true;
+            Long mask = target == null ? null : onTarget.get(target);
+            return mask != null && (mask & bit) != 0;
+        }
+
+        public boolean allows(int action) { return (onAll & (1L << action)) != 0; }
+
+        /** Same check by name, for actions that may not be KNOWN. */
+        public boolean allows(String action, String target) {
+            int id = action(action);
+            if (id >= 0) return allows(id, target);
+            String name = action.toUpperCase();
+            return other.contains(name + ":" + ALL) || (target != null && other.contains(name + ":" + target));
+        }
+
+        public boolean allows(String action) { return allows(action, null); }
+    }
+
+    private static final class Entry {
+        final Permissions permissions;
+        final long expiresAt;
+        Entry(Permissions permissions, long expiresAt) { this.permissions = permissions; this.expiresAt = expiresAt; }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final int maxUsers;
+    private final long ttlNanos;
+    private final Function<String, Collection<String>> loader;
+
+    /** loader returns the raw "ACTION:TARGET" grants of a user, or null if the user does not exist. */
+    public PermissionCache(int maxUsers, long ttlMillis, Function<String, Collection<String>> loader) {
+        this.maxUsers = maxUsers;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.loader = loader;
+    }
+
+    public Permissions get(String username) {
+        String key = username.toLowerCase();
+        long now = System.nanoTime();
+        Entry e = entries.get(key);
+        if (e != null && now - e.expiresAt < 0) return e.permissions;
+
+        long gen = generation.get();
+        Collection<String> granted = loader.apply(key);
+        Permissions permissions = granted == null ? Permissions.NONE : new Permissions(granted);
+        if (entries.size() >= maxUsers) evict(now);
+        Entry fresh = new Entry(permissions, now + ttlNanos);
+        entries.put(key, fresh);
+        if (gen != generation.get()) entries.remove(key, fresh); // an invalidation overlapped the load
+        return permissions;
+    }
+
+    /** Call after a grant commits; also fences off loads that started before it. */
+    public void invalidate(String username) {
+        generation.incrementAndGet();
+        entries.remove(username.toLowerCase());
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() { return entries.size(); }
+
+    // Expired entries go first; if the cache is still full, drop arbitrary ones down to 3/4 of the bound
+    private void evict(long now) {
+        entries.values().removeIf(e -> now - e.expiresAt >= 0);
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > maxUsers * 3 / 4 && it.hasNext()) { it.next(); it.remove(); }
+    }
+}
@@ -0,0 +1,316 @@
+package marketops.catalog.repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Columnar price/demand history for a single MarketAsset.
+ * Ticks live in fixed-size primitive chunks (timestamp, price, demand = 24 bytes per tick); the first one
+ * starts small and doubles as it fills, so short histories stay small. Columns are append-only and ordered by timestamp so range lookups are a binary search.
+ * Full chunks whose ticks are all older than a cutoff can be sealed into ColdHistory blocks. Scans stream
+ * sealed chunks straight off the block; random access decodes the chunk and keeps only the last one decoded,
+ * so anything reading many ticks should scan with forEach rather than index.
+ * One writer at a time appends or seals under the instance lock; readers never lock.
+ * On the wire it keeps the old shape: [{"price":..,"demand":..,"timestamp":..}, ...].
+ */
+@JsonSerialize(using = PriceHistory.Serializer.class)
+@JsonDeserialize(using = PriceHistory.Deserializer.class)
+public class PriceHistory {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int FIRST_CHUNK = 16;
+
+    private static final class Chunk {
+        final long[] timestamps;
+        final double[] prices;
+        final double[] demands;
+        final byte[] packed; // sealed chunks: the ticks as a cold block, no columns
+        final long first, last;
+
+        Chunk() { this(CHUNK_SIZE); }
+
+        Chunk(int capacity) {
+            timestamps = new long[capacity];
+            prices = new double[capacity];
+            demands = new double[capacity];
+            packed = null;
+            first = last = 0;
+        }
+
+        Chunk(byte[] packed, long first, long last) {
+            timestamps = null;
+            prices = demands = null;
+            this.packed = packed;
+            this.first = first;
+            this.last = last;
+        }
+
+        // Twice the capacity, up to CHUNK_SIZE, with the ticks copied over
+        Chunk(Chunk open) {
+            int capacity = Math.min(CHUNK_SIZE, open.timestamps.length * 2);
+            timestamps = Arrays.copyOf(open.timestamps, capacity);
+            prices = Arrays.copyOf(open.prices, capacity);
+            demands = Arrays.copyOf(open.demands, capacity);
+            packed = null;
+            first = last = 0;
+        }
+    }
+
+    private record Decoded(Chunk sealed, Chunk columns) {}
+
+    // Writer publishes chunks before size, readers read size before chunks.
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+    private volatile Decoded decoded;
+
+    @FunctionalInterface
+    public interface TickConsumer { void accept(long timestamp, double price, double demand); }
+
+    /** Boxed read-only view of one tick, only materialized when a caller asks for it. */
+    public static class Tick {
+        public final long timestamp;
+        public final Double price;
+        public final Double demand;
+        public Tick(long timestamp, double price, double demand) {
+            this.timestamp = timestamp;
+            this.price = Double.isNaN(price) ? null : price;
+            this.demand = Double.isNaN(demand) ? null : demand;
+        }
+    }
+
+    // --- WRITE PATH ---
+
+    public int append(Double price, Double demand) { return append(System.currentTimeMillis(), price, demand); }
+
+    /**
+     * Missing values are stored as NaN. Timestamps older than the last tick are clamped so the column stays sorted.
+     * Returns the index of the new tick.
+     */
+    public synchronized int append(long timestamp, Double price, Double demand) {
+        put(timestamp, price == null ? Double.NaN : price, demand == null ? Double.NaN : demand);
+        return size - 1;
+    }
+
+    /** Bulk form of append() for columns that are already primitive (NaN = missing), e.g. from a snapshot. */
+    public synchronized void appendAll(long[] timestamps, double[] prices, double[] demands, int count) {
+        for (int i = 0; i < count; i++) put(timestamps[i], prices[i], demands[i]);
+    }
+
+    private void put(long timestamp, double price, double demand) {
+        int n = size;
+        Chunk[] cs = chunks;
+        if (n > 0) timestamp = Math.max(timestamp, lastTimestamp(cs, (n - 1) >>> CHUNK_BITS, n));
+        int c = n >>> CHUNK_BITS; // chunks before c are full, so only they are ever sealed
+        if (c == cs.length) {
+            cs = Arrays.copyOf(cs, c + 1);
+            cs[c] = new Chunk(c == 0 ? FIRST_CHUNK : CHUNK_SIZE);
+            chunks = cs;
+        }
+        int i = n & CHUNK_MASK;
+        // Only a growing first chunk can be short; readers see the copy once they see the new size
+        if (i == cs[c].timestamps.length) cs[c] = new Chunk(cs[c]);
+        Chunk chunk = cs[c];
+        chunk.timestamps[i] = timestamp;
+        chunk.prices[i] = price;
+        chunk.demands[i] = demand;
+        size = n + 1;
+    }
+
+    /**
+     * Packs full chunks whose ticks are all older than before into cold blocks. Readers holding the
+     * old chunk array keep reading the columns. Returns the ticks packed.
+     */
+    public synchronized int seal(long before) {
+        Chunk[] cs = chunks, sealed = null;
+        int ticks = 0;
+        long bytes = 0;
+        for (int c = 0, full = size >>> CHUNK_BITS; c < full; c++) {
+            Chunk chunk = cs[c];
+            if (chunk.packed != null) continue;
+            if (chunk.timestamps[CHUNK_MASK] >= before) break;
+            if (sealed == null) sealed = cs.clone();
+            byte[] packed = ColdHistory.encode(null, chunk.timestamps, chunk.prices, chunk.demands, 0, CHUNK_SIZE);
+            sealed[c] = new Chunk(packed, chunk.timestamps[0], chunk.timestamps[CHUNK_MASK]);
+            ticks += CHUNK_SIZE;
+            bytes += packed.length;
+        }
+        if (sealed != null) {
+            chunks = sealed;
+            ColdHistory.archived(ticks, bytes);
+        }
+        return ticks;
+    }
+
+    // --- READ PATH ---
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Whether a tick replayed from the log is already here, as the first ticks after a snapshot may be: by position
+     * if the record has one (index >= 0); older records without one count if they are not after the last tick.
+     */
+    public boolean holds(int index, long timestamp, double price, double demand) {
+        if (index >= 0) return index < size;
+        int last = size - 1;
+        return last >= 0 && (timestamp < timestampAt(last)
+                || (timestamp == timestampAt(last) && Double.compare(price, priceAt(last)) == 0 && Double.compare(demand, demandAt(last)) == 0));
+    }
+
+    public long timestampAt(int index) { return chunk(index).timestamps[index & CHUNK_MASK]; }
+    public double priceAt(int index) { return chunk(index).prices[index & CHUNK_MASK]; }
+    public double demandAt(int index) { return chunk(index).demands[index & CHUNK_MASK]; }
+
+    private Chunk chunk(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Tick " + index + " of " + size);
+        return columns(chunks[index >>> CHUNK_BITS]);
+    }
+
+    // The columns of a chunk, decoding a sealed one
+    private Chunk columns(Chunk chunk) {
+        if (chunk.packed == null) return chunk;
+        Decoded d = decoded;
+        if (d != null && d.sealed == chunk) return d.columns;
+        Chunk columns = new Chunk();
+        ColdHistory.decode(chunk.packed, null, columns.timestamps, columns.prices, columns.demands);
+        decoded = new Decoded(chunk, columns);
+        return columns;
+    }
+
+    private static long lastTimestamp(Chunk[] cs, int c, int size) {
+        Chunk chunk = cs[c];
+        return chunk.packed != null ? chunk.last : chunk.timestamps[Math.min(CHUNK_SIZE, size - (c << CHUNK_BITS)) - 1];
+    }
+
+    /** First index whose timestamp is >= the given one (size() if none). */
+    public int lowerBound(long timestamp) { return search(timestamp, false); }
+
+    /** First index whose timestamp is > the given one (size() if none). */
+    public int upperBound(long timestamp) { return search(timestamp, true); }
+
+    // First the chunk the bound falls in, by last timestamps (known without decoding), then the tick inside it
+    private int search(long timestamp, boolean inclusive) {
+        int n = size;
+        Chunk[] cs = chunks;
+        int lo = 0, hi = (n + CHUNK_MASK) >>> CHUNK_BITS;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = lastTimestamp(cs, mid, n);
+            if (t < timestamp || (inclusive && t == timestamp)) lo = mid + 1; else hi = mid;
+        }
+        if (lo << CHUNK_BITS >= n) return n;
+        long[] timestamps = columns(cs[lo]).timestamps;
+        int base = lo << CHUNK_BITS, i = 0, end = Math.min(CHUNK_SIZE, n - base);
+        while (i < end) {
+            int mid = (i + end) >>> 1;
+            long t = timestamps[mid];
+            if (t < timestamp || (inclusive && t == timestamp)) i = mid + 1; else end = mid;
+        }
+        return base + i;
+    }
+
+    /** Visits ticks with from <= timestamp <= to in order, straight off the primitive columns. */
+    public void forEach(long from, long to, TickConsumer consumer) { forEachIndex(lowerBound(from), upperBound(to), consumer); }
+
+    /** Visits ticks [start, end) in order; end is at most a size() read earlier, so the count is fixed. */
+    public void forEachIndex(int start, int end, TickConsumer consumer) {
+        if (start < 0 || end > size) throw new IndexOutOfBoundsException("Ticks " + start + ".." + end + " of " + size);
+        Chunk[] cs = chunks;
+        for (int i = start; i < end; ) {
+            int c = i >>> CHUNK_BITS, stop = Math.min(end, (c + 1) << CHUNK_BITS);
+            if (cs[c].packed != null && i == c << CHUNK_BITS && stop == (c + 1) << CHUNK_BITS) {
+                ColdHistory.decode(cs[c].packed, (seq, timestamp, price, demand) -> consumer.accept(timestamp, price, demand));
+                i = stop;
+                continue;
+            }
+            Chunk chunk = columns(cs[c]);
+            for (; i < stop; i++) {
+                int j = i & CHUNK_MASK;
+                consumer.accept(chunk.timestamps[j], chunk.prices[j], chunk.demands[j]);
+            }
+        }
+    }
+
+    public void forEach(TickConsumer consumer) { forEach(Long.MIN_VALUE, Long.MAX_VALUE, consumer); }
+
+    /** List view of ticks with from <= timestamp <= to; elements are boxed lazily on get(). */
+    public List<Tick> range(long from, long to) {
+        int start = lowerBound(from);
+        int end = Math.max(start, upperBound(to));
+        return new AbstractList<Tick>() {
+            @Override public Tick get(int index) {
+                Objects.checkIndex(index, end - start);
+                int i = start + index;
+                return new Tick(timestampAt(i), priceAt(i), demandAt(i));
+            }
+            @Override public int size() { return end - start; }
+        };
+    }
+
+    public List<Tick> view() { return range(Long.MIN_VALUE, Long.MAX_VALUE); }
+
+    // --- JSON ---
+
+    public static class Serializer extends JsonSerializer<PriceHistory> {
+        @Override
+        public boolean isEmpty(SerializerProvider provider, PriceHistory history) { return history.isEmpty(); }
+
+        @Override
+        public void serialize(PriceHistory history, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray();
+            history.forEach((timestamp, price, demand) -> {
+                try {
+                    gen.writeStartObject();
+                    if (!Double.isNaN(price)) gen.writeNumberField("price", price);
+                    if (!Double.isNaN(demand)) gen.writeNumberField("demand", demand);
+                    gen.writeNumberField("timestamp", timestamp);
+                    gen.writeEndObject();
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+            gen.writeEndArray();
+        }
+    }
+
+    public static class Deserializer extends JsonDeserializer<PriceHistory> {
+        @Override
+        public PriceHistory deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            List<Tick> ticks = new ArrayList<>();
+            if (p.currentToken() != JsonToken.START_ARRAY) return (PriceHistory) ctxt.handleUnexpectedToken(PriceHistory.class, p);
+            for (JsonToken t = p.nextToken(); t != JsonToken.END_ARRAY; t = p.nextToken()) {
+                if (t != JsonToken.START_OBJECT) return (PriceHistory) ctxt.handleUnexpectedToken(PriceHistory.class, p); // e.g. [1,2]
+                double price = Double.NaN, demand = Double.NaN;
+                long timestamp = System.currentTimeMillis();
+                while (p.nextToken() != JsonToken.END_OBJECT) {
+                    String field = p.currentName();
+                    JsonToken value = p.nextToken();
+                    if (value == JsonToken.VALUE_NULL) continue;
+                    switch (field) {
+                        case "price": price = p.getDoubleValue(); break;
+                        case "demand": demand = p.getDoubleValue(); break;
+                        case "timestamp": timestamp = p.getLongValue(); break;
+                        default: p.skipChildren();
+                    }
+                }
+                ticks.add(new Tick(timestamp, price, demand));
+            }
+            // Client supplied history may be unordered; the columns must not be.
+            ticks.sort(Comparator.comparingLong(t -> t.timestamp));
+            PriceHistory history = new PriceHistory();
+            for (Tick t : ticks) history.append(t.timestamp, t.price, t.demand);
+            return history;
+        }
+    }
+}
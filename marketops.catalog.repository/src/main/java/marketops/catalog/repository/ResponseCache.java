@@ -0,0 +1,134 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized GET /catalog/{path}/{id} responses. Every response carries a strong ETag (a hash of its
+ * bytes) and a matching If-None-Match gets 304, so an unchanged object is not sent again.
+ * For the types given to the constructor the bytes are also kept per id, so a hit opens no session and
+ * serializes nothing. Each cached type has a version that writers bump after they commit; an entry is
+ * only served while its version is current, so a read that raced a write cannot put the old bytes back.
+ * Writes made by other processes are not seen, which is what marketops.cache.ttlMs bounds (0 turns the
+ * cache off and leaves only the ETags); marketops.cache.maxEntries caps the entries per type.
+ * Writers check If-Match against the same ETag (see ifMatch), so a client updates only what it last read.
+ */
+public final class ResponseCache {
+
+    public static final long TTL_MS = Long.getLong("marketops.cache.ttlMs", 60_000);
+    public static final int MAX_ENTRIES = Integer.getInteger("marketops.cache.maxEntries", 10_000);
+
+    /** Loads and serializes one object; null when there is none. */
+    @FunctionalInterface
+    public interface Loader { byte[] load() throws Exception; }
+
+    private record Entry(long version, long expiresAt, byte[] body, String etag) {}
+
+    private static final class Region {
+        final boolean cached;
+        final AtomicLong version = new AtomicLong();
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        final LongAdder hits = new LongAdder(), misses = new LongAdder(), notModified = new LongAdder();
+
+        Region(boolean cached) { this.cached = cached; }
+    }
+
+    private final Map<Class<?>, Region> regions = new ConcurrentHashMap<>();
+
+    public ResponseCache(Class<?>... cachedTypes) {
+        for (Class<?> type : Set.of(cachedTypes)) regions.put(type, new Region(TTL_MS > 0));
+    }
+
+    public void serve(Context ctx, Class<?> type, String id, Loader loader) throws Exception {
+        Region region = regions.computeIfAbsent(type, t -> new Region(false));
+        long now = System.currentTimeMillis();
+        Entry entry = region.cached ? region.entries.get(id) : null;
+        if (entry != null && entry.version == region.version.get() && now < entry.expiresAt) {
+            region.hits.increment();
+        } else {
+            if (region.cached) region.misses.increment();
+            long version = region.version.get(); // read before loading: a write committing meanwhile leaves this entry stale
+            byte[] body = loader.load();
+            if (body == null) { ctx.status(404); return; }
+            entry = new Entry(version, now + TTL_MS, body, etag(body));
+            if (region.cached) put(region, id, entry);
+        }
+        ctx.header(Header.ETAG, entry.etag).header(Header.CACHE_CONTROL, "no-cache");
+        if (matches(ctx.header(Header.IF_NONE_MATCH), entry.etag)) {
+            region.notModified.increment();
+            ctx.status(HttpStatus.NOT_MODIFIED);
+            return;
+        }
+        ctx.contentType(ContentType.APPLICATION_JSON).result(entry.body);
+    }
+
+    /** Call after a write of this type commits. */
+    public void invalidate(Class<?> type) {
+        Region region = regions.get(type);
+        if (region == null || !region.cached) return;
+        region.version.incrementAndGet();
+        region.entries.clear();
+    }
+
+    /** Lookup and 304 counters, exported at /metrics. */
+    public void metrics() {
+        CatalogMetrics.counter("marketops_response_cache_lookups_total", "GET-by-id cache lookups by type and result", new String[] { "type", "result" },
+                sink -> regions.forEach((type, r) -> {
+                    if (!r.cached) return;
+                    sink.sample(r.hits.sum(), type.getSimpleName(), "hit");
+                    sink.sample(r.misses.sum(), type.getSimpleName(), "miss");
+                }));
+        CatalogMetrics.counter("marketops_response_not_modified_total", "GET-by-id requests answered 304 by If-None-Match", new String[] { "type" },
+                sink -> regions.forEach((type, r) -> sink.sample(r.notModified.sum(), type.getSimpleName())));
+    }
+
+    private static void put(Region region, String id, Entry entry) {
+        if (region.entries.size() >= MAX_ENTRIES && !region.entries.containsKey(id)) {
+            // No recency bookkeeping on the hit path; full means dropping whichever entry iterates first
+            Iterator<String> it = region.entries.keySet().iterator();
+            if (it.hasNext()) { it.next(); it.remove(); }
+        }
+        region.entries.put(id, entry);
+    }
+
+    /** If-Match holds when absent, or when it names the current ETag ("*": any existing object); compared strongly. */
+    static boolean ifMatch(String ifMatch, String etag) {
+        if (ifMatch == null) return true;
+        if (etag == null) return false;
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2); // If-None-Match compares weakly
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    static String etag(byte[] body) {
+        try {
+            return '"' + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body), 0, 16) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.*;
+
+/**
+ * Streaming price/demand statistics per MarketAsset, kept up to date tick by tick.
+ * A series is seeded from the asset's stored history the first time someone asks for it and from
+ * then on updated on every history append, so reads never rescan history. Each factor keeps an
+ * all-time summary (Welford mean/variance, min/max, t-digest quantiles), a time-decayed EWMA, and
+ * mergeable per-minute (last hour) and per-hour (last week) buckets that window queries fold together.
+ * Windows end at the newest tick of the series. Assets nobody has asked about cost nothing.
+ */
+public class RollingStats {
+
+    public static final String[] FACTORS = { "price", "demand" };
+    private static final double COMPRESSION = 100;      // all-time digest
+    private static final double BUCKET_COMPRESSION = 25; // per-bucket digests
+    private static final long EWMA_HALF_LIFE_MS = 5 * 60_000L;
+    private static final long MINUTE = 60_000L, HOUR = 3_600_000L;
+    private static final int MINUTES = 60, HOURS = 7 * 24;
+    private static final double[] QUANTILES = { 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99 };
+
+    /** Replays the stored ticks of an asset into a fresh series; false if the asset is unknown. */
+    @FunctionalInterface
+    public interface Seeder { boolean seed(String assetId, TickSink sink); }
+
+    @FunctionalInterface
+    public interface TickSink { void accept(long seq, long timestamp, double price, double demand); }
+
+    /** Mergeable summary of a stream of values: Welford moments, extremes and a digest. Not thread-safe. */
+    static final class Summary {
+        long count;
+        double mean, m2;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        TDigest digest;
+        private final double compression;
+
+        Summary(double compression) { this.compression = compression; }
+
+        void add(double x) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+            if (x < min) min = x;
+            if (x > max) max = x;
+            if (digest == null) digest = new TDigest(compression);
+            digest.add(x);
+        }
+
+        /** Adds the first n values of an array; two passes over the batch, then one combine. */
+        void addAll(double[] xs, int n) {
+            if (n == 0) return;
+            double sum = 0;
+            for (int i = 0; i < n; i++) sum += xs[i];
+            double batchMean = sum / n, batchM2 = 0, lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double d = xs[i] - batchMean;
+                batchM2 += d * d;
+                lo = Math.min(lo, xs[i]);
+                hi = Math.max(hi, xs[i]);
+            }
+            combine(n, batchMean, batchM2, lo, hi);
+            if (digest == null) digest = new TDigest(compression);
+            digest.addAll(xs, n);
+        }
+
+        void merge(Summary other) {
+            if (other.count == 0) return;
+            combine(other.count, other.mean, other.m2, other.min, other.max);
+            if (digest == null) digest = new TDigest(compression);
+            digest.merge(other.digest);
+        }
+
+        // Chan et al. parallel combination of the moments
+        private void combine(long otherCount, double otherMean, double otherM2, double otherMin, double otherMax) {
+            long n = count + otherCount;
+            double delta = otherMean - mean;
+            mean += delta * otherCount / n;
+            m2 += otherM2 + delta * delta * ((double) count * otherCount / n);
+            count = n;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+        }
+
+        void reset() {
+            count = 0;
+            mean = m2 = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            digest = null;
+        }
+
+        /** Same keys a DistributionRegistry.statistics map would carry. */
+        Map<String, Double> toMap() {
+            Map<String, Double> m = new LinkedHashMap<>();
+            m.put("count", (double) count);
+            if (count == 0) return m;
+            m.put("mean", mean);
+            m.put("variance", count > 1 ? m2 / (count - 1) : 0.0);
+            m.put("stddev", count > 1 ? Math.sqrt(m2 / (count - 1)) : 0.0);
+            m.put("min", min);
+            m.put("max", max);
+            for (double q : QUANTILES) m.put("p" + Math.round(q * 100), digest.quantile(q));
+            return m;
+        }
+    }
+
+    /** Fixed ring of time buckets; a tick older than the ring only reaches the all-time summary. */
+    private static final class Buckets {
+        final long width;
+        final long[] keys;
+        final Summary[] summaries;
+
+        Buckets(long width, int slots) {
+            this.width = width;
+            this.keys = new long[slots];
+            Arrays.fill(keys, Long.MIN_VALUE);
+            this.summaries = new Summary[slots];
+        }
+
+        void add(long timestamp, double x) {
+            long key = Math.floorDiv(timestamp, width);
+            int slot = (int) Math.floorMod(key, (long) keys.length);
+            if (keys[slot] > key) return;
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                if (summaries[slot] == null) summaries[slot] = new Summary(BUCKET_COMPRESSION); else summaries[slot].reset();
+            }
+            summaries[slot].add(x);
+        }
+
+        boolean covers(long span) { return span <= width * keys.length; }
+
+        void mergeInto(Summary out, long end, long span) {
+            long last = Math.floorDiv(end, width), first = last - (span + width - 1) / width + 1;
+            for (int i = 0; i < keys.length; i++) if (keys[i] >= first && keys[i] <= last) out.merge(summaries[i]);
+        }
+    }
+
+    private static final class Factor {
+        final Summary all = new Summary(COMPRESSION);
+        final Buckets minutes = new Buckets(MINUTE, MINUTES);
+        final Buckets hours = new Buckets(HOUR, HOURS);
+        double ewma = Double.NaN;
+        long ewmaAt;
+
+        void add(long timestamp, double x) {
+            if (Double.isNaN(x)) return;
+            all.add(x);
+            minutes.add(timestamp, x);
+            hours.add(timestamp, x);
+            if (Double.isNaN(ewma)) ewma = x;
+            else {
+                double alpha = 1 - Math.pow(0.5, Math.max(timestamp - ewmaAt, 0) / (double) EWMA_HALF_LIFE_MS);
+                ewma += alpha * (x - ewma);
+            }
+            ewmaAt = Math.max(ewmaAt, timestamp);
+        }
+    }
+
+    private static final class Series extends SeededSeries.Series {
+        final Factor[] factors = { new Factor(), new Factor() };
+        long latest = Long.MIN_VALUE;
+
+        @Override
+        protected void accept(long timestamp, double price, double demand) {
+            factors[0].add(timestamp, price);
+            factors[1].add(timestamp, demand);
+            latest = Math.max(latest, timestamp);
+        }
+    }
+
+    private final SeededSeries<Series> series;
+
+    public RollingStats(Seeder seeder) { this.series = new SeededSeries<>(seeder, Series::new); }
+
+    /** Drops a series, e.g. when the asset's history was replaced wholesale; the next query reseeds it. */
+    public void invalidate(String assetId) { series.invalidate(assetId); }
+
+    /** Called after every history append (once it is committed); a no-op for assets nobody watches. */
+    public void update(String assetId, long seq, long timestamp, double price, double demand) { series.update(assetId, seq, timestamp, price, demand); }
+
+    /**
+     * Statistics per factor over the last windowMillis of the series (0 = all time): the summary map
+     * plus "ewma". Null if the asset is unknown.
+     */
+    public Map<String, Object> query(String assetId, long windowMillis) {
+        Series s = series.get(assetId);
+        if (s == null) return null;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("assetId", assetId);
+        synchronized (s) {
+            String resolution = windowMillis <= 0 ? "all" : s.factors[0].minutes.covers(windowMillis) ? "minute"
+                    : s.factors[0].hours.covers(windowMillis) ? "hour" : "all";
+            result.put("window", windowMillis <= 0 ? "all" : windowMillis / 1000 + "s");
+            result.put("resolution", resolution);
+            if (s.latest != Long.MIN_VALUE) result.put("latest", s.latest);
+            for (int f = 0; f < FACTORS.length; f++) {
+                Factor factor = s.factors[f];
+                Summary summary;
+                if (resolution.equals("all")) summary = factor.all;
+                else {
+                    summary = new Summary(BUCKET_COMPRESSION);
+                    (resolution.equals("minute") ? factor.minutes : factor.hours).mergeInto(summary, s.latest, windowMillis);
+                }
+                Map<String, Object> stats = new LinkedHashMap<>(summary.toMap());
+                if (!Double.isNaN(factor.ewma)) stats.put("ewma", factor.ewma);
+                result.put(FACTORS[f], stats);
+            }
+        }
+        return result;
+    }
+
+    /** GET /catalog/market-assets/{id}/stats?window=15m (s, m, h, d; omitted = all time) */
+    public void serve(Context ctx) { serve(ctx, ctx.pathParam("id")); }
+
+    public void serve(Context ctx, String assetId) {
+        Map<String, Object> stats = query(assetId, window(ctx.queryParam("window")));
+        if (stats != null) ctx.json(stats); else ctx.status(404).result("Not Found");
+    }
+
+    static long window(String value) {
+        if (value == null || value.isBlank() || value.equalsIgnoreCase("all")) return 0;
+        try {
+            long n = Long.parseLong(value.substring(0, value.length() - 1));
+            switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+                case 's': return n * 1000;
+                case 'm': return n * MINUTE;
+                case 'h': return n * HOUR;
+                case 'd': return n * 24 * HOUR;
+                default: break;
+            }
+        } catch (NumberFormatException e) { /* fall through */ }
+        throw new BadRequestResponse("Invalid window: " + value + " (e.g. 30s, 15m, 6h, 7d, all)");
+    }
+}
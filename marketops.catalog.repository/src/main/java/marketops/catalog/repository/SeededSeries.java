@@ -0,0 +1,61 @@
+package marketops.catalog.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-asset tick state for RollingStats and Candles: get() seeds a series from the stored history on first
+ * use and update() feeds it every append after that. An update whose seq is at or below the highest seeded
+ * one was already counted by the seed and is skipped.
+ */
+public final class SeededSeries<S extends SeededSeries.Series> {
+
+    /** State of one asset; accept runs under the series' lock, so readers synchronize on it too. */
+    public abstract static class Series {
+        long seededThrough = -1;
+
+        protected abstract void accept(long timestamp, double price, double demand);
+
+        synchronized void add(long seq, long timestamp, double price, double demand) {
+            if (seq <= seededThrough) return; // already counted by the seed
+            accept(timestamp, price, demand);
+        }
+    }
+
+    private final Map<String, S> series = new ConcurrentHashMap<>();
+    private final RollingStats.Seeder seeder;
+    private final Supplier<S> factory;
+
+    public SeededSeries(RollingStats.Seeder seeder, Supplier<S> factory) {
+        this.seeder = seeder;
+        this.factory = factory;
+    }
+
+    /** Drops a series, e.g. when the asset's history was replaced wholesale; the next get reseeds it. */
+    public void invalidate(String assetId) { series.remove(assetId); }
+
+    /** Called after every history append (once it is committed); a no-op for assets nobody watches. */
+    public void update(String assetId, long seq, long timestamp, double price, double demand) {
+        S s = series.get(assetId);
+        if (s != null) s.add(seq, timestamp, price, demand);
+    }
+
+    /** The asset's series, seeded on first use; null if the asset is unknown. */
+    public S get(String assetId) {
+        S s = series.get(assetId);
+        if (s != null) return s;
+        S fresh = factory.get();
+        synchronized (fresh) {
+            s = series.putIfAbsent(assetId, fresh);
+            if (s != null) return s;
+            // Live updates already see the series and queue on its lock while the seed runs
+            boolean known = seeder.seed(assetId, (seq, timestamp, price, demand) -> {
+                fresh.accept(timestamp, price, demand);
+                fresh.seededThrough = Math.max(fresh.seededThrough, seq);
+            });
+            if (!known) { series.remove(assetId, fresh); return null; }
+            return fresh;
+        }
+    }
+}
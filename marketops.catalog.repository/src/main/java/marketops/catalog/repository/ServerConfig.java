@@ -0,0 +1,164 @@
+package marketops.catalog.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.hibernate.SessionFactory;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.exception.JDBCConnectionException;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request execution and connection pooling for the database-backed servers (marketops3/4).
+ * -Dmarketops.threads=virtual runs every handler on its own virtual thread (JDK 21+; older runtimes
+ * fall back to platform threads); the default is a bounded platform pool of marketops.threads.max.
+ * Either way JDBC goes through a HikariCP pool of marketops.pool.size connections, which is what
+ * actually bounds database concurrency: a request that waits longer than marketops.pool.timeoutMs
+ * for a connection gets 503 + Retry-After instead of queueing without limit.
+ * Any hibernate.hikari.* property (e.g. -Dhibernate.hikari.maximumPoolSize=) overrides these defaults.
+ */
+public final class ServerConfig {
+
+    public static final boolean VIRTUAL = "virtual".equalsIgnoreCase(System.getProperty("marketops.threads", "platform"));
+    public static final int MAX_THREADS = Integer.getInteger("marketops.threads.max", 200);
+    public static final int POOL_SIZE = Integer.getInteger("marketops.pool.size", 20);
+    public static final long POOL_TIMEOUT_MS = Long.getLong("marketops.pool.timeoutMs", 5_000);
+
+    private ServerConfig() {}
+
+    /** Javalin.create(ServerConfig::server) */
+    public static void server(JavalinConfig config) {
+        if (VIRTUAL) {
+            config.useVirtualThreads = true;
+            if (Runtime.version().feature() < 21) System.err.println(">>> marketops.threads=virtual needs JDK 21+; using platform threads");
+        } else {
+            QueuedThreadPool pool = new QueuedThreadPool(MAX_THREADS, Math.min(8, MAX_THREADS), 60_000);
+            pool.setName("JettyServerThreadPool");
+            config.jetty.threadPool = pool;
+        }
+    }
+
+    /** Hibernate settings for a HikariCP pool; call before applying overrides so they win. */
+    public static void pool(Configuration cfg, String name) {
+        cfg.setProperty("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        cfg.setProperty("hibernate.hikari.poolName", name);
+        cfg.setProperty("hibernate.hikari.maximumPoolSize", String.valueOf(POOL_SIZE));
+        cfg.setProperty("hibernate.hikari.minimumIdle", String.valueOf(POOL_SIZE));
+        cfg.setProperty("hibernate.hikari.connectionTimeout", String.valueOf(POOL_TIMEOUT_MS));
+        cfg.setProperty("hibernate.hikari.registerMbeans", "true");
+        cfg.setProperty("hibernate.hikari.metricsTrackerFactory", PoolMetrics.class.getName()); // Hikari instantiates it by name
+    }
+
+    /**
+     * market_history ids come from market_history_seq, shared by marketops3 and marketops4. Tables created
+     * under the old IDENTITY mapping already hold ids, so on Postgres the sequence is moved past them once;
+     * each server does it at startup, whichever runs first.
+     */
+    public static void alignHistorySequence(SessionFactory sessionFactory) {
+        if (!(sessionFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect() instanceof PostgreSQLDialect)) return;
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            session.createNativeQuery("select setval('market_history_seq', (select coalesce(max(internalId), 0) + 50 from market_history))"
+                    + " where (select last_value from market_history_seq) < (select coalesce(max(internalId), 0) from market_history)", Object.class)
+                    .getResultList();
+            tx.commit();
+        }
+    }
+
+    /** GET /admin/pool (also exported as metrics), and 503 when no connection could be had in time. */
+    public static void routes(Javalin app, SessionFactory sessionFactory) {
+        app.get("/admin/pool", ctx -> ctx.json(stats(sessionFactory)));
+        CatalogMetrics.gauge("marketops_db_pool_connections", "Pool connections by state", new String[] { "state" }, sink -> {
+            Map<String, Object> stats = stats(sessionFactory);
+            for (String state : new String[] { "active", "idle", "waiting" }) if (stats.get(state) instanceof Number n) sink.sample(n.doubleValue(), state);
+            sink.sample(((Number) stats.get("maximumPoolSize")).doubleValue(), "max");
+        });
+        CatalogMetrics.counter("marketops_db_pool_timeouts_total", "Connection requests that timed out", new String[0],
+                sink -> { if (stats(sessionFactory).get("timeouts") instanceof Number n) sink.sample(n.doubleValue()); });
+        app.exception(JDBCConnectionException.class, (e, ctx) -> {
+            boolean exhausted = e.getSQLException() instanceof SQLTransientConnectionException;
+            ctx.header("Retry-After", "1").status(503).result(exhausted ? "Database busy, retry shortly" : "Database unavailable");
+        });
+    }
+
+    public static Map<String, Object> stats(SessionFactory sessionFactory) {
+        HikariDataSource ds = sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .requireService(ConnectionProvider.class).unwrap(HikariDataSource.class);
+        HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("threads", VIRTUAL && Runtime.version().feature() >= 21 ? "virtual" : "platform");
+        m.put("pool", ds.getPoolName());
+        m.put("maximumPoolSize", ds.getMaximumPoolSize());
+        m.put("connectionTimeoutMs", ds.getConnectionTimeout());
+        if (pool != null) {
+            m.put("active", pool.getActiveConnections());
+            m.put("idle", pool.getIdleConnections());
+            m.put("total", pool.getTotalConnections());
+            m.put("waiting", pool.getThreadsAwaitingConnection());
+        }
+        PoolMetrics.Tracker t = PoolMetrics.TRACKERS.get(ds.getPoolName());
+        if (t != null) m.putAll(t.toMap());
+        return m;
+    }
+
+    /** Acquire-wait and hold-time counters per pool, fed by Hikari on every borrow and return. */
+    public static final class PoolMetrics implements MetricsTrackerFactory {
+        static final Map<String, Tracker> TRACKERS = new ConcurrentHashMap<>();
+
+        public PoolMetrics() {}
+
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            Tracker t = new Tracker();
+            TRACKERS.put(poolName, t);
+            return t;
+        }
+
+        static final class Tracker implements IMetricsTracker {
+            final LongAdder acquired = new LongAdder(), acquireNanos = new LongAdder(), usageMillis = new LongAdder();
+            final LongAdder timeouts = new LongAdder(), created = new LongAdder();
+            final AtomicLong maxAcquireNanos = new AtomicLong(), maxUsageMillis = new AtomicLong();
+
+            @Override public void recordConnectionAcquiredNanos(long nanos) {
+                acquired.increment();
+                acquireNanos.add(nanos);
+                maxAcquireNanos.accumulateAndGet(nanos, Math::max);
+            }
+            @Override public void recordConnectionUsageMillis(long millis) {
+                usageMillis.add(millis);
+                maxUsageMillis.accumulateAndGet(millis, Math::max);
+            }
+            @Override public void recordConnectionTimeout() { timeouts.increment(); }
+            @Override public void recordConnectionCreatedMillis(long millis) { created.increment(); }
+
+            Map<String, Object> toMap() {
+                long n = acquired.sum();
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("acquired", n);
+                m.put("timeouts", timeouts.sum());
+                m.put("connectionsCreated", created.sum());
+                m.put("meanAcquireMicros", n == 0 ? 0 : acquireNanos.sum() / n / 1_000);
+                m.put("maxAcquireMicros", maxAcquireNanos.get() / 1_000);
+                m.put("meanUsageMillis", n == 0 ? 0.0 : (double) usageMillis.sum() / n);
+                m.put("maxUsageMillis", maxUsageMillis.get());
+                return m;
+            }
+        }
+    }
+}
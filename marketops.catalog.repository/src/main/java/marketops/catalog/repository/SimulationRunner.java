@@ -0,0 +1,487 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.*;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo runner for SimulationTracking equations.
+ * The equation ("revenue = price * demand - cost", the "name =" part optional) is compiled once into
+ * a register program over column vectors: every variable, constant and intermediate is a double[BATCH]
+ * column, and each instruction is one tight loop over a batch, so evaluation allocates nothing and
+ * the JIT can vectorize the arithmetic. Paths are split into fixed tasks of TASK_BATCHES batches that
+ * run on the common fork-join pool; each task has its own columns, random stream and summary, and the
+ * summaries are merged at the end. The same seed always draws the same samples.
+ */
+public class SimulationRunner {
+
+    public static final int BATCH = 1024;
+    private static final int TASK_BATCHES = 64;
+    public static final long DEFAULT_PATHS = 100_000, MAX_PATHS = 100_000_000;
+    private static final double COMPRESSION = 100;
+
+    // --- SAMPLERS ---
+
+    /** Fills a batch with draws from one distribution. */
+    @FunctionalInterface
+    public interface Sampler { void fill(double[] out, int n, RandomGenerator random); }
+
+    /** Finds the sampler of a DistributionRegistry id; null if there is no such distribution. */
+    @FunctionalInterface
+    public interface Distributions { Sampler find(String distributionId); }
+
+    /**
+     * Sampler for a DistributionRegistry entry. signalType picks the family (normal, lognormal, uniform,
+     * exponential, triangular, constant, empirical); any other type is inferred from the statistics keys,
+     * so the p1..p99 summaries from the stats endpoint sample as an empirical distribution.
+     */
+    public static Sampler sampler(String id, String signalType, Map<String, Double> statistics) {
+        Map<String, Double> s = statistics == null ? Map.of() : statistics;
+        String type = signalType == null ? "" : signalType.toLowerCase();
+        switch (type) {
+            case "normal": case "gaussian": return normal(s.get("mean"), stddev(s), id);
+            case "lognormal": return lognormal(s, id);
+            case "uniform": return uniform(required(s, "min", id), required(s, "max", id));
+            case "exponential": return exponential(required(s, "mean", id));
+            case "triangular": return triangular(required(s, "min", id), required(s, "mode", id), required(s, "max", id));
+            case "constant": case "fixed": return constant(s.containsKey("value") ? s.get("value") : required(s, "mean", id));
+            case "empirical": return empirical(s, id);
+            default: break;
+        }
+        if (quantileKeys(s) > 0) return empirical(s, id);
+        if (s.get("mean") != null && stddev(s) != null) return normal(s.get("mean"), stddev(s), id);
+        if (s.get("min") != null && s.get("max") != null) return uniform(s.get("min"), s.get("max"));
+        if (s.get("mean") != null) return constant(s.get("mean"));
+        throw new BadRequestResponse("Distribution " + id + ": cannot sample signalType " + signalType + " from statistics " + s.keySet());
+    }
+
+    private static Double stddev(Map<String, Double> s) {
+        if (s.get("stddev") != null) return s.get("stddev");
+        return s.get("variance") == null ? null : Math.sqrt(s.get("variance"));
+    }
+
+    private static double required(Map<String, Double> s, String key, String id) {
+        Double v = s.get(key);
+        if (v == null || Double.isNaN(v)) throw new BadRequestResponse("Distribution " + id + " has no statistics." + key);
+        return v;
+    }
+
+    private static Sampler normal(Double mean, Double sd, String id) {
+        if (mean == null || sd == null) throw new BadRequestResponse("Distribution " + id + " needs statistics.mean and statistics.stddev (or variance)");
+        double m = mean, d = sd;
+        return (out, n, random) -> { for (int i = 0; i < n; i++) out[i] = m + d * random.nextGaussian(); };
+    }
+
+    // Either the log-space mu/sigma, or the mean and stddev of the variable itself
+    private static Sampler lognormal(Map<String, Double> s, String id) {
+        double mu, sigma;
+        if (s.get("mu") != null && s.get("sigma") != null) {
+            mu = s.get("mu");
+            sigma = s.get("sigma");
+        } else {
+            double mean = required(s, "mean", id);
+            Double sd = stddev(s);
+            if (sd == null || mean <= 0) throw new BadRequestResponse("Distribution " + id + " needs statistics.mu and sigma, or a positive mean and a stddev");
+            double v = Math.log(1 + sd * sd / (mean * mean));
+            sigma = Math.sqrt(v);
+            mu = Math.log(mean) - v / 2;
+        }
+        return (out, n, random) -> { for (int i = 0; i < n; i++) out[i] = Math.exp(mu + sigma * random.nextGaussian()); };
+    }
+
+    private static Sampler uniform(double min, double max) {
+        double width = max - min;
+        return (out, n, random) -> { for (int i = 0; i < n; i++) out[i] = min + width * random.nextDouble(); };
+    }
+
+    private static Sampler exponential(double mean) {
+        return (out, n, random) -> { for (int i = 0; i < n; i++) out[i] = mean * random.nextExponential(); };
+    }
+
+    private static Sampler triangular(double min, double mode, double max) {
+        double split = (mode - min) / (max - min);
+        return (out, n, random) -> {
+            for (int i = 0; i < n; i++) {
+                double u = random.nextDouble();
+                out[i] = u < split ? min + Math.sqrt(u * (max - min) * (mode - min)) : max - Math.sqrt((1 - u) * (max - min) * (max - mode));
+            }
+        };
+    }
+
+    private static Sampler constant(double value) { return (out, n, random) -> Arrays.fill(out, 0, n, value); }
+
+    private static int quantileKeys(Map<String, Double> s) {
+        int n = 0;
+        for (String key : s.keySet()) if (key.matches("p\\d{1,2}")) n++;
+        return n;
+    }
+
+    // Piecewise-linear inverse CDF through min, p1..p99 and max
+    private static Sampler empirical(Map<String, Double> s, String id) {
+        TreeMap<Double, Double> points = new TreeMap<>();
+        s.forEach((key, v) -> { if (key.matches("p\\d{1,2}") && v != null && !Double.isNaN(v)) points.put(Integer.parseInt(key.substring(1)) / 100.0, v); });
+        if (s.get("min") != null) points.put(0.0, s.get("min"));
+        if (s.get("max") != null) points.put(1.0, s.get("max"));
+        if (points.size() < 2) throw new BadRequestResponse("Distribution " + id + " needs at least two of statistics.min, p1..p99, max");
+        double[] q = new double[points.size()], x = new double[points.size()];
+        int k = 0;
+        for (Map.Entry<Double, Double> e : points.entrySet()) { q[k] = e.getKey(); x[k++] = e.getValue(); }
+        double lo = q[0], span = q[q.length - 1] - q[0];
+        return (out, n, random) -> {
+            for (int i = 0; i < n; i++) {
+                double u = lo + span * random.nextDouble();
+                int j = Arrays.binarySearch(q, u);
+                if (j >= 0) { out[i] = x[j]; continue; }
+                j = -j - 2;
+                out[i] = x[j] + (x[j + 1] - x[j]) * (u - q[j]) / (q[j + 1] - q[j]);
+            }
+        };
+    }
+
+    // --- COMPILER ---
+
+    private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, POW = 4, NEG = 5, EXP = 6, LOG = 7, SQRT = 8, ABS = 9, MIN = 10, MAX = 11;
+    private static final Map<String, Integer> FUNCTIONS = Map.of("exp", EXP, "log", LOG, "sqrt", SQRT, "abs", ABS, "min", MIN, "max", MAX, "pow", POW);
+
+    /**
+     * Compiled equation. Columns are laid out as variables, then constants, then temporaries; code holds
+     * (op, destination, left, right) quads, right = -1 for unary ops.
+     */
+    static final class Program {
+        final String output;
+        final List<String> variables;
+        final double[] constants;
+        final int[] code;
+        final int columns, result;
+
+        Program(String output, List<String> variables, double[] constants, int[] code, int columns, int result) {
+            this.output = output; this.variables = variables; this.constants = constants; this.code = code; this.columns = columns; this.result = result;
+        }
+
+        /** Fresh column workspace with the constants filled in. */
+        double[][] workspace() {
+            double[][] cols = new double[columns][BATCH];
+            for (int c = 0; c < constants.length; c++) Arrays.fill(cols[variables.size() + c], constants[c]);
+            return cols;
+        }
+
+        /** Runs the program over the first n rows; variables must already be sampled. Returns the result column. */
+        double[] eval(double[][] cols, int n) {
+            for (int pc = 0; pc < code.length; pc += 4) {
+                double[] d = cols[code[pc + 1]], x = cols[code[pc + 2]], y = code[pc + 3] < 0 ? x : cols[code[pc + 3]];
+                switch (code[pc]) {
+                    case ADD: for (int i = 0; i < n; i++) d[i] = x[i] + y[i]; break;
+                    case SUB: for (int i = 0; i < n; i++) d[i] = x[i] - y[i]; break;
+                    case MUL: for (int i = 0; i < n; i++) d[i] = x[i] * y[i]; break;
+                    case DIV: for (int i = 0; i < n; i++) d[i] = x[i] / y[i]; break;
+                    case POW: for (int i = 0; i < n; i++) d[i] = Math.pow(x[i], y[i]); break;
+                    case NEG: for (int i = 0; i < n; i++) d[i] = -x[i]; break;
+                    case EXP: for (int i = 0; i < n; i++) d[i] = Math.exp(x[i]); break;
+                    case LOG: for (int i = 0; i < n; i++) d[i] = Math.log(x[i]); break;
+                    case SQRT: for (int i = 0; i < n; i++) d[i] = Math.sqrt(x[i]); break;
+                    case ABS: for (int i = 0; i < n; i++) d[i] = Math.abs(x[i]); break;
+                    case MIN: for (int i = 0; i < n; i++) d[i] = Math.min(x[i], y[i]); break;
+                    case MAX: for (int i = 0; i < n; i++) d[i] = Math.max(x[i], y[i]); break;
+                    default: throw new IllegalStateException("Bad opcode " + code[pc]);
+                }
+            }
+            return cols[result];
+        }
+    }
+
+    /** Parses and compiles an equation; IllegalArgumentException with the position on syntax errors. */
+    static Program compile(String equation) {
+        return new Compiler(equation).compile();
+    }
+
+    /**
+     * Recursive-descent parser that emits code as it goes. Constant subexpressions are folded; temporaries
+     * follow expression depth, so an instruction's destination reuses its operands' slot. Columns are
+     * numbered once parsing is done and the number of variables and constants is known.
+     */
+    private static final class Compiler {
+        private static final int CONST = 0, VAR = 1, TEMP = 2;
+        private record Operand(int kind, double value, int index) {}
+        private record Instruction(int op, int dst, Operand a, Operand b) {}
+
+        private final String src;
+        private int pos;
+        private final List<String> variables = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Instruction> code = new ArrayList<>();
+        private int depth, maxDepth;
+
+        Compiler(String src) { this.src = src; }
+
+        Program compile() {
+            String output = "result";
+            int eq = src.indexOf('=');
+            if (eq >= 0) {
+                output = src.substring(0, eq).trim();
+                if (!output.matches("[A-Za-z_][A-Za-z_0-9.]*")) throw error("output name before '='", 0);
+                pos = eq + 1;
+            }
+            Operand top = pin(expression());
+            skipSpace();
+            if (pos < src.length()) throw error("end of equation", pos);
+            int[] flat = new int[code.size() * 4];
+            for (int i = 0; i < code.size(); i++) {
+                Instruction ins = code.get(i);
+                flat[i * 4] = ins.op;
+                flat[i * 4 + 1] = variables.size() + constants.size() + ins.dst;
+                flat[i * 4 + 2] = column(ins.a);
+                flat[i * 4 + 3] = ins.b == null ? -1 : column(ins.b);
+            }
+            double[] c = new double[constants.size()];
+            for (int i = 0; i < c.length; i++) c[i] = constants.get(i);
+            return new Program(output, List.copyOf(variables), c, flat, variables.size() + constants.size() + maxDepth, column(top));
+        }
+
+        // A folded constant gets a constant column once it is used as an operand
+        private Operand pin(Operand o) {
+            if (o.kind != CONST || o.index >= 0) return o;
+            constants.add(o.value);
+            return new Operand(CONST, o.value, constants.size() - 1);
+        }
+
+        private int column(Operand o) {
+            switch (o.kind) {
+                case VAR: return o.index;
+                case CONST: return variables.size() + o.index;
+                default: return variables.size() + constants.size() + o.index;
+            }
+        }
+
+        private static Operand literal(double value) { return new Operand(CONST, value, -1); }
+
+        private Operand expression() {
+            Operand left = term();
+            while (true) {
+                skipSpace();
+                if (peek('+')) { pos++; left = binary(ADD, left, term()); }
+                else if (peek('-')) { pos++; left = binary(SUB, left, term()); }
+                else return left;
+            }
+        }
+
+        private Operand term() {
+            Operand left = unary();
+            while (true) {
+                skipSpace();
+                if (peek('*')) { pos++; left = binary(MUL, left, unary()); }
+                else if (peek('/')) { pos++; left = binary(DIV, left, unary()); }
+                else return left;
+            }
+        }
+
+        private Operand unary() {
+            skipSpace();
+            if (peek('-')) { pos++; return unaryOp(NEG, unary()); }
+            if (peek('+')) { pos++; return unary(); }
+            return power();
+        }
+
+        // Right-associative, binds tighter than unary minus on its left: -x^2 = -(x^2)
+        private Operand power() {
+            Operand base = atom();
+            skipSpace();
+            if (peek('^')) { pos++; return binary(POW, base, unary()); }
+            return base;
+        }
+
+        private Operand atom() {
+            skipSpace();
+            if (pos >= src.length()) throw error("operand", pos);
+            char c = src.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Operand inner = expression();
+                expect(')');
+                return inner;
+            }
+            if (Character.isDigit(c) || c == '.') return number();
+            if (Character.isLetter(c) || c == '_') {
+                int start = pos;
+                while (pos < src.length() && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '_' || src.charAt(pos) == '.')) pos++;
+                String name = src.substring(start, pos);
+                skipSpace();
+                if (peek('(')) return call(name, start);
+                if (name.equals("pi")) return literal(Math.PI);
+                if (name.equals("e")) return literal(Math.E);
+                int v = variables.indexOf(name);
+                if (v < 0) { variables.add(name); v = variables.size() - 1; }
+                return new Operand(VAR, 0, v);
+            }
+            throw error("operand", pos);
+        }
+
+        private Operand call(String name, int at) {
+            Integer op = FUNCTIONS.get(name);
+            if (op == null) throw error("known function (exp, log, sqrt, abs, min, max, pow), not " + name, at);
+            pos++; // (
+            Operand a = expression();
+            if (op == MIN || op == MAX || op == POW) {
+                expect(',');
+                Operand b = expression();
+                expect(')');
+                return binary(op, a, b);
+            }
+            expect(')');
+            return unaryOp(op, a);
+        }
+
+        private Operand number() {
+            int start = pos;
+            while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) pos++;
+            if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) pos++;
+                while (pos < src.length() && Character.isDigit(src.charAt(pos))) pos++;
+            }
+            try {
+                return literal(Double.parseDouble(src.substring(start, pos)));
+            } catch (NumberFormatException e) { throw error("number", start); }
+        }
+
+        private Operand binary(int op, Operand a, Operand b) {
+            if (a.kind == CONST && b.kind == CONST) return literal(fold(op, a.value, b.value));
+            return emit(op, a, b);
+        }
+
+        private Operand unaryOp(int op, Operand a) {
+            if (a.kind == CONST) return literal(fold(op, a.value, 0));
+            return emit(op, a, null);
+        }
+
+        // Operand temps are on top of the stack; release them before taking the destination
+        private Operand emit(int op, Operand a, Operand b) {
+            if (b != null && b.kind == TEMP) depth--;
+            if (a.kind == TEMP) depth--;
+            int dst = depth++;
+            maxDepth = Math.max(maxDepth, depth);
+            code.add(new Instruction(op, dst, pin(a), b == null ? null : pin(b)));
+            return new Operand(TEMP, 0, dst);
+        }
+
+        private static double fold(int op, double x, double y) {
+            switch (op) {
+                case ADD: return x + y;
+                case SUB: return x - y;
+                case MUL: return x * y;
+                case DIV: return x / y;
+                case POW: return Math.pow(x, y);
+                case NEG: return -x;
+                case EXP: return Math.exp(x);
+                case LOG: return Math.log(x);
+                case SQRT: return Math.sqrt(x);
+                case ABS: return Math.abs(x);
+                case MIN: return Math.min(x, y);
+                case MAX: return Math.max(x, y);
+                default: throw new IllegalStateException("Bad opcode " + op);
+            }
+        }
+
+        private void skipSpace() { while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++; }
+        private boolean peek(char c) { return pos < src.length() && src.charAt(pos) == c; }
+
+        private void expect(char c) {
+            skipSpace();
+            if (!peek(c)) throw error("'" + c + "'", pos);
+            pos++;
+        }
+
+        private IllegalArgumentException error(String expected, int at) {
+            return new IllegalArgumentException("Invalid equation: expected " + expected + " at position " + at + " in \"" + src + "\"");
+        }
+    }
+
+    // --- RUNNER ---
+
+    /** Outcome of one run; statistics covers the finite outcomes (same keys as DistributionRegistry.statistics). */
+    public static class Result {
+        public final String simulationId;
+        public final String output;
+        public final long paths;
+        public final long seed;
+        public long elapsedMillis;
+        public long pathsPerSecond;
+        public final Map<String, String> inputs; // equation variable -> distribution id
+        public long nonFinite;
+        public Map<String, Double> statistics;
+        Result(String simulationId, String output, long paths, long seed, Map<String, String> inputs) {
+            this.simulationId = simulationId; this.output = output; this.paths = paths; this.seed = seed; this.inputs = inputs;
+        }
+    }
+
+    /** Compiles the equation, maps its variables to samplers and runs the paths in parallel. */
+    public static Result run(String simulationId, String equation, Map<String, String> mapping, Distributions distributions, long paths, long seed) {
+        if (equation == null || equation.isBlank()) throw new BadRequestResponse("Simulation " + simulationId + " has no equation");
+        Program program;
+        try {
+            program = compile(equation);
+        } catch (IllegalArgumentException e) { throw new BadRequestResponse(e.getMessage()); }
+        Map<String, String> m = mapping == null ? Map.of() : mapping;
+        Map<String, String> inputs = new LinkedHashMap<>();
+        Sampler[] samplers = new Sampler[program.variables.size()];
+        for (int v = 0; v < samplers.length; v++) {
+            String name = program.variables.get(v), distributionId = m.get(name);
+            if (distributionId == null) throw new BadRequestResponse("Variable " + name + " has no entry in distributionMapping");
+            samplers[v] = distributions.find(distributionId);
+            if (samplers[v] == null) throw new BadRequestResponse("Variable " + name + " maps to unknown distribution " + distributionId);
+            inputs.put(name, distributionId);
+        }
+
+        long start = System.nanoTime();
+        long batches = (paths + BATCH - 1) / BATCH;
+        int tasks = (int) ((batches + TASK_BATCHES - 1) / TASK_BATCHES);
+        Outcome total = IntStream.range(0, tasks).parallel()
+                .mapToObj(task -> runTask(program, samplers, seed, task, Math.min(paths, (task + 1L) * TASK_BATCHES * BATCH)))
+                .reduce((a, b) -> { a.summary.merge(b.summary); a.nonFinite += b.nonFinite; return a; })
+                .orElseThrow();
+        long elapsed = System.nanoTime() - start;
+
+        Result result = new Result(simulationId, program.output, paths, seed, inputs);
+        result.elapsedMillis = elapsed / 1_000_000;
+        result.pathsPerSecond = elapsed > 0 ? (long) (paths * 1e9 / elapsed) : paths;
+        result.nonFinite = total.nonFinite;
+        result.statistics = total.summary.toMap();
+        return result;
+    }
+
+    private static final class Outcome {
+        final RollingStats.Summary summary = new RollingStats.Summary(COMPRESSION);
+        long nonFinite;
+    }
+
+    // Task t covers paths [t * TASK_BATCHES * BATCH, end); its random stream depends only on seed and t
+    private static Outcome runTask(Program program, Sampler[] samplers, long seed, int task, long end) {
+        Outcome out = new Outcome();
+        double[][] cols = program.workspace();
+        double[] finite = new double[BATCH];
+        SplittableRandom random = new SplittableRandom(seed ^ (task + 1) * 0x9E3779B97F4A7C15L);
+        for (long first = (long) task * TASK_BATCHES * BATCH; first < end; first += BATCH) {
+            int n = (int) Math.min(BATCH, end - first);
+            for (int v = 0; v < samplers.length; v++) samplers[v].fill(cols[v], n, random);
+            double[] r = program.eval(cols, n);
+            int k = 0;
+            for (int i = 0; i < n; i++) if (Double.isFinite(r[i])) finite[k++] = r[i];
+            out.nonFinite += n - k;
+            out.summary.addAll(finite, k);
+        }
+        return out;
+    }
+
+    /** POST /catalog/simulations/{id}/run?paths=&seed= : paths defaults to DEFAULT_PATHS, seed to a random one (echoed back). */
+    public static Result run(Context ctx, String simulationId, String equation, Map<String, String> mapping, Distributions distributions) {
+        long paths = DEFAULT_PATHS, seed;
+        try {
+            if (ctx.queryParam("paths") != null) paths = Long.parseLong(ctx.queryParam("paths"));
+            seed = ctx.queryParam("seed") != null ? Long.parseLong(ctx.queryParam("seed")) : new SplittableRandom().nextLong();
+        } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid paths or seed: " + e.getMessage()); }
+        if (paths < 1 || paths > MAX_PATHS) throw new BadRequestResponse("paths must be between 1 and " + MAX_PATHS);
+        return run(simulationId, equation, mapping, distributions, paths, seed);
+    }
+}
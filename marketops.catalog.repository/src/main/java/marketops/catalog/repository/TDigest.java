@@ -0,0 +1,152 @@
+package marketops.catalog.repository;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch (merging t-digest, Dunning & Ertl).
+ * Values collect in a buffer; when it fills they are sorted and merged with the existing centroids,
+ * which are kept small near the tails (k1 scale function) so extreme quantiles stay accurate.
+ * Size is bounded by the compression, not by the number of values. Not thread-safe.
+ */
+public class TDigest {
+
+    private final double compression;
+    private double[] means = new double[0];
+    private double[] weights = new double[0];
+    private int centroids;
+    private double[] buffer = new double[8];
+    private int buffered;
+    private final int bufferLimit;
+    private final double cosStep, sinStep; // one k-unit of the scale function, as an angle
+    private double total; // weight of the centroids only
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        this.compression = compression;
+        this.bufferLimit = (int) (5 * compression);
+        this.cosStep = Math.cos(2 * Math.PI / compression);
+        this.sinStep = Math.sin(2 * Math.PI / compression);
+    }
+
+    public void add(double x) {
+        if (Double.isNaN(x)) return;
+        if (buffered == buffer.length) {
+            if (buffered >= bufferLimit) compress();
+            else buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, bufferLimit));
+        }
+        buffer[buffered++] = x;
+        if (x < min) min = x;
+        if (x > max) max = x;
+    }
+
+    /** Adds the first n values of an array; they must not be NaN. */
+    public void addAll(double[] values, int n) {
+        for (int i = 0; i < n; ) {
+            if (buffered == buffer.length) {
+                if (buffered >= bufferLimit) compress();
+                else buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, bufferLimit));
+            }
+            int chunk = Math.min(n - i, buffer.length - buffered);
+            System.arraycopy(values, i, buffer, buffered, chunk);
+            for (int j = i; j < i + chunk; j++) {
+                if (values[j] < min) min = values[j];
+                if (values[j] > max) max = values[j];
+            }
+            buffered += chunk;
+            i += chunk;
+        }
+    }
+
+    /** Folds another digest into this one; the other is left unchanged apart from being compressed. */
+    public void merge(TDigest other) {
+        other.compress();
+        if (other.centroids == 0) return;
+        compress();
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        rebuild(other.means, other.weights, other.centroids);
+    }
+
+    public long size() { return (long) (total + buffered); }
+
+    /** Estimated value at quantile q in [0, 1]; NaN if empty. */
+    public double quantile(double q) {
+        compress();
+        if (centroids == 0) return Double.NaN;
+        if (centroids == 1 || q <= 0) return q <= 0 ? min : means[0];
+        if (q >= 1) return max;
+        double index = q * total;
+        // Each centroid's mass is centred on its mean; interpolate between neighbouring centres
+        double cumulative = weights[0] / 2;
+        if (index < cumulative) return min + (means[0] - min) * (index / cumulative);
+        for (int i = 0; i < centroids - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if (index < cumulative + step) {
+                double t = (index - cumulative) / step;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            cumulative += step;
+        }
+        double last = weights[centroids - 1] / 2;
+        double t = Math.min(1, (index - cumulative) / last);
+        return means[centroids - 1] + t * (max - means[centroids - 1]);
+    }
+
+    private void compress() {
+        if (buffered == 0) return;
+        Arrays.sort(buffer, 0, buffered);
+        int n = buffered;
+        buffered = 0;
+        rebuild(buffer, null, n);
+    }
+
+    /**
+     * Merges the current centroids with another sorted run (weights null = all 1) and greedily
+     * combines neighbours while the k-size allows. Both runs are sorted, so this is linear.
+     */
+    private void rebuild(double[] runMeans, double[] runWeights, int runSize) {
+        int n = centroids + runSize;
+        double sum = total;
+        if (runWeights == null) sum += runSize; else for (int i = 0; i < runSize; i++) sum += runWeights[i];
+
+        double[] outMeans = new double[Math.min(n, (int) (2 * compression) + 8)];
+        double[] outWeights = new double[outMeans.length];
+        int count = 0, a = 0, b = 0;
+        double done = 0, curMean = 0, curWeight = 0, limit = 0;
+        for (int k = 0; k < n; k++) {
+            double m, w;
+            if (b >= runSize || (a < centroids && means[a] <= runMeans[b])) { m = means[a]; w = weights[a]; a++; }
+            else { m = runMeans[b]; w = runWeights == null ? 1 : runWeights[b]; b++; }
+            if (k == 0) {
+                curMean = m; curWeight = w;
+                limit = sum * quantileLimit(0);
+            } else if (done + curWeight + w <= limit) {
+                curWeight += w;
+                curMean += (m - curMean) * w / curWeight;
+            } else {
+                done += curWeight;
+                if (count == outMeans.length) { outMeans = Arrays.copyOf(outMeans, count * 2); outWeights = Arrays.copyOf(outWeights, count * 2); }
+                outMeans[count] = curMean;
+                outWeights[count++] = curWeight;
+                limit = sum * quantileLimit(done / sum);
+                curMean = m;
+                curWeight = w;
+            }
+        }
+        if (count == outMeans.length) { outMeans = Arrays.copyOf(outMeans, count + 1); outWeights = Arrays.copyOf(outWeights, count + 1); }
+        outMeans[count] = curMean;
+        outWeights[count++] = curWeight;
+        means = outMeans;
+        weights = outWeights;
+        centroids = count;
+        total = sum;
+    }
+
+    // k1(q) = compression / (2 pi) * asin(2q - 1); the next centroid may grow until k rises by one,
+    // i.e. up to q' = (sin(asin(2q - 1) + step) + 1) / 2, expanded so no trigonometry runs per centroid
+    private double quantileLimit(double q) {
+        double x = 2 * q - 1;
+        if (x >= cosStep) return 1;
+        return (x * cosStep + Math.sqrt(Math.max(0, 1 - x * x)) * sinStep + 1) / 2;
+    }
+}
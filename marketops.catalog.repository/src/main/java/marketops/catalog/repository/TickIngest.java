@@ -0,0 +1,319 @@
+package marketops.catalog.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Low-latency price tick path: request threads offer ticks into a bounded lock-free ring
+ * (multi-producer, single consumer) and one writer thread drains it and group-commits a Batch to the
+ * Sink every flush interval, or sooner once a full batch is waiting. A full ring rejects the offer,
+ * which the endpoints turn into 503 so feeds back off instead of queueing without bound. A commit that
+ * throws is retried with backoff (the ring fills meanwhile) before its ticks are counted as failed.
+ */
+public class TickIngest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int RETRIES = 5;
+    private static final long RETRY_BACKOFF_MS = 100; // doubled on each retry
+
+    /**
+     * Receives drained ticks on the writer thread; arrays are reused, so copy what outlives the call.
+     * A commit that throws gets the same batch again, so it must either have had no effect or have
+     * recorded how far it got in Batch.applied and Batch.token. It may overwrite the ticks it applied
+     * (with the timestamp it stored, say); a retry sees them as it left them.
+     */
+    @FunctionalInterface
+    public interface Sink { void commit(Batch batch) throws Exception; }
+
+    public static class Batch {
+        public final String[] assetIds;
+        public final long[] timestamps;
+        public final double[] prices;
+        public final double[] demands; // NaN when the tick carried no demand
+        public int size;
+        // Progress of a sink through a batch it is retrying: ticks before applied are done, token is the
+        // sink's own (a log position, say). Both are 0 for a new batch.
+        public int applied;
+        public long token;
+
+        Batch(int capacity) {
+            assetIds = new String[capacity];
+            timestamps = new long[capacity];
+            prices = new double[capacity];
+            demands = new double[capacity];
+        }
+    }
+
+    // Ring slots; sequences[i] says whose turn slot i is (Vyukov bounded MPMC, used here with one consumer)
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] assetIds;
+    private final long[] timestamps;
+    private final double[] prices;
+    private final double[] demands;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // writer thread only
+    private volatile long drained; // head as of the last drain, for other threads
+
+    private final Sink sink;
+    private final Batch batch;
+    private final long flushNanos;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public TickIngest(String name, int capacity, int maxBatch, long flushMillis, Sink sink) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.assetIds = new String[size];
+        this.timestamps = new long[size];
+        this.prices = new double[size];
+        this.demands = new double[size];
+        this.sink = sink;
+        this.batch = new Batch(maxBatch);
+        this.flushNanos = flushMillis * 1_000_000L;
+        this.writer = new Thread(this::drainLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // --- PRODUCERS (any thread) ---
+
+    /** False when the ring is full; price is required, demand may be NaN. */
+    public boolean offer(String assetId, long timestamp, double price, double demand) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long dif = sequences.get(slot) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (dif < 0) {
+                rejected.increment();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        int slot = (int) (pos & mask);
+        assetIds[slot] = assetId;
+        timestamps[slot] = timestamp;
+        prices[slot] = price;
+        demands[slot] = demand;
+        sequences.lazySet(slot, pos + 1); // publish to the writer
+        accepted.increment();
+        if (pos - drained == batch.assetIds.length) LockSupport.unpark(writer); // a full batch is waiting
+        return true;
+    }
+
+    /** Offers ticks [0, n) all or none: false when the ring has no room for all of them. */
+    public boolean offer(String[] assetIds, long[] timestamps, double[] prices, double[] demands, int n) {
+        if (n == 0) return true;
+        long pos = tail.get();
+        while (true) {
+            // Slots are handed back in order, so if the last one is free the ones before it are too
+            long last = pos + n - 1;
+            long dif = n > mask + 1 ? -1 : sequences.get((int) (last & mask)) - last;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + n)) break;
+                pos = tail.get();
+            } else if (dif < 0) {
+                rejected.add(n);
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int slot = (int) ((pos + i) & mask);
+            this.assetIds[slot] = assetIds[i];
+            this.timestamps[slot] = timestamps[i];
+            this.prices[slot] = prices[i];
+            this.demands[slot] = demands[i];
+            sequences.lazySet(slot, pos + i + 1);
+        }
+        accepted.add(n);
+        if (pos + n - drained >= batch.assetIds.length) LockSupport.unpark(writer);
+        return true;
+    }
+
+    /** Most ticks one body or message may carry; more could never fit the ring at once. */
+    public int capacity() { return mask + 1; }
+
+    // Ticks parsed from one body or message, offered together once all of them are valid
+    private static final class Parsed {
+        String[] assetIds = new String[16];
+        long[] timestamps = new long[16];
+        double[] prices = new double[16], demands = new double[16];
+        int size;
+
+        void add(String assetId, long timestamp, double price, double demand) {
+            if (size == assetIds.length) {
+                int grown = size * 2;
+                assetIds = Arrays.copyOf(assetIds, grown);
+                timestamps = Arrays.copyOf(timestamps, grown);
+                prices = Arrays.copyOf(prices, grown);
+                demands = Arrays.copyOf(demands, grown);
+            }
+            assetIds[size] = assetId;
+            timestamps[size] = timestamp;
+            prices[size] = price;
+            demands[size++] = demand;
+        }
+    }
+
+    /**
+     * Offers the ticks of a JSON body for one asset: a single {"price":..,"demand":..,"timestamp":..}
+     * object or an array of them. The body is read and checked first and its ticks offered all or none:
+     * returns the number accepted, or -1 if the ring has no room for them.
+     */
+    public int offerJson(String assetId, InputStream body) throws IOException {
+        Parsed ticks = new Parsed();
+        try (JsonParser p = JSON.createParser(body)) {
+            JsonToken first = p.nextToken();
+            boolean array = first == JsonToken.START_ARRAY;
+            if (!array && first != JsonToken.START_OBJECT) throw new IOException("Expected a tick object or array");
+            JsonToken t = array ? p.nextToken() : first;
+            for (; t == JsonToken.START_OBJECT; t = array ? p.nextToken() : null) {
+                double price = Double.NaN, demand = Double.NaN;
+                long timestamp = System.currentTimeMillis();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    if (p.nextToken() == JsonToken.VALUE_NULL) continue;
+                    switch (field) {
+                        case "price": price = p.getDoubleValue(); break;
+                        case "demand": demand = p.getDoubleValue(); break;
+                        case "timestamp": timestamp = p.getLongValue(); break;
+                        default: p.skipChildren();
+                    }
+                }
+                if (Double.isNaN(price)) throw new IOException("Tick " + ticks.size + " has no price");
+                if (!Double.isFinite(price) || Double.isInfinite(demand)) throw new IOException("Tick " + ticks.size + " is not finite");
+                if (ticks.size == capacity()) throw new IOException("More than " + capacity() + " ticks in one body");
+                ticks.add(assetId, timestamp, price, demand);
+            }
+            if (array && t != JsonToken.END_ARRAY) throw new IOException("Tick " + ticks.size + " is not an object");
+            if (p.nextToken() != null) throw new IOException("Unexpected content after the " + (array ? "array" : "tick"));
+        }
+        return offer(ticks.assetIds, ticks.timestamps, ticks.prices, ticks.demands, ticks.size) ? ticks.size : -1;
+    }
+
+    /**
+     * Line protocol for the WebSocket feed: "assetId price [demand [timestamp]]" per line, demand "-"
+     * for none. knownAsset filters ids. Lines with errors are reported and skipped; the rest are offered
+     * all or none: returns the number accepted, or -1 if the ring has no room for them.
+     */
+    public int offerLines(String payload, Predicate<String> knownAsset, StringBuilder errors) {
+        Parsed ticks = new Parsed();
+        int lineNo = 0;
+        for (String line : payload.split("\n")) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] f = line.split("\\s+");
+            try {
+                if (f.length < 2) throw new IllegalArgumentException("expected: assetId price [demand [timestamp]]");
+                if (!knownAsset.test(f[0])) throw new IllegalArgumentException("unknown asset " + f[0]);
+                double price = Double.parseDouble(f[1]);
+                double demand = f.length > 2 && !f[2].equals("-") ? Double.parseDouble(f[2]) : Double.NaN;
+                long timestamp = f.length > 3 ? Long.parseLong(f[3]) : System.currentTimeMillis();
+                if (!Double.isFinite(price) || (f.length > 2 && !f[2].equals("-") && !Double.isFinite(demand))) throw new IllegalArgumentException("not a finite number");
+                if (ticks.size == capacity()) throw new IllegalArgumentException("more than " + capacity() + " ticks in one message");
+                ticks.add(f[0], timestamp, price, demand);
+            } catch (IllegalArgumentException e) {
+                errors.append("ERR line ").append(lineNo).append(": ").append(e.getMessage()).append('\n');
+            }
+        }
+        return offer(ticks.assetIds, ticks.timestamps, ticks.prices, ticks.demands, ticks.size) ? ticks.size : -1;
+    }
+
+    // --- WRITER THREAD ---
+
+    private void drainLoop() {
+        while (running || tail.get() != head) {
+            int n = drain();
+            if (n > 0) commit();
+            if (n < batch.assetIds.length) LockSupport.parkNanos(this, flushNanos);
+        }
+    }
+
+    private int drain() {
+        Batch b = batch;
+        b.size = 0;
+        while (b.size < b.assetIds.length) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) break;
+            b.assetIds[b.size] = assetIds[slot];
+            b.timestamps[b.size] = timestamps[slot];
+            b.prices[b.size] = prices[slot];
+            b.demands[b.size] = demands[slot];
+            b.size++;
+            assetIds[slot] = null;
+            sequences.lazySet(slot, head + mask + 1); // hand the slot back to producers
+            head++;
+        }
+        drained = head;
+        return b.size;
+    }
+
+    private void commit() {
+        batch.applied = 0;
+        batch.token = 0;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                sink.commit(batch);
+                committed.add(batch.size);
+                return;
+            } catch (Exception e) {
+                if (attempt == RETRIES) {
+                    failed.add(batch.size);
+                    System.err.println(">>> Tick batch of " + batch.size + " dropped after " + (attempt + 1) + " attempts: " + e);
+                    return;
+                }
+                System.err.println(">>> Tick batch of " + batch.size + " failed, retrying: " + e);
+            }
+            backoff(RETRY_BACKOFF_MS << attempt);
+        }
+    }
+
+    // Only close() stops the writer, and it waits for the retries; an interrupt is cleared and the wait resumed
+    private static void backoff(long millis) {
+        long until = System.nanoTime() + millis * 1_000_000L;
+        for (long left; (left = until - System.nanoTime()) > 0; ) {
+            try {
+                Thread.sleep(left / 1_000_000L, (int) (left % 1_000_000L));
+            } catch (InterruptedException e) {
+                // keep waiting out the backoff
+            }
+        }
+    }
+
+    /** Stops the writer once it has committed what is left in the ring. */
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    public long accepted() { return accepted.sum(); }
+    public long rejected() { return rejected.sum(); }
+    public long committed() { return committed.sum(); }
+    public long failed() { return failed.sum(); }
+    public long pending() { return tail.get() - drained; }
+}
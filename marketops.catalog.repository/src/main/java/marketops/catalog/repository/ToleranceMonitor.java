@@ -0,0 +1,300 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.sse.SseClient;
+import io.javalin.websocket.WsConfig;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates LivePriceTracking tolerance ranges against every MarketAsset price update and streams
+ * the transitions (BREACH when a price leaves a range, RECOVERED when it comes back) to subscribers.
+ *
+ * A monitor applies to an asset when its dataSourceId and modelId (each optional) are the asset id or
+ * a direct lineage parent of it; a monitor with neither applies to every asset. Monitors are indexed
+ * per scope by their sorted lower and upper bounds: between two prices of an asset only the monitors
+ * with a bound in between can change state, so a tick costs two binary searches plus the monitors it
+ * actually flips, however many there are. The index is immutable and rebuilt on the first tick after
+ * monitors change, so a bulk load rebuilds it once.
+ *
+ * Each subscriber has a bounded queue and its own sender thread; the tick path never blocks on a slow
+ * client. When a queue is full the oldest alert is dropped and the subscriber is told how many it missed.
+ */
+public class ToleranceMonitor {
+
+    public static final int QUEUE = 1024;
+    public static final String BREACH = "BREACH", RECOVERED = "RECOVERED", DROPPED = "DROPPED", HEARTBEAT = "HEARTBEAT";
+    private static final long HEARTBEAT_MS = 15_000;
+    private static final String ANY = "\0*"; // scope key of monitors without dataSourceId and modelId
+
+    /** Direct lineage parents of an asset (LineageGraph.parents). */
+    @FunctionalInterface
+    public interface Scopes { List<String> of(String assetId); }
+
+    public static class Alert {
+        public final String type;
+        public final String monitorId;
+        public final String assetId;
+        public final double price;
+        public final Double toleranceRangeStart;
+        public final Double toleranceRangeEnd;
+        public final long timestamp;
+        Alert(String type, Monitor m, String assetId, double price, long timestamp) {
+            this.type = type; this.monitorId = m.id; this.assetId = assetId; this.price = price;
+            this.toleranceRangeStart = m.rangeStart; this.toleranceRangeEnd = m.rangeEnd; this.timestamp = timestamp;
+        }
+    }
+
+    private static final class Monitor {
+        final String id, dataSourceId, modelId;
+        final Double rangeStart, rangeEnd;
+        final double low, high; // open bounds are infinite
+        final long generation;
+
+        Monitor(String id, String dataSourceId, String modelId, Double rangeStart, Double rangeEnd, long generation) {
+            this.id = id; this.dataSourceId = dataSourceId; this.modelId = modelId; this.rangeStart = rangeStart; this.rangeEnd = rangeEnd;
+            this.low = rangeStart == null ? Double.NEGATIVE_INFINITY : rangeStart;
+            this.high = rangeEnd == null ? Double.POSITIVE_INFINITY : rangeEnd;
+            this.generation = generation;
+        }
+
+        String scope() { return dataSourceId != null ? dataSourceId : modelId != null ? modelId : ANY; }
+        boolean inside(double price) { return price >= low && price <= high; }
+
+        // The index scope matched one id; a monitor with both ids also needs the other
+        boolean applies(String assetId, List<String> parents) {
+            return matches(dataSourceId, assetId, parents) && matches(modelId, assetId, parents);
+        }
+
+        private static boolean matches(String id, String assetId, List<String> parents) { return id == null || id.equals(assetId) || parents.contains(id); }
+    }
+
+    /** Monitors of one scope, sorted three ways. */
+    private static final class Scope {
+        final Monitor[] byLow, byHigh, byGeneration;
+        final double[] lows, highs;
+        final long[] generations;
+
+        Scope(List<Monitor> monitors) {
+            byLow = monitors.stream().filter(m -> m.rangeStart != null).sorted(Comparator.comparingDouble(m -> m.low)).toArray(Monitor[]::new);
+            byHigh = monitors.stream().filter(m -> m.rangeEnd != null).sorted(Comparator.comparingDouble(m -> m.high)).toArray(Monitor[]::new);
+            byGeneration = monitors.stream().sorted(Comparator.comparingLong(m -> m.generation)).toArray(Monitor[]::new);
+            lows = Arrays.stream(byLow).mapToDouble(m -> m.low).toArray();
+            highs = Arrays.stream(byHigh).mapToDouble(m -> m.high).toArray();
+            generations = Arrays.stream(byGeneration).mapToLong(m -> m.generation).toArray();
+        }
+    }
+
+    private record Index(long generation, Map<String, Scope> scopes) {}
+
+    /** Last evaluated price of an asset and the index generation it was evaluated against. */
+    private static final class AssetState {
+        double price = Double.NaN;
+        long generation = -1;
+    }
+
+    private final Scopes scopes;
+    private final Map<String, Monitor> monitors = new ConcurrentHashMap<>();
+    private final Map<String, AssetState> assets = new ConcurrentHashMap<>();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Map<String, Subscriber> sockets = new ConcurrentHashMap<>();
+    private long generation;
+    private volatile boolean dirty;
+    private volatile Index index = new Index(0, Map.of());
+
+    public ToleranceMonitor(Scopes scopes) { this.scopes = scopes; }
+
+    // --- MONITORS ---
+
+    /** Adds or replaces a monitor; one without bounds, or with start above end, is dropped. A replaced monitor starts out in range again. */
+    public synchronized void put(String id, String dataSourceId, String modelId, Double rangeStart, Double rangeEnd) {
+        if (id == null) return;
+        if ((rangeStart == null && rangeEnd == null) || (rangeStart != null && rangeEnd != null && rangeStart > rangeEnd)) {
+            if (monitors.remove(id) != null) dirty = true;
+            return;
+        }
+        monitors.put(id, new Monitor(id, dataSourceId, modelId, rangeStart, rangeEnd, ++generation));
+        dirty = true;
+    }
+
+    private Index current() {
+        if (!dirty) return index;
+        synchronized (this) {
+            if (dirty) {
+                dirty = false;
+                Map<String, List<Monitor>> grouped = new HashMap<>();
+                for (Monitor m : monitors.values()) grouped.computeIfAbsent(m.scope(), k -> new ArrayList<>()).add(m);
+                Map<String, Scope> built = new HashMap<>();
+                grouped.forEach((scope, list) -> built.put(scope, new Scope(list)));
+                index = new Index(generation, built);
+            }
+            return index;
+        }
+    }
+
+    // --- TICKS ---
+
+    /** Called after every committed price update of an asset. */
+    public void onPrice(String assetId, long timestamp, double price) { evaluate(assetId, timestamp, price); }
+
+    // The transitions the price caused, already published
+    List<Alert> evaluate(String assetId, long timestamp, double price) {
+        if (assetId == null || Double.isNaN(price) || monitors.isEmpty()) return List.of();
+        List<String> parents = scopes.of(assetId);
+        AssetState state = assets.computeIfAbsent(assetId, k -> new AssetState());
+        List<Alert> alerts = new ArrayList<>(0);
+        synchronized (state) {
+            Index idx = current(); // under the asset's lock, so its generation only moves forward
+            scan(idx.scopes.get(ANY), state, assetId, parents, price, timestamp, alerts);
+            scan(idx.scopes.get(assetId), state, assetId, parents, price, timestamp, alerts);
+            for (String parent : parents) if (!parent.equals(assetId)) scan(idx.scopes.get(parent), state, assetId, parents, price, timestamp, alerts);
+            state.price = price;
+            state.generation = idx.generation;
+            for (Alert a : alerts) publish(a); // enqueue only; keeps an asset's alerts in tick order
+        }
+        return alerts;
+    }
+
+    private static void scan(Scope scope, AssetState state, String assetId, List<String> parents, double price, long timestamp, List<Alert> alerts) {
+        if (scope == null) return;
+        double last = state.price;
+        if (Double.isNaN(last)) {
+            // First price of the asset: every monitor starts out in range, so the breaches are the lower bounds
+            // above the price and the upper bounds below it
+            for (int i = after(scope.lows, price); i < scope.lows.length; i++) emit(BREACH, scope.byLow[i], assetId, parents, price, timestamp, alerts);
+            for (int i = 0, n = atOrAfter(scope.highs, price); i < n; i++) emit(BREACH, scope.byHigh[i], assetId, parents, price, timestamp, alerts);
+            return;
+        }
+        if (price != last) {
+            // Only a lower bound in (lo, hi] or an upper bound in [lo, hi) can be on the other side of the new price
+            double lo = Math.min(last, price), hi = Math.max(last, price);
+            for (int i = after(scope.lows, lo); i < scope.lows.length && scope.lows[i] <= hi; i++) flip(scope.byLow[i], state, assetId, parents, price, timestamp, alerts);
+            for (int i = atOrAfter(scope.highs, lo); i < scope.highs.length && scope.highs[i] < hi; i++) flip(scope.byHigh[i], state, assetId, parents, price, timestamp, alerts);
+        }
+        // Monitors added since the asset was last evaluated start out in range
+        for (int i = after(scope.generations, state.generation); i < scope.byGeneration.length; i++) {
+            Monitor m = scope.byGeneration[i];
+            if (!m.inside(price)) emit(BREACH, m, assetId, parents, price, timestamp, alerts);
+        }
+    }
+
+    private static void flip(Monitor m, AssetState state, String assetId, List<String> parents, double price, long timestamp, List<Alert> alerts) {
+        if (m.generation > state.generation) return; // evaluated with the monitors added since
+        boolean was = m.inside(state.price), now = m.inside(price);
+        // A monitor whose both bounds were crossed shows up twice but stays out of range, so it never flips twice
+        if (was != now) emit(now ? RECOVERED : BREACH, m, assetId, parents, price, timestamp, alerts);
+    }
+
+    private static void emit(String type, Monitor m, String assetId, List<String> parents, double price, long timestamp, List<Alert> alerts) {
+        if (m.applies(assetId, parents)) alerts.add(new Alert(type, m, assetId, price, timestamp));
+    }
+
+    // First index whose value is > x, resp. >= x
+    private static int after(double[] a, double x) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) { int mid = (lo + hi) >>> 1; if (a[mid] <= x) lo = mid + 1; else hi = mid; }
+        return lo;
+    }
+
+    private static int atOrAfter(double[] a, double x) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) { int mid = (lo + hi) >>> 1; if (a[mid] < x) lo = mid + 1; else hi = mid; }
+        return lo;
+    }
+
+    private static int after(long[] a, long x) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) { int mid = (lo + hi) >>> 1; if (a[mid] <= x) lo = mid + 1; else hi = mid; }
+        return lo;
+    }
+
+    // --- SUBSCRIBERS ---
+
+    @FunctionalInterface
+    private interface Sink { void send(String event, Object data) throws Exception; }
+
+    private final class Subscriber implements Runnable {
+        final String assetId, monitorId; // null = all
+        final Sink sink;
+        final ArrayBlockingQueue<Alert> queue = new ArrayBlockingQueue<>(QUEUE);
+        final AtomicLong dropped = new AtomicLong();
+        volatile boolean closed;
+
+        Subscriber(String assetId, String monitorId, Sink sink) { this.assetId = assetId; this.monitorId = monitorId; this.sink = sink; }
+
+        boolean wants(Alert a) { return (assetId == null || assetId.equals(a.assetId)) && (monitorId == null || monitorId.equals(a.monitorId)); }
+
+        // Drop-oldest: the newest state of a range matters more than a backlog the client cannot keep up with
+        void offer(Alert a) {
+            while (!queue.offer(a)) {
+                if (queue.poll() != null) dropped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            long idleSince = System.currentTimeMillis();
+            try {
+                while (!closed) {
+                    Alert a = queue.poll(1, TimeUnit.SECONDS);
+                    long missed = dropped.getAndSet(0);
+                    if (missed > 0) sink.send(DROPPED.toLowerCase(), Map.of("type", DROPPED, "count", missed));
+                    if (a != null) {
+                        sink.send(a.type.toLowerCase(), a);
+                        idleSince = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - idleSince >= HEARTBEAT_MS) {
+                        sink.send(HEARTBEAT.toLowerCase(), Map.of("type", HEARTBEAT, "timestamp", System.currentTimeMillis()));
+                        idleSince = System.currentTimeMillis();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) { /* client gone */ }
+            unsubscribe(this);
+        }
+    }
+
+    private Subscriber subscribe(String assetId, String monitorId, Sink sink, String name) {
+        Subscriber s = new Subscriber(assetId, monitorId, sink);
+        subscribers.add(s);
+        Thread t = new Thread(s, name);
+        t.setDaemon(true);
+        t.start();
+        return s;
+    }
+
+    private void unsubscribe(Subscriber s) {
+        s.closed = true;
+        subscribers.remove(s);
+    }
+
+    private void publish(Alert a) {
+        for (Subscriber s : subscribers) if (s.wants(a)) s.offer(a);
+    }
+
+    /** GET /alerts?assetId=&monitorId= with Accept: text/event-stream; events breach, recovered, dropped and heartbeat. */
+    public void sse(SseClient client) {
+        client.keepAlive();
+        Subscriber s = subscribe(client.ctx().queryParam("assetId"), client.ctx().queryParam("monitorId"), (event, data) -> {
+            client.sendEvent(event, data);
+            if (client.terminated()) throw new IOException("SSE client disconnected");
+        }, "alerts-sse");
+        client.onClose(() -> unsubscribe(s));
+    }
+
+    /** WS /alerts/ws?assetId=&monitorId= : one JSON message per alert, with its type in the message. */
+    public void ws(WsConfig ws) {
+        ws.onConnect(ctx -> sockets.put(ctx.sessionId(), subscribe(ctx.queryParam("assetId"), ctx.queryParam("monitorId"), (event, data) -> ctx.send(data), "alerts-ws")));
+        ws.onClose(ctx -> { Subscriber s = sockets.remove(ctx.sessionId()); if (s != null) unsubscribe(s); });
+        ws.onError(ctx -> { Subscriber s = sockets.remove(ctx.sessionId()); if (s != null) unsubscribe(s); });
+    }
+
+    public Map<String, Integer> stats() {
+        return Map.of("monitors", monitors.size(), "assets", assets.size(), "subscribers", subscribers.size());
+    }
+}
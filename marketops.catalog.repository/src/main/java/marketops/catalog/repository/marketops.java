@@ -36,19 +36,7 @@ public class marketops {
         // Added per command
         public Double demand;
         public Double currentPrice;
-        public List<MarketAssetHistory> history = new ArrayList<>();
-    }
-
-    // Helper for MarketAsset History tracking
-    public static class MarketAssetHistory {
-        public Double price;
-        public Double demand;
-        public long timestamp = System.currentTimeMillis();
-
-        public MarketAssetHistory(Double price, Double demand) {
-            this.price = price;
-            this.demand = demand;
-        }
+        public PriceHistory history = new PriceHistory(); // columnar tick store, serializes as the old list
     }
 
     public static class ETL {
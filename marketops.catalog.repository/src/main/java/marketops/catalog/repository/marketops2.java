@@ -1,17 +1,36 @@
 package marketops.catalog.repository;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.websocket.WsCloseStatus;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class marketops2 {
 
@@ -19,14 +38,45 @@ public class marketops2 {
             .enable(SerializationFeature.INDENT_OUTPUT)
             .setSerializationInclusion(JsonInclude.Include.NON_NULL);
     
-    private static final GovernanceEngine engine = new GovernanceEngine();
-    private static final String STORAGE_DIR = "./market_ops_store/";
+    // Compact form for the write-ahead log and snapshots
+    private static final ObjectMapper walMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    // Snapshots keep asset history as binary columns next to the JSON, and the log as TICK records after it
+    private static final ObjectMapper snapshotMapper = walMapper.copy().addMixIn(MarketAsset.class, WithoutHistory.class);
+    @JsonIgnoreProperties("history") private abstract static class WithoutHistory {}
+
+    static final GovernanceEngine engine = new GovernanceEngine();
+    private static final String STORAGE_DIR = System.getProperty("marketops.store", "./market_ops_store/");
+    private static final long SNAPSHOT_EVERY = 100_000; // log records between snapshots
+    private static CatalogWal wal;
+    // Catalog types by route path and by class; the path is the type tag in log records
+    private static final Map<String, CatalogType<?>> catalogTypes = new LinkedHashMap<>();
+    private static final Map<Class<?>, CatalogType<?>> typesByClass = new HashMap<>();
+    // Ticks land in the in-memory history at once (batched) and are logged with one fsync per batch
+    private static final TickIngest ticks = new TickIngest("tick-writer", 1 << 17, 8_192, 10, marketops2::applyTicks);
+    // Lineage edges for multi-hop queries, kept in step with registered LineageTracking objects
+    private static final LineageGraph lineage = new LineageGraph();
+    // Streaming price/demand statistics, keyed by the engine's lower-cased asset id
+    private static final RollingStats stats = new RollingStats(marketops2::seedStats);
+    // OHLC rollup tiers, seeded from the same history on first query, then per appended tick
+    private static final Candles candles = new Candles(marketops2::seedStats);
+    // LivePriceTracking tolerance ranges, checked on every price update; scoped through lineage parents
+    private static final ToleranceMonitor monitor = new ToleranceMonitor(lineage::parents);
+    // Ordered log of catalog writes and grants, so consumers follow deltas instead of re-listing
+    static final ChangeFeed changes = new ChangeFeed();
+    // Content hashes of stored objects: re-POSTing one unchanged answers 200 without a write
+    private static final ContentHashes upserts = new ContentHashes();
+    // ETags (and 304s) on GET-by-id, which If-Match on POST is checked against; nothing is cached, the store is memory
+    private static final ResponseCache responses = new ResponseCache();
+    // Words of names, descriptions, schemas and equations -> objects; built after recovery, then per write
+    private static final CatalogSearch search = new CatalogSearch();
 
     // --- MODELS ---
     public static class DataSource { public String id; public String name; public String type; public String format; public String connectionData; }
-    public static class MarketAsset { public String id; public String name; public String type; public Double demand; public Double currentPrice; public List<MarketAssetHistory> history = new ArrayList<>(); }
-    public static class MarketAssetHistory { public Double price; public Double demand; public long timestamp = System.currentTimeMillis(); public MarketAssetHistory() {} public MarketAssetHistory(Double p, Double d) { this.price = p; this.demand = d; } }
+    public static class MarketAsset { public String id; public String name; public String type; public Double demand; public Double currentPrice; public PriceHistory history = new PriceHistory(); }
     public static class ETL { public String id; public String name; public String triggerType; public String dataSourceId; public String dataSetId; public String path; public String language; }
+    // dataSourceId -> marketAssetId edge, as in marketops4; a simulation run writes {simulationId}:{distributionId}
+    // records with the distribution as the source and the simulation as the "asset"
     public static class LineageTracking { public String id; public String dataSourceId; public String marketAssetId; public String userId; public String modelRegistryId; public long timestamp = System.currentTimeMillis(); }
     public static class LivePriceTracking { public String id; public String name; public String modelId; public String dataSourceId; public String simulationTrackingId; public Double toleranceRangeStart; public Double toleranceRangeEnd; }
     public static class DataSet { public String id; public String name; public String description; public String schema; public String path; }
@@ -39,10 +89,106 @@ public class marketops2 {
         public User(String username) { this.username = username; } 
     }
 
+    /**
+     * One catalog type as registered by setupCrud: its id accessor and Jackson readers/writers bound
+     * to the class, built once so requests, log records and snapshots skip reflection and type lookup.
+     * The wire forms match ctx.json()/ctx.bodyAsClass() (compact, not indented).
+     */
+    static final class CatalogType<T> {
+        final String path;
+        final Class<T> clazz;
+        private final Function<T, String> id;
+        final ObjectReader bodyReader, walReader;
+        final ObjectWriter wireWriter, walWriter, snapshotWriter;
+        final CatalogMetrics.Timer store, serialize, deserialize;
+
+        CatalogType(String path, Class<T> clazz, Function<T, String> id) {
+            this.path = path;
+            this.clazz = clazz;
+            this.id = id;
+            this.bodyReader = CatalogBulk.reader(clazz);
+            this.wireWriter = CatalogLists.writer(clazz);
+            this.walReader = walMapper.readerFor(clazz);
+            this.walWriter = snapshotMapper.writerFor(clazz); // older PUT records with history still read
+            this.snapshotWriter = snapshotMapper.writerFor(clazz);
+            this.store = CatalogMetrics.DB.timer(clazz.getSimpleName());
+            this.serialize = CatalogMetrics.json(clazz, true);
+            this.deserialize = CatalogMetrics.json(clazz, false);
+        }
+
+        String id(Object obj) { return id.apply(clazz.cast(obj)); }
+
+        T readBody(Context ctx) {
+            long t0 = System.nanoTime();
+            try {
+                return bodyReader.readValue(ctx.bodyInputStream());
+            } catch (IOException e) { throw new BadRequestResponse("Invalid " + path + " body: " + e.getMessage());
+            } finally { deserialize.since(t0); }
+        }
+
+        byte[] write(Object obj) throws IOException {
+            long t0 = System.nanoTime();
+            try { return wireWriter.writeValueAsBytes(obj); } finally { serialize.since(t0); }
+        }
+
+        void respond(Context ctx, int status, Object obj) throws IOException {
+            ctx.status(status).contentType(ContentType.APPLICATION_JSON).result(write(obj));
+        }
+    }
+
+    private static CatalogType<?> typeOf(Object obj) { return typesByClass.get(obj.getClass()); }
+
     // --- GOVERNANCE ENGINE ---
     public static class GovernanceEngine {
         private final Map<String, User> userRegistry = new ConcurrentHashMap<>();
-        private final Map<String, Object> objectStore = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<String, Object> objectStore = new ConcurrentSkipListMap<>(); // id-ordered for keyset paging
+        // Same objects partitioned by concrete type, plus per-type secondary indexes on filterable fields
+        private final Map<Class<?>, ConcurrentSkipListMap<String, Object>> partitions = new ConcurrentHashMap<>();
+        private final Map<Class<?>, Map<String, FieldIndex>> indexes = new ConcurrentHashMap<>();
+        private volatile BiConsumer<String, String> onGrant = (user, permission) -> {};
+
+        /** Object still sitting in a mapped snapshot; decoded on first access and swapped in for itself. */
+        private static final class Lazy {
+            final Class<?> type;
+            final CatalogSnapshot.Section section;
+            final int index;
+            Lazy(Class<?> type, CatalogSnapshot.Section section, int index) { this.type = type; this.section = section; this.index = index; }
+
+            Object decode() {
+                Object obj = fields();
+                if (obj instanceof MarketAsset ma) section.readHistory(index, ma.history);
+                return obj;
+            }
+
+            // The record without its history columns
+            Object fields() {
+                try {
+                    return walMapper.readValue(new ByteBufferBackedInputStream(section.json(index)), type);
+                } catch (IOException e) { throw new UncheckedIOException("Snapshot record " + section.id(index), e); }
+            }
+        }
+
+        /** Exact-match index of one field: value -> ids in id order, and id -> value so stale entries can be removed. */
+        private static final class FieldIndex {
+            final Function<Object, String> field;
+            final Map<String, ConcurrentSkipListSet<String>> idsByValue = new ConcurrentHashMap<>();
+            final Map<String, String> valueById = new ConcurrentHashMap<>();
+            FieldIndex(Function<Object, String> field) { this.field = field; }
+
+            void add(String id, Object obj) { add(id, field.apply(obj)); }
+            void add(String id, String value) {
+                if (value == null) return;
+                valueById.put(id, value);
+                idsByValue.computeIfAbsent(value, v -> new ConcurrentSkipListSet<>()).add(id);
+            }
+            void remove(String id) {
+                String value = valueById.remove(id);
+                if (value == null) return;
+                idsByValue.computeIfPresent(value, (v, ids) -> { ids.remove(id); return ids.isEmpty() ? null : ids; });
+            }
+            NavigableSet<String> ids(String value) { NavigableSet<String> ids = idsByValue.get(value); return ids != null ? ids : EMPTY_IDS; }
+        }
+        private static final NavigableSet<String> EMPTY_IDS = Collections.unmodifiableNavigableSet(new TreeSet<>());
 
         public void addUser(String name) { userRegistry.putIfAbsent(name.toLowerCase(), new User(name.toLowerCase())); }
         
@@ -52,9 +198,151 @@ public class marketops2 {
             userRegistry.get(username.toLowerCase()).permissions.add(permission.toUpperCase());
         }
 
-        public void registerObject(String id, Object obj) { if (id != null) objectStore.put(id.toLowerCase(), obj); }
-        public Object getObject(String id) { return objectStore.get(id.toLowerCase()); }
-        public List<Object> getAllByClass(Class<?> clazz) { return objectStore.values().stream().filter(clazz::isInstance).collect(Collectors.toList()); }
+        /** Declares a secondary index; must be called before objects of that type are registered. */
+        @SuppressWarnings("unchecked")
+        public <T> void addIndex(Class<T> clazz, String fieldName, Function<T, String> field) {
+            indexes.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>()).put(fieldName, new FieldIndex((Function<Object, String>) field));
+        }
+
+        // Writers are serialized so the partition and indexes never disagree; readers stay lock-free
+        public synchronized void registerObject(String id, Object obj) {
+            if (id == null) return;
+            String key = id.toLowerCase();
+            unlink(key, objectStore.put(key, obj));
+            partition(obj.getClass()).put(key, obj);
+            for (FieldIndex idx : indexesOf(obj.getClass()).values()) idx.add(key, obj);
+        }
+
+        /**
+         * Registers every record of a mapped snapshot section without decoding it; indexes are rebuilt
+         * from the attribute values stored alongside each record.
+         */
+        public synchronized void registerSnapshot(Class<?> clazz, CatalogSnapshot.Section section) {
+            ConcurrentSkipListMap<String, Object> store = partition(clazz);
+            Map<String, FieldIndex> typeIndexes = indexesOf(clazz);
+            for (int i = 0; i < section.size(); i++) {
+                String key = section.id(i);
+                Lazy lazy = new Lazy(clazz, section, i);
+                unlink(key, objectStore.put(key, lazy));
+                store.put(key, lazy);
+                for (Map.Entry<String, FieldIndex> idx : typeIndexes.entrySet()) idx.getValue().add(key, section.attribute(i, idx.getKey()));
+            }
+        }
+
+        // Drops what the replaced object left in its partition and indexes
+        private void unlink(String key, Object old) {
+            if (old == null) return;
+            Class<?> type = old instanceof Lazy lazy ? lazy.type : old.getClass();
+            partition(type).remove(key);
+            for (FieldIndex idx : indexesOf(type).values()) idx.remove(key);
+        }
+
+        // Decodes outside the lock; the swap is checked so a concurrent registerObject wins
+        private Object resolve(String key, Object value) {
+            while (value instanceof Lazy lazy) {
+                Object obj = lazy.decode();
+                synchronized (this) {
+                    value = objectStore.get(key);
+                    if (value == lazy) {
+                        objectStore.put(key, obj);
+                        partition(lazy.type).put(key, obj);
+                        return obj;
+                    }
+                }
+            }
+            return value;
+        }
+
+        public Object getObject(String id) { String key = id.toLowerCase(); return resolve(key, objectStore.get(key)); }
+        public List<Object> getAllByClass(Class<?> clazz) { return streamByClass(clazz, null).collect(Collectors.toList()); }
+
+        /** Lazily walks objects of a type in id order, starting after the given id (null for the beginning). */
+        public <T> Stream<T> streamByClass(Class<T> clazz, String afterId) {
+            ConcurrentSkipListMap<String, Object> store = partition(clazz);
+            Map<String, Object> tail = afterId == null ? store : store.tailMap(afterId.toLowerCase(), false);
+            return tail.entrySet().stream().map(e -> resolve(e.getKey(), e.getValue())).filter(clazz::isInstance).map(clazz::cast);
+        }
+
+        /** Objects of a type already decoded; records still in the snapshot are skipped. */
+        public <T> Stream<T> residentByClass(Class<T> clazz) {
+            return partition(clazz).values().stream().filter(clazz::isInstance).map(clazz::cast);
+        }
+
+        /** Read-only walk of a type's fields: records still in the snapshot are decoded without history and stay there. */
+        public <T> Stream<T> scanByClass(Class<T> clazz) {
+            return partition(clazz).values().stream().map(obj -> obj instanceof Lazy lazy ? lazy.fields() : obj).filter(clazz::isInstance).map(clazz::cast);
+        }
+
+        /**
+         * Objects of a type whose indexed fields equal all the given values, in id order after afterId.
+         * Walks the smallest matching id set and checks the other fields, so cost follows the matches.
+         */
+        public <T> Stream<T> query(Class<T> clazz, Map<String, String> filters, String afterId) {
+            Map<String, FieldIndex> typeIndexes = indexesOf(clazz);
+            NavigableSet<String> smallest = null;
+            for (Map.Entry<String, String> f : filters.entrySet()) {
+                FieldIndex idx = typeIndexes.get(f.getKey());
+                if (idx == null) throw new IllegalArgumentException("Not a filterable field of " + clazz.getSimpleName() + ": " + f.getKey());
+                NavigableSet<String> ids = idx.ids(f.getValue());
+                if (smallest == null || ids.size() < smallest.size()) smallest = ids;
+            }
+            if (smallest == null) return streamByClass(clazz, afterId);
+            NavigableSet<String> tail = afterId == null ? smallest : smallest.tailSet(afterId.toLowerCase(), false);
+            ConcurrentSkipListMap<String, Object> store = partition(clazz);
+            return tail.stream()
+                    .map(id -> resolve(id, store.get(id)))
+                    .filter(obj -> clazz.isInstance(obj) && filters.entrySet().stream()
+                            .allMatch(f -> f.getValue().equals(typeIndexes.get(f.getKey()).field.apply(obj))))
+                    .map(clazz::cast);
+        }
+
+        /** History length of every MarketAsset, without decoding the ones still in the snapshot. */
+        public Map<String, Long> historySizes() {
+            Map<String, Long> sizes = new HashMap<>();
+            partition(MarketAsset.class).forEach((id, obj) ->
+                    sizes.put(id, (long) (obj instanceof Lazy lazy ? lazy.section.ticks(lazy.index) : ((MarketAsset) obj).history.size())));
+            return sizes;
+        }
+
+        public Map<Class<?>, Integer> sizeByClass() {
+            Map<Class<?>, Integer> sizes = new HashMap<>();
+            partitions.forEach((clazz, store) -> sizes.put(clazz, store.size()));
+            return sizes;
+        }
+
+        /**
+         * Writes one snapshot section per type in id order, with the indexed field values next to each
+         * record. Objects never decoded since the last snapshot are copied over from it raw.
+         */
+        public void writeSnapshot(CatalogSnapshot.Writer out, Function<Class<?>, String> typeName, SnapshotEncoder encode) throws IOException {
+            for (Map.Entry<Class<?>, ConcurrentSkipListMap<String, Object>> partition : partitions.entrySet()) {
+                Class<?> clazz = partition.getKey();
+                if (partition.getValue().isEmpty()) continue;
+                List<String> fields = new ArrayList<>(new TreeSet<>(indexesOf(clazz).keySet()));
+                out.type(typeName.apply(clazz), fields);
+                String[] attrs = new String[fields.size()];
+                for (Map.Entry<String, Object> e : partition.getValue().entrySet()) {
+                    Object obj = e.getValue();
+                    if (obj instanceof Lazy lazy) { out.copy(lazy.section, lazy.index); continue; }
+                    for (int a = 0; a < attrs.length; a++) attrs[a] = indexesOf(clazz).get(fields.get(a)).field.apply(obj);
+                    out.put(e.getKey(), encode.encode(obj), attrs, obj instanceof MarketAsset ma ? ma.history : null);
+                }
+            }
+            forEachPermission(out::grant);
+        }
+
+        @FunctionalInterface
+        public interface SnapshotEncoder { byte[] encode(Object obj) throws IOException; }
+
+        public void forEachPermission(BiConsumer<String, String> action) {
+            userRegistry.forEach((name, u) -> new ArrayList<>(u.permissions).forEach(p -> action.accept(name, p)));
+        }
+
+        /** Called for every grant made through executeGrant (not for forceGrant bootstrapping). */
+        public void onGrant(BiConsumer<String, String> listener) { this.onGrant = listener; }
+
+        private ConcurrentSkipListMap<String, Object> partition(Class<?> clazz) { return partitions.computeIfAbsent(clazz, c -> new ConcurrentSkipListMap<>()); }
+        private Map<String, FieldIndex> indexesOf(Class<?> clazz) { return indexes.getOrDefault(clazz, Collections.emptyMap()); }
 
         public String executeGrant(String command) {
             try {
@@ -65,6 +353,7 @@ public class marketops2 {
                     String target = parts[parts.length - 3].toUpperCase(); 
 
                     forceGrant(username, action + ":" + target);
+                    onGrant.accept(username, action + ":" + target);
                     return "SUCCESS: Granted " + action + " on " + target + " to " + username;
                 }
             } catch (Exception e) { return "ERROR: Invalid syntax."; }
@@ -85,59 +374,408 @@ public class marketops2 {
         }
     }
 
-    public static void main(String[] args) {
-        new File(STORAGE_DIR).mkdirs();
-        
+    public static void main(String[] args) throws IOException {
         // BOOTSTRAP: Direct injection to ensure admin_user works immediately
         engine.forceGrant("admin_user", "ADMIN:ALL");
         engine.addUser("data_scientist");
 
-        Javalin app = Javalin.create(config -> { config.showJavalinBanner = false; }).start(7000);
+        // Fields the list endpoints can filter on (?type=stock, ?dataSourceId=..., ...)
+        engine.addIndex(MarketAsset.class, "type", ma -> ma.type);
+        engine.addIndex(ETL.class, "dataSourceId", etl -> etl.dataSourceId);
+        engine.addIndex(LineageTracking.class, "marketAssetId", lt -> lt.marketAssetId);
+        engine.addIndex(DataSet.class, "name", ds -> ds.name);
+
+        // Text fields /catalog/search matches, name first
+        search.type("data-sources", DataSource.class, "name");
+        search.type("market-assets", MarketAsset.class, "name");
+        search.type("data-sets", DataSet.class, "name", "description", "schema");
+        search.type("etl", ETL.class, "name");
+        search.type("models", ModelRegistry.class, "modelName", "description");
+        search.type("distributions", DistributionRegistry.class, "factorName");
+        search.type("simulations", SimulationTracking.class, "name", "equation");
+        search.type("price-monitors", LivePriceTracking.class, "name");
+
+        Javalin app = Javalin.create(config -> { config.showJavalinBanner = false; CatalogMetrics.install(config); });
+
+        setupCrud(app, "market-assets", MarketAsset.class, ma -> ma.id);
+        setupCrud(app, "data-sources", DataSource.class, ds -> ds.id);
+        setupCrud(app, "data-sets", DataSet.class, ds -> ds.id);
+        setupCrud(app, "etl", ETL.class, etl -> etl.id);
+        setupCrud(app, "lineage", LineageTracking.class, lt -> lt.id);
+        setupCrud(app, "models", ModelRegistry.class, m -> m.id);
+        setupCrud(app, "distributions", DistributionRegistry.class, d -> d.id);
+        setupCrud(app, "simulations", SimulationTracking.class, sim -> sim.id);
+        setupCrud(app, "price-monitors", LivePriceTracking.class, lpt -> lpt.id);
+
+        app.post("/catalog/market-assets/{id}/ticks", ctx -> {
+            if (!authorize(ctx, "ADMIN")) return;
+            if (!(engine.getObject(ctx.pathParam("id")) instanceof MarketAsset)) { ctx.status(404).result("Not Found"); return; }
+            int accepted;
+            try {
+                accepted = ticks.offerJson(ctx.pathParam("id"), ctx.bodyInputStream());
+            } catch (IOException e) { throw new BadRequestResponse("Invalid ticks: " + e.getMessage()); }
+            if (accepted < 0) ctx.status(503).result("Tick buffer full, retry later");
+            else ctx.status(202).json(Map.of("accepted", accepted));
+        });
+        app.ws("/ticks", ws -> {
+            ws.onConnect(ctx -> {
+                if (!engine.hasAccess(ctx.header("X-User"), "ADMIN", "ALL")) ctx.closeSession(WsCloseStatus.POLICY_VIOLATION, "Access Denied");
+            });
+            ws.onMessage(ctx -> {
+                StringBuilder errors = new StringBuilder();
+                if (ticks.offerLines(ctx.message(), id -> engine.getObject(id) instanceof MarketAsset, errors) < 0) errors.append("BUSY\n");
+                if (errors.length() > 0) ctx.send(errors.toString());
+            });
+        });
 
-        setupCrud(app, "market-assets", MarketAsset.class);
-        setupCrud(app, "data-sources", DataSource.class);
-        setupCrud(app, "data-sets", DataSet.class);
-        setupCrud(app, "models", ModelRegistry.class);
-        setupCrud(app, "distributions", DistributionRegistry.class);
-        setupCrud(app, "simulations", SimulationTracking.class);
+        app.get("/catalog/market-assets/{id}/stats", ctx -> stats.serve(ctx, ctx.pathParam("id").toLowerCase()));
+        app.get("/catalog/market-assets/{id}/candles", ctx -> candles.serve(ctx, ctx.pathParam("id").toLowerCase()));
+        app.post("/catalog/simulations/{id}/run", ctx -> {
+            if (!authorize(ctx, "ADMIN")) return;
+            if (!(engine.getObject(ctx.pathParam("id")) instanceof SimulationTracking sim)) { ctx.status(404).result("Not Found"); return; }
+            SimulationRunner.Result result = SimulationRunner.run(ctx, sim.id, sim.equation, sim.distributionMapping,
+                    id -> engine.getObject(id) instanceof DistributionRegistry d ? SimulationRunner.sampler(d.id, d.signalType, d.statistics) : null);
+            recordRun(result, ctx.header("X-User"));
+            ctx.json(result);
+        });
+        app.sse("/alerts", monitor::sse);
+        app.ws("/alerts/ws", monitor::ws);
+        changes.routes(app);
+        search.routes(app);
+        app.get("/lineage/{id}/upstream", ctx -> lineage.serve(ctx, false));
+        app.get("/lineage/{id}/downstream", ctx -> lineage.serve(ctx, true));
 
         app.post("/governance/grant", ctx -> { ctx.result(engine.executeGrant(ctx.queryParam("cmd"))); });
-        
+        CatalogMetrics.routes(app);
+        CatalogMetrics.gauge("marketops_catalog_objects", "Objects in the catalog store by type", new String[] { "type" },
+                sink -> engine.sizeByClass().forEach((clazz, n) -> sink.sample(n, clazz.getSimpleName())));
+        CatalogMetrics.historyRows(engine::historySizes);
+        changes.metrics();
+        upserts.metrics();
+        responses.metrics();
+        search.metrics();
+        ColdHistory.metrics();
+
+        recover();
+        app.start(7000);
+
         System.out.println("\n>>> Market Ops Ready. Login with Header 'X-User: admin_user'");
     }
 
-    private static <T> void setupCrud(Javalin app, String path, Class<T> clazz) {
+    // --- PERSISTENCE ---
+
+    /** Rebuilds the engine from snapshot + log before the server takes traffic, then keeps snapshotting. */
+    static void recover() throws IOException {
+        long start = System.nanoTime();
+        wal = new CatalogWal(Paths.get(STORAGE_DIR));
+        long records = wal.recover(new CatalogWal.Replay() {
+            @Override public void snapshot(CatalogSnapshot snapshot) {
+                for (CatalogSnapshot.Section section : snapshot.sections()) {
+                    CatalogType<?> type = catalogTypes.get(section.type);
+                    if (type == null) { System.err.println(">>> Snapshot: skipping section of unknown type " + section.type); continue; }
+                    engine.registerSnapshot(type.clazz, section);
+                }
+                snapshot.forEachGrant(engine::forceGrant);
+            }
+            @Override public void put(String type, String id, byte[] json) throws IOException {
+                CatalogType<?> catalogType = catalogTypes.get(type);
+                if (catalogType == null) { System.err.println(">>> WAL: skipping record of unknown type " + type); return; }
+                Object obj = catalogType.walReader.readValue(json);
+                if (obj instanceof MarketAsset ma && ma.history.isEmpty() && engine.getObject(id) instanceof MarketAsset stored) ma.history = stored.history;
+                engine.registerObject(id, obj);
+            }
+            @Override public void tick(String assetId, int index, long timestamp, double price, double demand) {
+                if (!(engine.getObject(assetId) instanceof MarketAsset ma)) return;
+                PriceHistory h = ma.history;
+                if (h.holds(index, timestamp, price, demand)) return; // a snapshot may hold the first ticks after it
+                h.append(timestamp, price, Double.isNaN(demand) ? null : demand);
+                ma.currentPrice = price;
+                if (!Double.isNaN(demand)) ma.demand = demand;
+            }
+            @Override public void grant(String username, String permission) { engine.forceGrant(username, permission); }
+        });
+        if (records == 0) records = importLegacyFiles();
+        engine.streamByClass(LineageTracking.class, null).forEach(marketops2::track);
+        engine.streamByClass(LivePriceTracking.class, null).forEach(marketops2::watch);
+        System.out.printf(">>> Recovered %d records in %d ms%n", records, (System.nanoTime() - start) / 1_000_000);
+        long indexed = System.nanoTime();
+        for (CatalogType<?> type : catalogTypes.values()) engine.scanByClass(type.clazz).forEach(search::put);
+        System.out.printf(">>> Search index %s built in %d ms%n", search.stats(), (System.nanoTime() - indexed) / 1_000_000);
+
+        engine.onGrant((user, permission) -> {
+            try { wal.awaitDurable(wal.appendGrant(user, permission)); } catch (IOException e) { throw new UncheckedIOException(e); }
+            changes.granted(user, permission);
+        });
+        ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshots.scheduleWithFixedDelay(() -> {
+            if (wal.recordsSinceSnapshot() < SNAPSHOT_EVERY) return;
+            try {
+                long t0 = System.nanoTime();
+                wal.snapshot(out -> engine.writeSnapshot(out, clazz -> typesByClass.get(clazz).path, obj -> typeOf(obj).snapshotWriter.writeValueAsBytes(obj)));
+                System.out.printf(">>> Snapshot written in %d ms%n", (System.nanoTime() - t0) / 1_000_000);
+            } catch (IOException | RuntimeException e) { System.err.println(">>> Snapshot failed: " + e); }
+        }, 1, 1, TimeUnit.MINUTES);
+        // History of assets still in the snapshot is off-heap already; only decoded assets are sealed
+        if (ColdHistory.SEAL_IN_MEMORY) ColdHistory.schedule("memory", () -> {
+            long cutoff = System.currentTimeMillis() - ColdHistory.COLD_AFTER_MS;
+            engine.residentByClass(MarketAsset.class).forEach(ma -> ma.history.seal(cutoff));
+        });
+    }
+
+    // One-time import of the old one-file-per-id store. Files are named {id}.json and record no type, so a file
+    // is imported as the type that declares all its fields and at least one that no other type has; files that
+    // fit no type that way (e.g. {"id":..,"name":..} alone) are reported and left for a manual POST.
+    private static long importLegacyFiles() throws IOException {
+        File[] files = new File(STORAGE_DIR).listFiles((d, name) -> name.endsWith(".json"));
+        if (files == null) return 0;
+        Map<CatalogType<?>, Set<String>> fields = new LinkedHashMap<>();
+        for (CatalogType<?> type : catalogTypes.values()) {
+            Set<String> names = new HashSet<>();
+            for (java.lang.reflect.Field field : type.clazz.getFields()) if (!java.lang.reflect.Modifier.isStatic(field.getModifiers())) names.add(field.getName());
+            fields.put(type, names);
+        }
+        long imported = 0;
+        for (File f : files) {
+            Object obj;
+            CatalogType<?> type;
+            try {
+                JsonNode tree = mapper.readTree(f);
+                Set<String> keys = new HashSet<>();
+                if (tree != null && tree.isObject()) tree.fieldNames().forEachRemaining(keys::add);
+                type = null;
+                for (Map.Entry<CatalogType<?>, Set<String>> e : fields.entrySet()) {
+                    if (!e.getValue().containsAll(keys)) continue;
+                    for (String key : keys) {
+                        if (fields.values().stream().noneMatch(other -> other != e.getValue() && other.contains(key))) { type = e.getKey(); break; }
+                    }
+                }
+                if (type == null) { System.err.println(">>> Legacy file " + f.getName() + " skipped: no catalog type owns its fields " + new TreeSet<>(keys)); continue; }
+                obj = mapper.treeToValue(tree, type.clazz);
+            } catch (IOException e) { System.err.println(">>> Legacy file " + f.getName() + " skipped: " + e.getMessage()); continue; }
+            String id = type.id(obj);
+            if (id == null) continue;
+            engine.registerObject(id, obj);
+            long last = wal.appendPut(type.path, id, type.walWriter.writeValueAsBytes(obj));
+            if (obj instanceof MarketAsset ma) {
+                PriceHistory h = ma.history;
+                for (int i = 0; i < h.size(); i++) last = wal.appendTick(id, i, h.timestampAt(i), h.priceAt(i), h.demandAt(i));
+            }
+            wal.awaitDurable(last);
+            imported++;
+        }
+        return imported;
+    }
+
+    /** Logs the object and waits for its fsync; concurrent writers share fsyncs. */
+    static void persist(String id, Object obj) throws IOException { wal.awaitDurable(log(id, obj)); }
+
+    private static long log(String id, Object obj) throws IOException {
+        CatalogType<?> type = typeOf(obj);
+        return wal.appendPut(type.path, id, type.walWriter.writeValueAsBytes(obj));
+    }
+
+    static <T> void setupCrud(Javalin app, String path, Class<T> clazz, Function<T, String> idOf) {
         String fullPath = "/catalog/" + path;
+        CatalogType<T> type = new CatalogType<>(path, clazz, idOf);
+        catalogTypes.put(path, type);
+        typesByClass.put(clazz, type);
 
         app.post(fullPath, ctx -> {
             if (!authorize(ctx, "ADMIN")) return;
-            T item = ctx.bodyAsClass(clazz);
-            String id = getEntityId(item);
-            if (item instanceof MarketAsset) {
-                MarketAsset ma = (MarketAsset) item;
-                ma.history.add(new MarketAssetHistory(ma.currentPrice, ma.demand));
+            T item = type.readBody(ctx);
+            String id = idOf.apply(item);
+            if (id == null) throw new BadRequestResponse("Missing id");
+            byte[] content = type.write(item);
+            long hash = ContentHashes.hash(content);
+            String ifMatch = ctx.header(Header.IF_MATCH);
+            if (ifMatch == null) { upsert(ctx, type, id, item, content, hash); return; }
+            synchronized (type) { // conditional writes of a type take turns, so the ETag cannot move between check and write
+                Object current = engine.getObject(id);
+                String etag = current == null ? null : ResponseCache.etag(typeOf(current).write(current));
+                if (!ResponseCache.ifMatch(ifMatch, etag)) {
+                    upserts.preconditionFailed(clazz);
+                    if (etag != null) ctx.header(Header.ETAG, etag);
+                    ctx.status(HttpStatus.PRECONDITION_FAILED).result("Precondition Failed");
+                    return;
+                }
+                upsert(ctx, type, id, item, content, hash);
+            }
+        });
+
+        app.post(fullPath + "/bulk", ctx -> {
+            if (!authorize(ctx, "ADMIN")) return;
+            CatalogBulk.Reader<T> reader = CatalogBulk.read(ctx, type.bodyReader);
+            List<CatalogBulk.Result> results = new ArrayList<>();
+            for (List<T> chunk = reader.next(); !chunk.isEmpty(); chunk = reader.next()) {
+                long t0 = System.nanoTime(), last = 0;
+                Map<String, Long> written = new LinkedHashMap<>();
+                List<T> stored = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    T item = chunk.get(i);
+                    String id = idOf.apply(item);
+                    if (id == null) { results.add(new CatalogBulk.Result(reader.firstIndex() + i, null, 400, "Missing id")); continue; }
+                    long hash = ContentHashes.hash(type.write(item));
+                    if (upserts.unchanged(clazz, id, hash)) { results.add(new CatalogBulk.Result(reader.firstIndex() + i, id, 200, null)); continue; }
+                    boolean update = engine.getObject(id) != null;
+                    if (item instanceof MarketAsset ma) adoptHistory(id, ma);
+                    engine.registerObject(id, item);
+                    last = log(id, item);
+                    if (item instanceof MarketAsset ma) last = appendTick(id, ma);
+                    if (item instanceof LineageTracking lt) track(lt);
+                    if (item instanceof LivePriceTracking lpt) watch(lpt);
+                    written.put(id, hash);
+                    stored.add(item);
+                    results.add(new CatalogBulk.Result(reader.firstIndex() + i, id, update ? 200 : 201, null));
+                }
+                if (!written.isEmpty()) wal.awaitDurable(last); // one fsync wait per chunk
+                type.store.since(t0);
+                written.forEach((id, hash) -> { upserts.stored(clazz, id, hash); changes.changed(path, id); });
+                stored.forEach(search::put);
+                for (T item : stored) if (item instanceof MarketAsset ma) checkPrice(ma);
             }
-            engine.registerObject(id, item);
-            persist(id, item);
-            ctx.status(201).json(item);
+            if (reader.error() != null) results.add(reader.error());
+            ctx.json(results);
         });
 
-        app.get(fullPath, ctx -> ctx.json(engine.getAllByClass(clazz)));
-        app.get(fullPath + "/{id}", ctx -> {
-            Object obj = engine.getObject(ctx.pathParam("id"));
-            if (obj != null) ctx.json(obj); else ctx.status(404).result("Not Found");
+        app.get(fullPath, ctx -> {
+            CatalogLists.Page page = CatalogLists.page(ctx);
+            Map<String, String> filters = new HashMap<>();
+            ctx.queryParamMap().forEach((name, values) -> { if (!CatalogLists.PARAMS.contains(name)) filters.put(name, values.get(0)); });
+            Stream<T> rows;
+            try {
+                rows = engine.query(clazz, filters, page.after);
+            } catch (IllegalArgumentException e) { throw new BadRequestResponse(e.getMessage()); }
+            CatalogLists.write(ctx, type.wireWriter, (page.limit > 0 ? rows.limit(page.limit) : rows).iterator(), row -> {});
         });
+        app.get(fullPath + "/{id}", ctx -> responses.serve(ctx, clazz, ctx.pathParam("id"), () -> {
+            Object obj = engine.getObject(ctx.pathParam("id"));
+            return obj == null ? null : typeOf(obj).write(obj);
+        }));
+    }
+
+    // Content already stored answers 200 without a write; anything else is registered, logged and fsynced
+    private static <T> void upsert(Context ctx, CatalogType<T> type, String id, T item, byte[] content, long hash) throws IOException {
+        if (upserts.unchanged(type.clazz, id, hash)) {
+            ctx.status(200).contentType(ContentType.APPLICATION_JSON).result(content);
+            return;
+        }
+        if (item instanceof MarketAsset ma) adoptHistory(id, ma);
+        long t0 = System.nanoTime();
+        engine.registerObject(id, item);
+        long last = log(id, item);
+        if (item instanceof MarketAsset ma) last = appendTick(id, ma);
+        wal.awaitDurable(last);
+        type.store.since(t0);
+        upserts.stored(type.clazz, id, hash);
+        changes.changed(type.path, id);
+        search.put(item);
+        if (item instanceof LineageTracking lt) track(lt);
+        if (item instanceof LivePriceTracking lpt) watch(lpt);
+        if (item instanceof MarketAsset ma) checkPrice(ma);
+        type.respond(ctx, 201, item);
+    }
+
+    // History is server-maintained, as in marketops4: the posted list is ignored and an update keeps the stored ticks
+    private static void adoptHistory(String id, MarketAsset ma) {
+        ma.history = engine.getObject(id) instanceof MarketAsset stored ? stored.history : new PriceHistory();
+    }
+
+    // Each post adds a tick; the asset record is logged without history, so the tick follows it as its own record
+    private static long appendTick(String id, MarketAsset ma) throws IOException {
+        PriceHistory h = ma.history;
+        int seq;
+        long last;
+        synchronized (h) { // index order is log order
+            seq = h.append(ma.currentPrice, ma.demand);
+            last = wal.appendTick(id, seq, h.timestampAt(seq), h.priceAt(seq), h.demandAt(seq));
+        }
+        stats.update(id.toLowerCase(), seq, h.timestampAt(seq), h.priceAt(seq), h.demandAt(seq));
+        candles.update(id.toLowerCase(), seq, h.timestampAt(seq), h.priceAt(seq), h.demandAt(seq));
+        return last;
+    }
+
+    private static void recordRun(SimulationRunner.Result run, String user) throws IOException {
+        long last = 0;
+        for (String distributionId : new LinkedHashSet<>(run.inputs.values())) {
+            LineageTracking lt = new LineageTracking();
+            lt.id = run.simulationId + ":" + distributionId;
+            lt.dataSourceId = distributionId;
+            lt.marketAssetId = run.simulationId;
+            lt.userId = user;
+            engine.registerObject(lt.id, lt);
+            last = log(lt.id, lt);
+            track(lt);
+        }
+        wal.awaitDurable(last);
+        for (String distributionId : new LinkedHashSet<>(run.inputs.values())) {
+            upserts.forget(LineageTracking.class, run.simulationId + ":" + distributionId);
+            changes.changed("lineage", run.simulationId + ":" + distributionId);
+        }
+    }
+
+    private static void watch(LivePriceTracking lpt) { monitor.put(lpt.id, lpt.dataSourceId, lpt.modelId, lpt.toleranceRangeStart, lpt.toleranceRangeEnd); }
+
+    private static void checkPrice(MarketAsset ma) {
+        if (ma.currentPrice != null && !ma.history.isEmpty()) monitor.onPrice(ma.id, ma.history.timestampAt(ma.history.size() - 1), ma.currentPrice);
+    }
+
+    private static void track(LineageTracking lt) {
+        if (lt.id != null) lineage.record(lt.id.toLowerCase(), lt.dataSourceId, lt.marketAssetId, lt.modelRegistryId, lt.userId);
     }
 
     private static boolean authorize(Context ctx, String action) {
+        long t0 = System.nanoTime();
         String user = ctx.header("X-User");
-        if (user != null && engine.hasAccess(user, action, "ALL")) return true;
-        
+        boolean allowed = user != null && engine.hasAccess(user, action, "ALL");
+        CatalogMetrics.auth(t0, allowed);
+        if (allowed) return true;
+
         String perms = (user != null) ? engine.getPermissions(user).toString() : "No Header";
         ctx.status(403).result("Access Denied for user: " + user + ". Permissions: " + perms);
         return false;
     }
 
-    private static void persist(String id, Object obj) { try { mapper.writeValue(new File(STORAGE_DIR + id + ".json"), obj); } catch (Exception e) {} }
-    private static String getEntityId(Object obj) { try { return (String) obj.getClass().getField("id").get(obj); } catch (Exception e) { return UUID.randomUUID().toString(); } }
+    // Ticks go into memory before the log is durable, so a retried batch resumes where it stopped
+    private static void applyTicks(TickIngest.Batch batch) throws IOException {
+        long last = batch.token;
+        for (int i = batch.applied; i < batch.size; i++) {
+            if (!(engine.getObject(batch.assetIds[i]) instanceof MarketAsset ma)) continue;
+            double demand = batch.demands[i];
+            PriceHistory h = ma.history;
+            long timestamp;
+            int seq;
+            synchronized (h) { // index order is log order, as in appendTick
+                // Log the timestamp as stored (the history clamps late ticks) so replay is exact
+                timestamp = h.isEmpty() ? batch.timestamps[i] : Math.max(batch.timestamps[i], h.timestampAt(h.size() - 1));
+                seq = h.size();
+                last = wal.appendTick(ma.id, seq, timestamp, batch.prices[i], demand);
+                h.append(timestamp, batch.prices[i], Double.isNaN(demand) ? null : demand);
+            }
+            batch.timestamps[i] = timestamp; // alerts below, and on a retry, report the stored time
+            batch.applied = i + 1;
+            batch.token = last;
+            stats.update(ma.id.toLowerCase(), seq, timestamp, batch.prices[i], demand);
+            candles.update(ma.id.toLowerCase(), seq, timestamp, batch.prices[i], demand);
+            ma.currentPrice = batch.prices[i];
+            if (!Double.isNaN(demand)) ma.demand = demand;
+            upserts.forget(MarketAsset.class, ma.id); // the stored asset moved on from what was posted
+        }
+        wal.awaitDurable(last);
+        // Alerts go out once the ticks are durable
+        for (int i = 0; i < batch.size; i++) {
+            if (engine.getObject(batch.assetIds[i]) instanceof MarketAsset ma) monitor.onPrice(ma.id, batch.timestamps[i], batch.prices[i]);
+        }
+    }
+
+    // The history index is the tick sequence, so ticks appended while seeding are not counted twice
+    private static boolean seedStats(String assetId, RollingStats.TickSink sink) {
+        if (!(engine.getObject(assetId) instanceof MarketAsset ma)) return false;
+        int[] seq = { 0 };
+        ma.history.forEachIndex(0, ma.history.size(), (timestamp, price, demand) -> sink.accept(seq[0]++, timestamp, price, demand));
+        return true;
+    }
 }
\ No newline at end of file
@@ -7,15 +7,19 @@ import jakarta.persistence.*;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.query.Query;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class marketops3 {
 
     private static SessionFactory sessionFactory;
+    // Ordered log of catalog writes and grants, so consumers follow deltas instead of re-listing
+    private static final ChangeFeed changes = new ChangeFeed();
 
     // --- ENTITIES (Models) ---
 
@@ -35,15 +39,16 @@ public class marketops3 {
         public Double currentPrice;
         public Double demand;
         
-        @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+        @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY) @BatchSize(size = CatalogLists.FETCH_SIZE)
         @JoinColumn(name = "asset_id")
         public List<MarketAssetHistory> history = new ArrayList<>();
     }
 
     @Entity @Table(name = "market_history")
     public static class MarketAssetHistory {
-        @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
-        public Long internalId;
+        @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "market_history_seq")
+        @SequenceGenerator(name = "market_history_seq", sequenceName = "market_history_seq", allocationSize = 50)
+        public Long internalId; // same sequence as marketops4; ServerConfig.alignHistorySequence moves it past pre-existing rows
         public Double price;
         public Double demand;
         public long timestamp = System.currentTimeMillis();
@@ -69,7 +74,11 @@ public class marketops3 {
         // Hibernate settings
         cfg.setProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
         cfg.setProperty("hibernate.hbm2ddl.auto", "update"); // Automatically creates tables
-        cfg.setProperty("hibernate.show_sql", "true");
+        cfg.setProperty("hibernate.show_sql", System.getProperty("hibernate.show_sql", "false"));
+        cfg.setProperty("hibernate.jdbc.batch_size", "50"); // cascaded history inserts go out as one batch
+        cfg.setProperty("hibernate.order_inserts", "true");
+        ServerConfig.pool(cfg, "marketops3");
+        cfg.setProperty("hibernate.cache.use_second_level_cache", "false"); // hibernate-jcache is on the classpath; nothing here is cached
 
         // Register Entities
         cfg.addAnnotatedClass(User.class);
@@ -78,6 +87,7 @@ public class marketops3 {
         cfg.addAnnotatedClass(DataSource.class);
 
         sessionFactory = cfg.buildSessionFactory();
+        ServerConfig.alignHistorySequence(sessionFactory);
     }
 
     // --- MAIN APP ---
@@ -86,11 +96,17 @@ public class marketops3 {
         initDatabase();
         bootstrapAdmin();
 
-        Javalin app = Javalin.create().start(7000);
+        Javalin app = Javalin.create(config -> { ServerConfig.server(config); CatalogMetrics.install(config); }).start(7000);
+        ServerConfig.routes(app, sessionFactory);
+        CatalogMetrics.routes(app);
+        CatalogMetrics.entityCounts(sessionFactory, User.class, MarketAsset.class, MarketAssetHistory.class, DataSource.class);
+        CatalogMetrics.historyRows(sessionFactory);
 
         // Map Routes
         setupCrud(app, "market-assets", MarketAsset.class);
         setupCrud(app, "data-sources", DataSource.class);
+        changes.routes(app);
+        changes.metrics();
 
         app.post("/governance/grant", ctx -> {
             String cmd = ctx.queryParam("cmd");
@@ -116,25 +132,42 @@ public class marketops3 {
                 ma.history.add(new MarketAssetHistory(ma.currentPrice, ma.demand));
             }
 
-            try (Session session = sessionFactory.openSession()) {
+            try (Session session = openSession(clazz)) {
                 Transaction tx = session.beginTransaction();
                 session.merge(item); // merge handles both save and update
                 tx.commit();
+                changes.changed(path, (String) sessionFactory.getPersistenceUnitUtil().getIdentifier(item));
                 ctx.status(201).json(item);
             }
         });
 
-        // READ ALL
+        // READ ALL (streamed; ?limit=&after= pages by id, ?format=ndjson for one row per line). Rows are read a
+        // FETCH_SIZE batch ahead so lazy history loads per batch while serializing (@BatchSize), not per row
         app.get(fullPath, ctx -> {
-            try (Session session = sessionFactory.openSession()) {
-                List<T> results = session.createQuery("from " + clazz.getName(), clazz).list();
-                ctx.json(results);
+            CatalogLists.Page page = CatalogLists.page(ctx);
+            try (Session session = openSession(clazz)) {
+                Transaction tx = session.beginTransaction(); // Postgres only honors the fetch size inside a transaction
+                Query<T> query;
+                if (page.keyset()) {
+                    query = session.createQuery("from " + clazz.getName() + " e where e.id > :after order by e.id", clazz)
+                            .setParameter("after", page.after);
+                } else if (page.paged()) {
+                    query = session.createQuery("from " + clazz.getName() + " e order by e.id", clazz);
+                } else {
+                    query = session.createQuery("from " + clazz.getName(), clazz);
+                }
+                if (page.limit > 0) query.setMaxResults(page.limit);
+
+                try (Stream<T> rows = query.setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                    CatalogLists.write(ctx, CatalogLists.readAhead(rows.iterator(), CatalogLists.FETCH_SIZE), session::detach);
+                }
+                tx.commit();
             }
         });
 
         // READ ONE
         app.get(fullPath + "/{id}", ctx -> {
-            try (Session session = sessionFactory.openSession()) {
+            try (Session session = openSession(clazz)) {
                 T item = session.get(clazz, (Serializable) ctx.pathParam("id"));
                 if (item != null) ctx.json(item); else ctx.status(404);
             }
@@ -144,22 +177,30 @@ public class marketops3 {
     // --- GOVERNANCE & AUTH ---
 
     private static boolean authorize(Context ctx, String action) {
+        long t0 = System.nanoTime();
         String username = ctx.header("X-User");
         if (username == null) {
+            CatalogMetrics.auth(t0, false);
             ctx.status(403).result("Header X-User missing");
             return false;
         }
 
-        try (Session session = sessionFactory.openSession()) {
+        try (Session session = openSession(User.class)) {
             User user = session.get(User.class, username.toLowerCase());
             if (user != null && (user.permissions.contains(action + ":ALL"))) {
+                CatalogMetrics.auth(t0, true);
                 return true;
             }
+            CatalogMetrics.auth(t0, false);
             ctx.status(403).result("Access Denied for " + username);
             return false;
         }
     }
 
+    private static Session openSession(Class<?> entity) {
+        return sessionFactory.withOptions().eventListeners(CatalogMetrics.db(entity.getSimpleName())).openSession();
+    }
+
     private static String executeGrant(String command) {
         // Simple Parser: GRANT ACTION ON TARGET TO USER
         try {
@@ -176,6 +217,7 @@ public class marketops3 {
                 user.permissions.add(action + ":" + target);
                 session.merge(user);
                 tx.commit();
+                changes.granted(username, action + ":" + target);
                 return "SUCCESS: Granted " + action + " to " + username;
             }
         } catch (Exception e) {
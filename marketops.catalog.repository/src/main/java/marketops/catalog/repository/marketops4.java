@@ -2,32 +2,78 @@
 package marketops.catalog.repository;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JsonMapper;
+import io.javalin.websocket.WsCloseStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.persistence.*;
+import org.hibernate.LockMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.query.MutationQuery;
+import org.hibernate.query.Query;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class marketops4 {
 
-    private static SessionFactory sessionFactory;
+    static SessionFactory sessionFactory;
+    private static final int DEFAULT_HISTORY_PAGE = 1_000;
+    private static final int MAX_HISTORY_PAGE = 10_000;
+
+    // Compiled permissions per user; grants invalidate immediately, the TTL covers changes made elsewhere
+    private static final PermissionCache permissions = new PermissionCache(10_000, 30_000, marketops4::loadPermissions);
+    private static final int ADMIN = PermissionCache.action("ADMIN");
+
+    // Price ticks are buffered and group-committed every TICK_FLUSH_MS by a single writer thread
+    private static final int TICK_BUFFER = 1 << 17;
+    private static final int TICK_BATCH = 8_192;
+    private static final long TICK_FLUSH_MS = 10;
+    private static TickIngest ticks;
+
+    // Lineage edges in memory for multi-hop queries; rebuilt from lineage_tracking at startup
+    private static final LineageGraph lineage = new LineageGraph();
+    // Streaming price/demand statistics, seeded from market_history on first query, then per committed tick
+    private static final RollingStats stats = new RollingStats(marketops4::seedStats);
+    // LivePriceTracking tolerance ranges, checked on every committed price; scoped through lineage parents
+    private static final ToleranceMonitor monitor = new ToleranceMonitor(lineage::parents);
+    // Serialized GET-by-id bodies of the metadata every pipeline run reads; POST and bulk writes invalidate their type
+    static final ResponseCache responses = new ResponseCache(DataSource.class, DataSet.class, ETL.class, ModelRegistry.class);
+    // Registered ETL jobs, run on a schedule, on writes to their source, or by hand; each success is recorded as lineage
+    private static final EtlScheduler etl = new EtlScheduler(marketops4::recordEtlRun);
+    // Ordered log of catalog writes and grants, so consumers follow deltas instead of re-listing
+    static final ChangeFeed changes = new ChangeFeed();
+    // Content hashes of stored objects: re-POSTing one unchanged answers 200 without a write
+    private static final ContentHashes upserts = new ContentHashes();
+    // Words of names, descriptions, schemas and equations -> objects; built from the tables at startup, then per write
+    private static final CatalogSearch search = new CatalogSearch();
 
     // --- PERSISTENT MODELS ---
+    // Read-mostly types carry a second-level cache region, used when -Dmarketops.l2cache=true (see EntityCache)
     
-    @Entity @Table(name = "users")
+    @Entity @Table(name = "users") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "User")
     public static class User {
         @Id public String username;
-        @ElementCollection(fetch = FetchType.EAGER)
+        @ElementCollection(fetch = FetchType.EAGER) @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "User.permissions")
         public Set<String> permissions = new HashSet<>();
         public User() {}
         public User(String username) { this.username = username.toLowerCase(); }
     }
 
-    @Entity @Table(name = "data_sources")
+    @Entity @Table(name = "data_sources") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "DataSource")
     public static class DataSource { @Id public String id; public String name; public String type; public String format; public String connectionData; }
 
     @Entity @Table(name = "market_assets")
@@ -37,64 +83,88 @@ public class marketops4 {
         public String type;
         public Double demand;
         public Double currentPrice;
-        @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
-        @JoinColumn(name = "asset_id")
-        public List<MarketAssetHistory> history = new ArrayList<>();
+        @Transient @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        public PriceHistory history = new PriceHistory(); // paged via /catalog/market-assets/{id}/history, not loaded on asset reads
     }
 
-    @Entity @Table(name = "market_history")
+    @Entity @Table(name = "market_history", indexes = @Index(name = "idx_market_history_asset_ts", columnList = "asset_id, timestamp, internalId"))
     public static class MarketAssetHistory {
-        @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+        // Sequence ids are handed out 50 at a time, so history inserts can be JDBC-batched (IDENTITY cannot)
+        @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "market_history_seq")
+        @SequenceGenerator(name = "market_history_seq", sequenceName = "market_history_seq", allocationSize = 50)
         public Long internalId;
+        @Column(name = "asset_id")
+        public String assetId;
         public Double price;
         public Double demand;
         public long timestamp = System.currentTimeMillis();
         public MarketAssetHistory() {}
-        public MarketAssetHistory(Double p, Double d) { this.price = p; this.demand = d; }
+        public MarketAssetHistory(String assetId, long ts, Double p, Double d) { this.assetId = assetId; this.timestamp = ts; this.price = p; this.demand = d; }
     }
 
-    @Entity @Table(name = "etl_jobs")
+    // Cold history: market_history rows older than ColdHistory.COLD_AFTER_MS, packed by compactHistory. An asset's
+    // blocks do not overlap and are in (firstTimestamp, blockId) order; ticks keep their internalId.
+    @Entity @Table(name = "market_history_blocks", indexes = @Index(name = "idx_market_history_blocks_asset_ts", columnList = "asset_id, firstTimestamp"))
+    public static class MarketAssetHistoryBlock {
+        @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "market_history_block_seq")
+        @SequenceGenerator(name = "market_history_block_seq", sequenceName = "market_history_block_seq", allocationSize = 50)
+        public Long blockId;
+        @Column(name = "asset_id")
+        public String assetId;
+        public long firstTimestamp;
+        public long lastTimestamp;
+        public int ticks;
+        @Column(length = 1 << 20)
+        public byte[] data;
+    }
+
+    @Entity @Table(name = "etl_jobs") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "ETL")
     public static class ETL { @Id public String id; public String name; public String triggerType; public String dataSourceId; public String dataSetId; public String path; public String language; }
 
+    // One input -> output edge: dataSourceId is the input (a data source, distribution or data set id) and
+    // marketAssetId the output (a market asset, data set or simulation id); userId is the user behind it, null when
+    // none is. Derived records have fixed ids, so a re-run replaces them: {simulationId}:{distributionId} for a
+    // simulation's inputs, etl:{jobId} for an ETL job's source -> data set.
     @Entity @Table(name = "lineage_tracking")
     public static class LineageTracking { @Id public String id; public String dataSourceId; public String marketAssetId; public String userId; public String modelRegistryId; public long timestamp = System.currentTimeMillis(); }
 
     @Entity @Table(name = "live_price_tracking")
     public static class LivePriceTracking { @Id public String id; public String name; public String modelId; public String dataSourceId; public String simulationTrackingId; public Double toleranceRangeStart; public Double toleranceRangeEnd; }
 
-    @Entity @Table(name = "data_sets")
+    @Entity @Table(name = "data_sets") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "DataSet")
     public static class DataSet { @Id public String id; public String name; public String description; @Column(columnDefinition="TEXT") public String schema; public String path; }
 
-    @Entity @Table(name = "model_registry")
+    @Entity @Table(name = "model_registry") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "ModelRegistry")
     public static class ModelRegistry { 
         @Id public String id; 
         public String modelName; 
         public String description; 
-        @ElementCollection(fetch = FetchType.EAGER)
+        @ElementCollection(fetch = FetchType.LAZY) @BatchSize(size = CatalogLists.FETCH_SIZE) @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "ModelRegistry.parameters")
         public Map<String, String> parameters = new HashMap<>(); // Simplified to String for DB storage
     }
 
-    @Entity @Table(name = "distribution_registry")
+    @Entity @Table(name = "distribution_registry") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "DistributionRegistry")
     public static class DistributionRegistry { 
         @Id public String id; 
         public String factorName; 
         public String signalType; 
-        @ElementCollection(fetch = FetchType.EAGER)
+        @ElementCollection(fetch = FetchType.LAZY) @BatchSize(size = CatalogLists.FETCH_SIZE) @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "DistributionRegistry.statistics")
         public Map<String, Double> statistics = new HashMap<>(); 
     }
 
-    @Entity @Table(name = "simulation_tracking")
+    @Entity @Table(name = "simulation_tracking") @Cacheable @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "SimulationTracking")
     public static class SimulationTracking { 
         @Id public String id; 
         public String name; 
         public String equation; 
-        @ElementCollection(fetch = FetchType.EAGER)
+        @ElementCollection(fetch = FetchType.LAZY) @BatchSize(size = CatalogLists.FETCH_SIZE) @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "SimulationTracking.distributionMapping")
         public Map<String, String> distributionMapping = new HashMap<>(); 
     }
 
     // --- DB CONFIGURATION ---
 
-    private static void initDatabase() {
+    /** overrides (e.g. -Dhibernate.connection.url=...) replace the defaults below, so the server can point at another database. */
+    static void initDatabase(Map<String, String> overrides) {
         Configuration cfg = new Configuration();
         cfg.setProperty("hibernate.connection.driver_class", "org.postgresql.Driver");
         cfg.setProperty("hibernate.connection.url", "jdbc:postgresql://localhost:5432/postgres");
@@ -102,22 +172,64 @@ public class marketops4 {
         cfg.setProperty("hibernate.connection.password", "root"); // Change this
         cfg.setProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
         cfg.setProperty("hibernate.hbm2ddl.auto", "update");
-        cfg.setProperty("hibernate.show_sql", "true");
+        cfg.setProperty("hibernate.show_sql", "false"); // -Dhibernate.show_sql=true to log statements
+
+        // JDBC batching for bulk writes; the driver rewrites batched inserts into multi-row statements
+        cfg.setProperty("hibernate.jdbc.batch_size", String.valueOf(CatalogBulk.CHUNK));
+        cfg.setProperty("hibernate.order_inserts", "true");
+        cfg.setProperty("hibernate.order_updates", "true");
+        cfg.setProperty("hibernate.hikari.dataSource.reWriteBatchedInserts", "true");
+        ServerConfig.pool(cfg, "marketops4");
+        EntityCache.configure(cfg, "marketops4", User.class, DataSource.class, ETL.class, DataSet.class, ModelRegistry.class,
+                DistributionRegistry.class, SimulationTracking.class);
+        overrides.forEach(cfg::setProperty);
 
         // Map all entities
         cfg.addAnnotatedClass(User.class).addAnnotatedClass(DataSource.class).addAnnotatedClass(MarketAsset.class)
-           .addAnnotatedClass(MarketAssetHistory.class).addAnnotatedClass(ETL.class).addAnnotatedClass(LineageTracking.class)
+           .addAnnotatedClass(MarketAssetHistory.class).addAnnotatedClass(MarketAssetHistoryBlock.class).addAnnotatedClass(ETL.class).addAnnotatedClass(LineageTracking.class)
            .addAnnotatedClass(LivePriceTracking.class).addAnnotatedClass(DataSet.class).addAnnotatedClass(ModelRegistry.class)
            .addAnnotatedClass(DistributionRegistry.class).addAnnotatedClass(SimulationTracking.class);
 
         sessionFactory = cfg.buildSessionFactory();
+        ServerConfig.alignHistorySequence(sessionFactory);
+    }
+
+    // Sessions on request paths report their JDBC time under the entity type they work on
+    private static Session openSession(Class<?> entity) {
+        return sessionFactory.withOptions().eventListeners(CatalogMetrics.db(entity.getSimpleName())).openSession();
+    }
+
+    private static Map<String, String> hibernateOverrides() {
+        Map<String, String> overrides = new HashMap<>();
+        System.getProperties().forEach((k, v) -> { if (k.toString().startsWith("hibernate.")) overrides.put(k.toString(), v.toString()); });
+        return overrides;
     }
 
     public static void main(String[] args) {
-        initDatabase();
+        initDatabase(hibernateOverrides());
         bootstrapAdmin();
-
-        Javalin app = Javalin.create().start(7000);
+        rebuildLineage();
+        loadMonitors();
+        loadEtlJobs();
+        loadSearch();
+        ticks = new TickIngest("tick-writer", TICK_BUFFER, TICK_BATCH, TICK_FLUSH_MS, marketops4::commitTicks);
+
+        Javalin app = Javalin.create(config -> { ServerConfig.server(config); CatalogMetrics.install(config); }).start(7000);
+        ServerConfig.routes(app, sessionFactory);
+        EntityCache.routes(app, sessionFactory);
+        CatalogMetrics.routes(app);
+        CatalogMetrics.entityCounts(sessionFactory, User.class, DataSource.class, MarketAsset.class, MarketAssetHistory.class, MarketAssetHistoryBlock.class, ETL.class,
+                LineageTracking.class, LivePriceTracking.class, DataSet.class, ModelRegistry.class, DistributionRegistry.class, SimulationTracking.class);
+        CatalogMetrics.historyRows(sessionFactory, "select asset_id, sum(n) from (select asset_id, count(*) n from market_history group by asset_id"
+                + " union all select asset_id, sum(ticks) n from market_history_blocks group by asset_id) t group by asset_id");
+        ColdHistory.metrics();
+        ColdHistory.schedule("postgres", marketops4::compactHistory);
+        responses.metrics();
+        etl.metrics();
+        changes.metrics();
+        upserts.metrics();
+        search.metrics();
+        etl.start();
 
         // CRUD Endpoints
         setupCrud(app, "market-assets", MarketAsset.class);
@@ -128,6 +240,37 @@ public class marketops4 {
         setupCrud(app, "models", ModelRegistry.class);
         setupCrud(app, "distributions", DistributionRegistry.class);
         setupCrud(app, "simulations", SimulationTracking.class);
+        setupCrud(app, "price-monitors", LivePriceTracking.class);
+
+        app.get("/catalog/market-assets/{id}/history", marketops4::pageHistory);
+        app.get("/catalog/market-assets/{id}/stats", stats::serve);
+        app.get("/catalog/market-assets/{id}/candles", marketops4::serveCandles);
+        app.post("/catalog/simulations/{id}/run", marketops4::runSimulation);
+        app.sse("/alerts", monitor::sse);
+        app.ws("/alerts/ws", monitor::ws);
+        changes.routes(app);
+        search.routes(app);
+        app.get("/lineage/{id}/upstream", ctx -> lineage.serve(ctx, false));
+        app.get("/lineage/{id}/downstream", ctx -> lineage.serve(ctx, true));
+        app.post("/catalog/market-assets/{id}/ticks", marketops4::postTicks);
+        app.ws("/ticks", ws -> {
+            ws.onConnect(ctx -> {
+                String user = ctx.header("X-User");
+                if (user == null || !permissions.get(user).allows(ADMIN)) ctx.closeSession(WsCloseStatus.POLICY_VIOLATION, "Access Denied");
+            });
+            ws.onMessage(ctx -> {
+                StringBuilder errors = new StringBuilder();
+                if (ticks.offerLines(ctx.message(), id -> true, errors) < 0) errors.append("BUSY\n");
+                if (errors.length() > 0) ctx.send(errors.toString());
+            });
+        });
+
+        app.post("/etl/{id}/run", ctx -> {
+            if (!authorize(ctx, "ADMIN")) return;
+            if (etl.run(ctx.pathParam("id"), ctx.header("X-User"))) ctx.status(202).result("Queued"); else ctx.status(404).result("Not Found");
+        });
+        app.get("/etl/runs", etl::serveRuns);
+        app.get("/etl/status", etl::serveStatus);
 
         app.post("/governance/grant", ctx -> ctx.result(executeGrant(ctx.queryParam("cmd"))));
 
@@ -136,52 +279,677 @@ public class marketops4 {
 
     // --- GENERIC CRUD ---
 
-    private static <T> void setupCrud(Javalin app, String path, Class<T> clazz) {
+    static <T> void setupCrud(Javalin app, String path, Class<T> clazz) {
         String fullPath = "/catalog/" + path;
 
         app.post(fullPath, ctx -> {
             if (!authorize(ctx, "ADMIN")) return;
             T item = ctx.bodyAsClass(clazz);
-            
-            if (item instanceof MarketAsset ma) {
-                ma.history.add(new MarketAssetHistory(ma.currentPrice, ma.demand));
-            }
+            String id = (String) sessionFactory.getPersistenceUnitUtil().getIdentifier(item);
+            byte[] content = ctx.jsonMapper().toJsonString(item, clazz).getBytes(StandardCharsets.UTF_8);
+            long hash = ContentHashes.hash(content);
+            String ifMatch = ctx.header(Header.IF_MATCH);
+            if (ifMatch == null && upserts.unchanged(clazz, id, hash)) { unchanged(ctx, item, content); return; }
 
-            try (Session session = sessionFactory.openSession()) {
+            try (Session session = openSession(clazz)) {
                 Transaction tx = session.beginTransaction();
+                if (ifMatch != null) {
+                    // The ETag GET would send now, read from the row locked until commit, so no write slips in between
+                    T current = id == null ? null : session.get(clazz, id, LockMode.PESSIMISTIC_WRITE);
+                    String etag = current == null ? null : ResponseCache.etag(ctx.jsonMapper().toJsonString(current, clazz).getBytes(StandardCharsets.UTF_8));
+                    if (!ResponseCache.ifMatch(ifMatch, etag)) {
+                        tx.rollback();
+                        upserts.preconditionFailed(clazz);
+                        if (etag != null) ctx.header(Header.ETAG, etag);
+                        ctx.status(HttpStatus.PRECONDITION_FAILED).result("Precondition Failed");
+                        return;
+                    }
+                    if (upserts.unchanged(clazz, id, hash)) { tx.rollback(); unchanged(ctx, item, content); return; }
+                }
                 session.merge(item);
+                // History is server-maintained: only the new tick is written, never the posted list
+                MarketAssetHistory tick = null;
+                if (item instanceof MarketAsset ma) {
+                    tick = new MarketAssetHistory(ma.id, System.currentTimeMillis(), ma.currentPrice, ma.demand);
+                    session.persist(tick);
+                    ma.history.append(tick.timestamp, tick.price, tick.demand);
+                }
                 tx.commit();
+                upserts.stored(clazz, id, hash);
+                responses.invalidate(clazz);
+                changes.changed(path, id);
+                search.put(item);
+                if (tick != null) onTick(tick);
+                if (item instanceof LineageTracking lt) track(lt);
+                if (item instanceof LivePriceTracking lpt) watch(lpt);
+                if (item instanceof ETL job) schedule(job);
+                fire(item);
                 ctx.status(201).json(item);
             }
         });
 
+        // BULK: array or NDJSON body, one transaction per chunk of CatalogBulk.CHUNK items, one result per item
+        app.post(fullPath + "/bulk", ctx -> {
+            if (!authorize(ctx, "ADMIN")) return;
+            CatalogBulk.Reader<T> reader = CatalogBulk.read(ctx, clazz);
+            List<CatalogBulk.Result> results = new ArrayList<>();
+            for (List<T> chunk = reader.next(); !chunk.isEmpty(); chunk = reader.next()) {
+                results.addAll(writeChunk(path, clazz, chunk, reader.firstIndex(), ctx.jsonMapper()));
+            }
+            if (reader.error() != null) results.add(reader.error());
+            ctx.json(results);
+        });
+
+        // Rows are scrolled a FETCH_SIZE batch ahead and written one by one, then detached so the persistence
+        // context does not grow with the listing; lazy collections load per batch while serializing (@BatchSize)
         app.get(fullPath, ctx -> {
-            try (Session session = sessionFactory.openSession()) {
-                ctx.json(session.createQuery("from " + clazz.getName(), clazz).list());
+            CatalogLists.Page page = CatalogLists.page(ctx);
+            try (Session session = openSession(clazz)) {
+                if (page.limit > 0 && EntityCache.cached(clazz)) {
+                    // Pages with a limit of cached types go through the query cache: ids per page, rows from the entity regions.
+                    // ?after= alone is the whole remainder, so it streams like an unpaged listing.
+                    CatalogLists.write(ctx, listQuery(session, clazz, page).setCacheable(true).list().iterator());
+                    return;
+                }
+                Transaction tx = session.beginTransaction(); // Postgres only honors the fetch size inside a transaction
+                try (Stream<T> rows = listQuery(session, clazz, page).setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                    CatalogLists.write(ctx, CatalogLists.readAhead(rows.iterator(), CatalogLists.FETCH_SIZE), session::detach);
+                }
+                tx.commit();
             }
         });
 
-        app.get(fullPath + "/{id}", ctx -> {
-            try (Session session = sessionFactory.openSession()) {
+        app.get(fullPath + "/{id}", ctx -> responses.serve(ctx, clazz, ctx.pathParam("id"), () -> {
+            try (Session session = openSession(clazz)) {
                 T obj = session.get(clazz, (Serializable) ctx.pathParam("id"));
-                if (obj != null) ctx.json(obj); else ctx.status(404);
+                return obj == null ? null : ctx.jsonMapper().toJsonString(obj, clazz).getBytes(StandardCharsets.UTF_8);
             }
-        });
+        }));
+    }
+
+    private static <T> List<CatalogBulk.Result> writeChunk(String path, Class<T> clazz, List<T> chunk, int firstIndex, JsonMapper json) {
+        List<String> ids = new ArrayList<>(chunk.size());
+        for (T item : chunk) ids.add((String) sessionFactory.getPersistenceUnitUtil().getIdentifier(item));
+        // Items whose content was already stored are answered 200 and left out of the transaction
+        long[] hashes = new long[chunk.size()];
+        boolean[] unchanged = new boolean[chunk.size()];
+        int writes = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            if (ids.get(i) == null) continue;
+            hashes[i] = ContentHashes.hash(json.toJsonString(chunk.get(i), clazz).getBytes(StandardCharsets.UTF_8));
+            unchanged[i] = upserts.unchanged(clazz, ids.get(i), hashes[i]);
+            if (!unchanged[i]) writes++;
+        }
+
+        List<CatalogBulk.Result> results = new ArrayList<>(chunk.size());
+        List<MarketAssetHistory> ticks = new ArrayList<>();
+        if (writes == 0) {
+            for (int i = 0; i < chunk.size(); i++) {
+                String id = ids.get(i);
+                results.add(id == null ? new CatalogBulk.Result(firstIndex + i, null, 400, "Missing id") : new CatalogBulk.Result(firstIndex + i, id, 200, null));
+            }
+            chunk.forEach(marketops4::fire);
+            return results;
+        }
+        try (Session session = openSession(clazz)) {
+            Transaction tx = session.beginTransaction();
+            try {
+                // One query finds the rows that already exist; merges then resolve from the session, not one SELECT each
+                List<String> lookup = new ArrayList<>(writes);
+                for (int i = 0; i < chunk.size(); i++) if (ids.get(i) != null && !unchanged[i]) lookup.add(ids.get(i));
+                Set<String> known = new HashSet<>();
+                for (T existing : session.byMultipleIds(clazz).multiLoad(lookup)) {
+                    if (existing != null) known.add((String) sessionFactory.getPersistenceUnitUtil().getIdentifier(existing));
+                }
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < chunk.size(); i++) {
+                    T item = chunk.get(i);
+                    String id = ids.get(i);
+                    if (id == null) { results.add(new CatalogBulk.Result(firstIndex + i, null, 400, "Missing id")); continue; }
+                    if (unchanged[i]) { results.add(new CatalogBulk.Result(firstIndex + i, id, 200, null)); continue; }
+                    boolean update = !known.add(id);
+                    if (update) session.merge(item); else session.persist(item);
+                    if (item instanceof MarketAsset ma) {
+                        MarketAssetHistory tick = new MarketAssetHistory(ma.id, now, ma.currentPrice, ma.demand);
+                        session.persist(tick);
+                        ticks.add(tick);
+                    }
+                    results.add(new CatalogBulk.Result(firstIndex + i, id, update ? 200 : 201, null));
+                }
+                tx.commit();
+                responses.invalidate(clazz);
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (ids.get(i) == null || unchanged[i]) continue;
+                    upserts.stored(clazz, ids.get(i), hashes[i]);
+                    changes.changed(path, ids.get(i));
+                    search.put(chunk.get(i));
+                }
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                return CatalogBulk.failed(ids, firstIndex, 500, "Chunk rolled back: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            if (unchanged[i]) continue;
+            T item = chunk.get(i);
+            if (item instanceof LineageTracking lt && lt.id != null) track(lt);
+            if (item instanceof LivePriceTracking lpt) watch(lpt);
+            if (item instanceof ETL job) schedule(job);
+        }
+        // Event jobs start once the whole chunk is committed, so a job reading several of its rows sees them all
+        chunk.forEach(marketops4::fire);
+        ticks.forEach(marketops4::onTick);
+        return results;
+    }
+
+    // An unchanged upsert writes nothing; event jobs still run, as a re-POST says the source was produced again
+    private static void unchanged(Context ctx, Object item, byte[] content) {
+        fire(item);
+        ctx.status(200).contentType(ContentType.APPLICATION_JSON).result(content);
+    }
+
+    private static void fire(Object item) {
+        if (item instanceof DataSource ds && ds.id != null) etl.fire(ds.id);
+        if (item instanceof DataSet ds && ds.id != null) etl.fire(ds.id);
+    }
+
+    // --- LINEAGE ---
+
+    // The simulation and its distributions are loaded up front so no connection is held while the paths run
+    private static void runSimulation(Context ctx) {
+        if (!authorize(ctx, "ADMIN")) return;
+        SimulationTracking sim;
+        Map<String, String> mapping;
+        Map<String, DistributionRegistry> distributions = new HashMap<>();
+        try (Session session = openSession(SimulationTracking.class)) {
+            sim = session.get(SimulationTracking.class, ctx.pathParam("id"));
+            if (sim == null) { ctx.status(404).result("Not Found"); return; }
+            mapping = new HashMap<>(sim.distributionMapping);
+            for (String id : new HashSet<>(mapping.values())) {
+                DistributionRegistry d = session.get(DistributionRegistry.class, id);
+                if (d != null) { d.statistics = new HashMap<>(d.statistics); distributions.put(id, d); }
+            }
+        }
+        SimulationRunner.Result result = SimulationRunner.run(ctx, sim.id, sim.equation, mapping,
+                id -> { DistributionRegistry d = distributions.get(id); return d == null ? null : SimulationRunner.sampler(id, d.signalType, d.statistics); });
+
+        List<LineageTracking> records = new ArrayList<>();
+        try (Session session = openSession(LineageTracking.class)) {
+            Transaction tx = session.beginTransaction();
+            for (String distributionId : new LinkedHashSet<>(result.inputs.values())) {
+                LineageTracking lt = new LineageTracking();
+                lt.id = result.simulationId + ":" + distributionId;
+                lt.dataSourceId = distributionId;
+                lt.marketAssetId = result.simulationId;
+                lt.userId = ctx.header("X-User");
+                session.merge(lt);
+                records.add(lt);
+            }
+            tx.commit();
+        }
+        records.forEach(marketops4::track);
+        records.forEach(lt -> upserts.forget(LineageTracking.class, lt.id));
+        records.forEach(lt -> changes.changed("lineage", lt.id));
+        ctx.json(result);
+    }
+
+    private static void track(LineageTracking lt) { lineage.record(lt.id, lt.dataSourceId, lt.marketAssetId, lt.modelRegistryId, lt.userId); }
+
+    // Streams id columns only, no entity hydration
+    private static void rebuildLineage() {
+        long start = System.nanoTime();
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try (Stream<Object[]> rows = session.createQuery("select l.id, l.dataSourceId, l.marketAssetId, l.modelRegistryId, l.userId from "
+                    + LineageTracking.class.getName() + " l", Object[].class).setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                rows.forEach(r -> lineage.record((String) r[0], (String) r[1], (String) r[2], (String) r[3], (String) r[4]));
+            }
+            tx.commit();
+        }
+        System.out.printf(">>> Lineage graph %s built in %d ms%n", lineage.stats(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void watch(LivePriceTracking lpt) { monitor.put(lpt.id, lpt.dataSourceId, lpt.modelId, lpt.toleranceRangeStart, lpt.toleranceRangeEnd); }
+
+    private static void loadMonitors() {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try (Stream<Object[]> rows = session.createQuery("select l.id, l.dataSourceId, l.modelId, l.toleranceRangeStart, l.toleranceRangeEnd from "
+                    + LivePriceTracking.class.getName() + " l", Object[].class).setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                rows.forEach(r -> monitor.put((String) r[0], (String) r[1], (String) r[2], (Double) r[3], (Double) r[4]));
+            }
+            tx.commit();
+        }
+        System.out.printf(">>> Tolerance monitors %s loaded%n", monitor.stats());
+    }
+
+    // --- SEARCH ---
+
+    // Text fields per type, name first; read as projections so loading does not hydrate entities
+    private static void loadSearch() {
+        long start = System.nanoTime();
+        search.type("data-sources", DataSource.class, "name");
+        search.type("market-assets", MarketAsset.class, "name");
+        search.type("data-sets", DataSet.class, "name", "description", "schema");
+        search.type("etl", ETL.class, "name");
+        search.type("models", ModelRegistry.class, "modelName", "description");
+        search.type("distributions", DistributionRegistry.class, "factorName");
+        search.type("simulations", SimulationTracking.class, "name", "equation");
+        search.type("price-monitors", LivePriceTracking.class, "name");
+        for (Class<?> clazz : List.of(DataSource.class, MarketAsset.class, DataSet.class, ETL.class, ModelRegistry.class,
+                DistributionRegistry.class, SimulationTracking.class, LivePriceTracking.class)) {
+            String[] fields = search.properties(clazz);
+            try (Session session = sessionFactory.openSession()) {
+                Transaction tx = session.beginTransaction();
+                try (Stream<Object[]> rows = session.createQuery("select e.id, e." + String.join(", e.", fields) + " from "
+                        + clazz.getName() + " e", Object[].class).setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                    rows.forEach(r -> search.put(clazz, (String) r[0], Arrays.copyOfRange(r, 1, r.length, String[].class)));
+                }
+                tx.commit();
+            }
+        }
+        System.out.printf(">>> Search index %s built in %d ms%n", search.stats(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // --- ETL ---
+
+    private static void schedule(ETL job) { etl.put(job.id, job.triggerType, job.dataSourceId, job.dataSetId, job.path, job.language); }
+
+    private static void loadEtlJobs() {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try (Stream<Object[]> rows = session.createQuery("select e.id, e.triggerType, e.dataSourceId, e.dataSetId, e.path, e.language from "
+                    + ETL.class.getName() + " e", Object[].class).setFetchSize(CatalogLists.FETCH_SIZE).stream()) {
+                rows.forEach(r -> etl.put((String) r[0], (String) r[1], (String) r[2], (String) r[3], (String) r[4], (String) r[5]));
+            }
+            tx.commit();
+        }
+    }
+
+    // A successful run records the job's source -> data set edge, with the user if it was run by hand
+    private static void recordEtlRun(EtlScheduler.Job job, EtlScheduler.Run run) {
+        if (!run.succeeded() || job.dataSourceId == null || job.dataSetId == null) return;
+        LineageTracking lt = new LineageTracking();
+        lt.id = "etl:" + job.id;
+        lt.dataSourceId = job.dataSourceId;
+        lt.marketAssetId = job.dataSetId;
+        lt.userId = run.user;
+        try (Session session = openSession(LineageTracking.class)) {
+            Transaction tx = session.beginTransaction();
+            session.merge(lt);
+            tx.commit();
+        }
+        track(lt);
+        upserts.forget(LineageTracking.class, lt.id);
+        changes.changed("lineage", lt.id);
+    }
+
+    private static <T> Query<T> listQuery(Session session, Class<T> clazz, CatalogLists.Page page) {
+        if (!page.paged()) return session.createQuery("from " + clazz.getName(), clazz);
+        Query<T> query = page.keyset()
+                ? session.createQuery("from " + clazz.getName() + " e where e.id > :after order by e.id", clazz).setParameter("after", page.after)
+                : session.createQuery("from " + clazz.getName() + " e order by e.id", clazz);
+        return page.limit > 0 ? query.setMaxResults(page.limit) : query;
+    }
+
+    // --- MARKET HISTORY ---
+
+    /**
+     * GET /catalog/market-assets/{id}/history?from=&to=&limit=&after=
+     * Keyset pagination over market_history(asset_id, timestamp, internalId): "after" is the "next"
+     * cursor of the previous page, so every page is an index range scan whatever its depth.
+     */
+    private static void pageHistory(Context ctx) {
+        String assetId = ctx.pathParam("id");
+        long from = longParam(ctx, "from", Long.MIN_VALUE);
+        long to = longParam(ctx, "to", Long.MAX_VALUE);
+        int limit = (int) Math.min(Math.max(longParam(ctx, "limit", DEFAULT_HISTORY_PAGE), 1), MAX_HISTORY_PAGE);
+        long afterTs = Long.MIN_VALUE, afterId = Long.MIN_VALUE;
+        String after = ctx.queryParam("after");
+        if (after != null) {
+            String[] cursor = after.split(":");
+            try {
+                afterTs = Long.parseLong(cursor[0]);
+                afterId = Long.parseLong(cursor[1]);
+            } catch (RuntimeException e) { throw new BadRequestResponse("Invalid cursor: " + after); }
+        }
+
+        try (Session session = openSession(MarketAssetHistory.class)) {
+            Transaction tx = session.beginTransaction();
+            PriceHistory ticks = new PriceHistory();
+            long[] last = new long[2];
+            int n = readHistory(session, assetId, from, to, afterTs, afterId, limit, (seq, timestamp, price, demand) -> {
+                ticks.append(timestamp, Double.isNaN(price) ? null : price, Double.isNaN(demand) ? null : demand);
+                last[0] = timestamp;
+                last[1] = seq;
+            });
+            tx.commit();
+
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("assetId", assetId);
+            page.put("history", ticks);
+            page.put("next", n == limit ? last[0] + ":" + last[1] : null);
+            ctx.json(page);
+        }
+    }
+
+    /**
+     * An asset's ticks with from <= timestamp <= to after the (afterTs, afterId) cursor, in (timestamp, internalId)
+     * order, from market_history and market_history_blocks together. The rows query runs first: a compaction
+     * that commits between the two queries then shows some ticks in both, and the merge passes them once.
+     * Needs a transaction, so Postgres streams both with a cursor. Returns the ticks passed.
+     */
+    private static int readHistory(Session session, String assetId, long from, long to, long afterTs, long afterId, int limit, RollingStats.TickSink sink) {
+        var rowQuery = session.createQuery("select h.internalId, h.timestamp, h.price, h.demand from " + MarketAssetHistory.class.getName() + " h"
+                + " where h.assetId = :id and h.timestamp >= :from and h.timestamp <= :to"
+                + " and (h.timestamp > :afterTs or (h.timestamp = :afterTs and h.internalId > :afterId))"
+                + " order by h.timestamp, h.internalId", Object[].class)
+                .setParameter("id", assetId).setParameter("from", from).setParameter("to", to)
+                .setParameter("afterTs", afterTs).setParameter("afterId", afterId)
+                .setFetchSize(Math.min(limit, CatalogLists.FETCH_SIZE));
+        if (limit < Integer.MAX_VALUE) rowQuery.setMaxResults(limit);
+        try (Stream<Object[]> rows = rowQuery.stream()) {
+            Iterator<Object[]> hot = rows.iterator();
+            hot.hasNext(); // executes the rows query before the blocks query
+            try (Stream<byte[]> blocks = session.createQuery("select b.data from " + MarketAssetHistoryBlock.class.getName() + " b"
+                    + " where b.assetId = :id and b.lastTimestamp >= :from and b.firstTimestamp <= :to order by b.firstTimestamp, b.blockId", byte[].class)
+                    .setParameter("id", assetId).setParameter("from", Math.max(from, afterTs)).setParameter("to", to)
+                    .setFetchSize(4).stream()) {
+                return ColdHistory.merge(hot, blocks.iterator(), from, to, afterTs, afterId, limit, sink);
+            }
+        }
+    }
+
+    // One row per candle; open/close are the first/last priced tick by (timestamp, internalId)
+    private static final String CANDLES_SQL = "select h.b,"
+            + " (array_agg(h.price order by h.timestamp, h.internalId) filter (where h.price is not null))[1],"
+            + " max(h.price), min(h.price),"
+            + " (array_agg(h.price order by h.timestamp desc, h.internalId desc) filter (where h.price is not null))[1],"
+            + " avg(h.demand), count(*)"
+            + " from (select m.timestamp / :width * :width as b, m.timestamp, m.internalId, m.price, m.demand from market_history m"
+            + " where m.asset_id = :id and m.timestamp >= :from and m.timestamp < :end) h"
+            + " group by h.b order by h.b desc";
+
+    /**
+     * GET /catalog/market-assets/{id}/candles?interval=1h&from=&to=&limit=
+     * Bucketing and OHLC run in the database over the (asset_id, timestamp) index; only the candles come back.
+     * Candles that cold blocks reach into are folded here from the merged ticks, the rest still come from SQL.
+     */
+    private static void serveCandles(Context ctx) {
+        String assetId = ctx.pathParam("id");
+        Candles.Query query = Candles.query(ctx);
+        try (Session session = openSession(MarketAssetHistory.class)) {
+            Object[] span = session.createQuery("select min(b.firstTimestamp), max(b.lastTimestamp) from " + MarketAssetHistoryBlock.class.getName() + " b"
+                    + " where b.assetId = :id and b.lastTimestamp >= :from and b.firstTimestamp < :end", Object[].class)
+                    .setParameter("id", assetId).setParameter("from", query.from).setParameter("end", query.end).getSingleResult();
+            // Candles [coldFrom, coldEnd) hold block ticks; newest first: hot after them, the cold ones, hot before them
+            long coldFrom = query.end, coldEnd = query.end;
+            if (span[0] != null) {
+                coldFrom = Math.max(query.from, Math.floorDiv((Long) span[0], query.interval) * query.interval);
+                coldEnd = Math.min(query.end, (Math.floorDiv((Long) span[1], query.interval) + 1) * query.interval);
+            }
+            List<Candles.Candle> candles = hotCandles(session, assetId, query.interval, coldEnd, query.end, query.limit);
+            if (candles.size() < query.limit && coldFrom < coldEnd) {
+                Candles.Query cold = new Candles.Query(query.interval, coldFrom, coldEnd - 1, query.limit - candles.size());
+                Transaction tx = session.beginTransaction();
+                List<Candles.Candle> folded = Candles.fold(cold, tick -> readHistory(session, assetId, cold.from, cold.end - 1,
+                        Long.MIN_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE, (seq, timestamp, price, demand) -> tick.accept(timestamp, price, demand)));
+                tx.commit();
+                candles.addAll(0, folded);
+            }
+            if (candles.size() < query.limit && query.from < coldFrom) {
+                candles.addAll(0, hotCandles(session, assetId, query.interval, query.from, coldFrom, query.limit - candles.size()));
+            }
+            if (candles.isEmpty() && session.get(MarketAsset.class, assetId) == null) { ctx.status(404).result("Not Found"); return; }
+            Candles.respond(ctx, assetId, query, candles);
+        }
+    }
+
+    // The newest limit candles of market_history rows in [from, end), oldest first
+    private static List<Candles.Candle> hotCandles(Session session, String assetId, long interval, long from, long end, int limit) {
+        if (from >= end) return new ArrayList<>();
+        List<Object[]> rows = session.createNativeQuery(CANDLES_SQL, Object[].class)
+                .setParameter("width", interval).setParameter("id", assetId)
+                .setParameter("from", from).setParameter("end", end)
+                .setMaxResults(limit)
+                .list();
+        List<Candles.Candle> candles = new ArrayList<>(rows.size());
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            Object[] r = rows.get(i);
+            candles.add(new Candles.Candle(((Number) r[0]).longValue(), number(r[1]), number(r[2]), number(r[3]), number(r[4]), number(r[5]),
+                    ((Number) r[6]).longValue()));
+        }
+        return candles;
+    }
+
+    private static double number(Object value) { return value == null ? Double.NaN : ((Number) value).doubleValue(); }
+
+    // --- PRICE TICKS ---
+
+    /** POST /catalog/market-assets/{id}/ticks with {"price":..,"demand":..,"timestamp":..} or an array of them. */
+    private static void postTicks(Context ctx) {
+        if (!authorize(ctx, "ADMIN")) return;
+        int accepted;
+        try {
+            accepted = ticks.offerJson(ctx.pathParam("id"), ctx.bodyInputStream());
+        } catch (IOException e) { throw new BadRequestResponse("Invalid ticks: " + e.getMessage()); }
+        if (accepted < 0) ctx.status(503).result("Tick buffer full, retry later");
+        else ctx.status(202).json(Map.of("accepted", accepted));
+    }
+
+    // Group commit on the tick writer thread: one transaction, batched history inserts, one price update per asset
+    private static void commitTicks(TickIngest.Batch batch) {
+        if (batch.applied == batch.size) return; // committed on an earlier attempt; only the alerts after it failed
+        Map<String, Integer> latest = new HashMap<>();
+        for (int i = 0; i < batch.size; i++) latest.put(batch.assetIds[i], i);
+
+        try (Session session = openSession(MarketAssetHistory.class)) {
+            Transaction tx = session.beginTransaction();
+            Set<String> known = new HashSet<>(session.createQuery(
+                    "select a.id from " + MarketAsset.class.getName() + " a where a.id in :ids", String.class)
+                    .setParameter("ids", latest.keySet()).list());
+            int written = 0;
+            long[] seqs = new long[batch.size];
+            for (int i = 0; i < batch.size; i++) {
+                if (!known.contains(batch.assetIds[i])) { seqs[i] = -1; continue; } // unknown asset ids are dropped, not orphaned
+                double demand = batch.demands[i];
+                MarketAssetHistory row = new MarketAssetHistory(batch.assetIds[i], batch.timestamps[i], batch.prices[i], Double.isNaN(demand) ? null : demand);
+                session.persist(row);
+                seqs[i] = row.internalId;
+                if (++written % CatalogBulk.CHUNK == 0) { session.flush(); session.clear(); }
+            }
+            for (Map.Entry<String, Integer> e : latest.entrySet()) {
+                if (!known.contains(e.getKey())) continue;
+                int i = e.getValue();
+                boolean withDemand = !Double.isNaN(batch.demands[i]);
+                MutationQuery update = session.createMutationQuery("update " + MarketAsset.class.getName()
+                        + " a set a.currentPrice = :price" + (withDemand ? ", a.demand = :demand" : "") + " where a.id = :id")
+                        .setParameter("price", batch.prices[i]).setParameter("id", e.getKey());
+                if (withDemand) update.setParameter("demand", batch.demands[i]);
+                update.executeUpdate();
+            }
+            tx.commit();
+            batch.applied = batch.size;
+            for (String id : known) upserts.forget(MarketAsset.class, id); // price and demand moved on
+            for (int i = 0; i < batch.size; i++) {
+                if (seqs[i] < 0) continue;
+                stats.update(batch.assetIds[i], seqs[i], batch.timestamps[i], batch.prices[i], batch.demands[i]);
+                monitor.onPrice(batch.assetIds[i], batch.timestamps[i], batch.prices[i]);
+            }
+        }
+    }
+
+    // Runs after the tick's transaction committed
+    private static void onTick(MarketAssetHistory tick) {
+        stats.update(tick.assetId, tick.internalId, tick.timestamp, tick.price == null ? Double.NaN : tick.price, tick.demand == null ? Double.NaN : tick.demand);
+        if (tick.price != null) monitor.onPrice(tick.assetId, tick.timestamp, tick.price);
+    }
+
+    // internalId is the tick sequence: ticks committed while a series is seeding are not counted twice
+    private static boolean seedStats(String assetId, RollingStats.TickSink sink) {
+        try (Session session = openSession(MarketAssetHistory.class)) {
+            if (session.get(MarketAsset.class, assetId) == null) return false;
+            Transaction tx = session.beginTransaction();
+            readHistory(session, assetId, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE, sink);
+            tx.commit();
+            return true;
+        }
+    }
+
+    // --- COLD HISTORY ---
+
+    private static final int COMPACT_PASS = 16 * ColdHistory.BLOCK_TICKS; // rows moved per transaction
+    private static final int LATE_BLOCKS = 16; // blocks re-packed for late ticks per transaction
+
+    /** Moves every asset's ticks older than ColdHistory.COLD_AFTER_MS from market_history into blocks. */
+    private static void compactHistory() {
+        long cutoff = System.currentTimeMillis() - ColdHistory.COLD_AFTER_MS;
+        List<String> assets;
+        try (Session session = sessionFactory.openSession()) {
+            assets = session.createQuery("select a.id from " + MarketAsset.class.getName() + " a", String.class).list();
+        }
+        for (String assetId : assets) {
+            while (compactHistory(assetId, cutoff)) { /* next pass */ }
+        }
+    }
+
+    /**
+     * Moves up to COMPACT_PASS of an asset's rows older than cutoff into blocks in one transaction; true if there
+     * may be more. Rows past the last block are packed with it if it is partial, so only the last one is partial
+     * until a late tick comes. A late tick re-packs just the block it falls in (the first one ending at or after
+     * it), which may split that block in two; up to LATE_BLOCKS blocks a pass. Rows are deleted by id: a late tick
+     * written during the pass stays a row until the next one.
+     */
+    private static boolean compactHistory(String assetId, long cutoff) {
+        try (Session session = openSession(MarketAssetHistoryBlock.class)) {
+            Transaction tx = session.beginTransaction();
+            try {
+                List<Object[]> rows = session.createQuery("select h.internalId, h.timestamp, h.price, h.demand from " + MarketAssetHistory.class.getName()
+                        + " h where h.assetId = :id and h.timestamp < :cutoff order by h.timestamp, h.internalId", Object[].class)
+                        .setParameter("id", assetId).setParameter("cutoff", cutoff).setMaxResults(COMPACT_PASS).list();
+                if (rows.isEmpty()) {
+                    tx.commit();
+                    return false;
+                }
+                String blocks = MarketAssetHistoryBlock.class.getName();
+                MarketAssetHistoryBlock tail = session.createQuery("from " + blocks + " b where b.assetId = :id order by b.firstTimestamp desc, b.blockId desc",
+                        MarketAssetHistoryBlock.class).setParameter("id", assetId).setMaxResults(1).uniqueResult();
+                long appendFrom = tail == null ? Long.MIN_VALUE : tail.ticks < ColdHistory.BLOCK_TICKS ? tail.firstTimestamp : tail.lastTimestamp;
+                int late = 0;
+                while (late < rows.size() && (Long) rows.get(late)[1] < appendFrom) late++;
+
+                long[] moved;
+                boolean more;
+                if (late == 0) {
+                    moved = repack(session, assetId, tail != null && tail.ticks < ColdHistory.BLOCK_TICKS ? tail : null, rows);
+                    more = rows.size() == COMPACT_PASS;
+                } else {
+                    // Late rows only, grouped by the block they fall in; the rest wait for the next pass
+                    List<Object[]> ends = session.createQuery("select b.blockId, b.lastTimestamp from " + blocks + " b where b.assetId = :id and b.lastTimestamp >= :from"
+                            + " order by b.firstTimestamp, b.blockId", Object[].class).setParameter("id", assetId).setParameter("from", rows.get(0)[1]).list();
+                    moved = new long[2];
+                    int r = 0, reopened = 0;
+                    for (Iterator<Object[]> it = ends.iterator(); r < late && reopened < LATE_BLOCKS && it.hasNext(); ) {
+                        Object[] end = it.next();
+                        int from = r;
+                        while (r < late && (Long) rows.get(r)[1] <= (Long) end[1]) r++;
+                        if (r == from) continue;
+                        long[] m = repack(session, assetId, session.get(MarketAssetHistoryBlock.class, end[0]), rows.subList(from, r));
+                        moved[0] += m[0];
+                        moved[1] += m[1];
+                        reopened++;
+                    }
+                    more = true;
+                }
+                tx.commit();
+                ColdHistory.archived(moved[0], moved[1]);
+                return more;
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Replaces block (may be null) with blocks holding its ticks plus rows, which are in (timestamp, internalId)
+     * order and all fall in or after it, and deletes the rows. Returns {rows moved, bytes added}.
+     */
+    private static long[] repack(Session session, String assetId, MarketAssetHistoryBlock block, List<Object[]> rows) {
+        // The block's ticks and the rows are each sorted already: decode one, then merge the other into it
+        int old = block == null ? 0 : block.ticks, total = old + rows.size();
+        long[] seqs = new long[total], timestamps = new long[total];
+        double[] prices = new double[total], demands = new double[total];
+        if (block != null) ColdHistory.decode(block.data, seqs, timestamps, prices, demands);
+        long[] s2 = new long[total], t2 = new long[total];
+        double[] p2 = new double[total], d2 = new double[total];
+        List<Long> ids = new ArrayList<>(rows.size());
+        int a = 0, n = 0;
+        for (Object[] r : rows) {
+            long id = (Long) r[0], timestamp = (Long) r[1];
+            while (a < old && (timestamps[a] < timestamp || timestamps[a] == timestamp && seqs[a] < id)) {
+                s2[n] = seqs[a]; t2[n] = timestamps[a]; p2[n] = prices[a]; d2[n++] = demands[a++];
+            }
+            ids.add(id);
+            s2[n] = id;
+            t2[n] = timestamp;
+            p2[n] = r[2] == null ? Double.NaN : (Double) r[2];
+            d2[n++] = r[3] == null ? Double.NaN : (Double) r[3];
+        }
+        while (a < old) { s2[n] = seqs[a]; t2[n] = timestamps[a]; p2[n] = prices[a]; d2[n++] = demands[a++]; }
+
+        long bytes = 0;
+        if (block != null) {
+            bytes -= block.data.length;
+            session.remove(block);
+        }
+        for (int i = 0; i < total; i += ColdHistory.BLOCK_TICKS) {
+            MarketAssetHistoryBlock packed = new MarketAssetHistoryBlock();
+            packed.assetId = assetId;
+            packed.ticks = Math.min(ColdHistory.BLOCK_TICKS, total - i);
+            packed.firstTimestamp = t2[i];
+            packed.lastTimestamp = t2[i + packed.ticks - 1];
+            packed.data = ColdHistory.encode(s2, t2, p2, d2, i, packed.ticks);
+            bytes += packed.data.length;
+            session.persist(packed);
+        }
+        session.flush(); // the old block goes before the rows it now covers
+        for (int i = 0; i < ids.size(); i += 1_000) {
+            session.createMutationQuery("delete from " + MarketAssetHistory.class.getName() + " h where h.internalId in :ids")
+                    .setParameter("ids", ids.subList(i, Math.min(ids.size(), i + 1_000))).executeUpdate();
+        }
+        return new long[] { rows.size(), bytes };
+    }
+
+    private static long longParam(Context ctx, String name, long fallback) {
+        String value = ctx.queryParam(name);
+        try {
+            return value == null || value.isBlank() ? fallback : Long.parseLong(value);
+        } catch (NumberFormatException e) { throw new BadRequestResponse("Invalid " + name + ": " + value); }
     }
 
     // --- GOVERNANCE ENGINE ---
 
     private static boolean authorize(Context ctx, String action) {
+        long t0 = System.nanoTime();
         String username = ctx.header("X-User");
-        if (username == null) return false;
-        try (Session session = sessionFactory.openSession()) {
-            User u = session.get(User.class, username.toLowerCase());
-            if (u != null && (u.permissions.contains(action + ":ALL") || u.permissions.contains("ADMIN:ALL"))) return true;
-        }
+        if (username == null) { CatalogMetrics.auth(t0, false); return false; }
+        PermissionCache.Permissions p = permissions.get(username);
+        boolean allowed = p.allows(action) || p.allows(ADMIN);
+        CatalogMetrics.auth(t0, allowed);
+        if (allowed) return true;
         ctx.status(403).result("Access Denied");
         return false;
     }
 
+    // Cache miss path: one session, user plus its permission collection
+    private static Collection<String> loadPermissions(String username) {
+        try (Session session = openSession(User.class)) {
+            User u = session.get(User.class, username);
+            return u == null ? null : new ArrayList<>(u.permissions);
+        }
+    }
+
     private static String executeGrant(String command) {
         try {
             String[] parts = command.split("\\s+");
@@ -189,19 +957,21 @@ public class marketops4 {
             String target = parts[3].toUpperCase();
             String username = parts[5].toLowerCase();
 
-            try (Session session = sessionFactory.openSession()) {
+            try (Session session = openSession(User.class)) {
                 Transaction tx = session.beginTransaction();
                 User user = session.get(User.class, username);
                 if (user == null) user = new User(username);
                 user.permissions.add(action + ":" + target);
                 session.merge(user);
                 tx.commit();
+                permissions.invalidate(username);
+                changes.granted(username, action + ":" + target);
                 return "SUCCESS";
             }
         } catch (Exception e) { return "ERROR"; }
     }
 
-    private static void bootstrapAdmin() {
+    static void bootstrapAdmin() {
         try (Session session = sessionFactory.openSession()) {
             Transaction tx = session.beginTransaction();
             User admin = new User("admin_user");
@@ -0,0 +1,192 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogSearchTest {
+
+    public static class Asset { public String id, name, description; }
+    public static class Model { public String id, modelName, equation; }
+
+    private static final List<String> VOCABULARY = List.of(
+            "price", "priced", "pricing", "pri", "close", "closing", "closed", "open", "opening", "volume", "volatility",
+            "vol", "rate", "rated", "ratio", "demand", "demands", "spread", "spot", "sport", "yield", "curve", "x", "x1", "eu", "euro");
+
+    private static final class Doc {
+        final String type, id;
+        final String[] texts;
+        final Map<String, Integer> masks = new HashMap<>();
+
+        Doc(String type, String id, String[] texts) {
+            this.type = type; this.id = id; this.texts = texts;
+            for (int f = 0; f < texts.length; f++) {
+                int bit = 1 << f;
+                CatalogSearch.tokenize(texts[f], word -> masks.merge(word, bit, (a, b) -> a | b));
+            }
+        }
+    }
+
+    // A field of one to four vocabulary words joined the ways names get written
+    private static String text(Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0, n = 1 + r.nextInt(4); i < n; i++) {
+            String word = VOCABULARY.get(r.nextInt(VOCABULARY.size()));
+            switch (r.nextInt(4)) {
+                case 0: sb.append(i == 0 ? "" : "_").append(word); break;
+                case 1: sb.append(i == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1)); break;
+                case 2: sb.append(i == 0 ? "" : " ").append(word.toUpperCase()); break;
+                default: sb.append(i == 0 ? "" : " - ").append(word);
+            }
+        }
+        return r.nextInt(10) == 0 ? null : sb.toString();
+    }
+
+    private static String query(Random r) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0, n = 1 + r.nextInt(3); i < n; i++) words.add(r.nextInt(15) == 0 ? "missing" : VOCABULARY.get(r.nextInt(VOCABULARY.size())));
+        String last = words.get(words.size() - 1);
+        if (r.nextBoolean()) words.set(words.size() - 1, last.substring(0, 1 + r.nextInt(last.length()))); // still being typed
+        return String.join(r.nextBoolean() ? " " : "_", words);
+    }
+
+    // Linear scan: every word must occur, the last one also as a prefix; the best-scoring occurrence of each word counts
+    private static Map<Doc, Double> scan(Iterable<Doc> docs, String q, String type) {
+        Set<String> words = new LinkedHashSet<>();
+        CatalogSearch.tokenize(q, words::add);
+        List<Doc> all = new ArrayList<>();
+        docs.forEach(all::add);
+        Map<String, Integer> df = new HashMap<>();
+        for (Doc d : all) for (String term : d.masks.keySet()) df.merge(term, 1, Integer::sum);
+        Map<Doc, Double> scores = new LinkedHashMap<>();
+        if (words.isEmpty()) return scores;
+        next:
+        for (Doc d : all) {
+            if (type != null && !d.type.equals(type)) continue;
+            double total = 0;
+            int w = 0;
+            for (String word : words) {
+                boolean last = ++w == words.size();
+                double best = 0;
+                for (Map.Entry<String, Integer> e : d.masks.entrySet()) {
+                    String term = e.getKey();
+                    boolean prefix = last && word.length() >= CatalogSearch.MIN_PREFIX && term.length() > word.length() && term.startsWith(word);
+                    if (!term.equals(word) && !prefix) continue;
+                    double s = Math.log(1 + (double) all.size() / df.get(term)) * ((e.getValue() & 1) != 0 ? 3 : 1) * (prefix ? 0.5 : 1);
+                    best = Math.max(best, s);
+                }
+                if (best == 0) continue next;
+                total += best;
+            }
+            scores.put(d, total);
+        }
+        return scores;
+    }
+
+    private static CatalogSearch index() {
+        CatalogSearch search = new CatalogSearch();
+        search.type("assets", Asset.class, "name", "description");
+        search.type("models", Model.class, "modelName", "equation");
+        return search;
+    }
+
+    private static Doc put(CatalogSearch search, Random r, String type, String id) {
+        Doc d = new Doc(type, id, new String[] { text(r), text(r) });
+        search.put(type.equals("assets") ? Asset.class : Model.class, id, d.texts);
+        return d;
+    }
+
+    @Test
+    void ranksLikeALinearScan() {
+        Random r = new Random(23);
+        CatalogSearch search = index();
+        List<Doc> docs = new ArrayList<>();
+        for (int i = 0; i < 400; i++) docs.add(put(search, r, i % 3 == 0 ? "models" : "assets", "o" + i));
+        Map<Doc, Integer> order = new HashMap<>();
+        for (Doc d : docs) order.put(d, order.size());
+
+        for (int k = 0; k < 2_000; k++) {
+            String q = query(r), type = k % 4 == 0 ? "models" : k % 4 == 1 ? "assets" : null;
+            int limit = 1 + r.nextInt(30);
+            Map<Doc, Double> expected = scan(docs, q, type);
+            CatalogSearch.Result result = search.search(q, type, limit);
+            assertEquals(expected.size(), result.total, q);
+            assertEquals(Math.min(limit, expected.size()), result.hits.size(), q);
+
+            Map<String, Doc> byKey = new HashMap<>();
+            for (Doc d : docs) byKey.put(d.type + "/" + d.id, d);
+            Set<Doc> hit = new HashSet<>();
+            CatalogSearch.Hit previous = null;
+            for (CatalogSearch.Hit h : result.hits) {
+                Doc d = byKey.get(h.type + "/" + h.id);
+                assertTrue(hit.add(d), q + ": " + h.id + " twice");
+                assertEquals(expected.get(d), h.score, 1e-4, q + ": " + h.id);
+                if (previous != null) {
+                    assertTrue(previous.score >= h.score, q + ": hits out of order");
+                    if (previous.score == h.score) assertTrue(order.get(byKey.get(previous.type + "/" + previous.id)) < order.get(d), q + ": tie out of order");
+                }
+                previous = h;
+            }
+            // Nothing left out scores above the last hit
+            double floor = previous == null ? Double.POSITIVE_INFINITY : previous.score;
+            for (Map.Entry<Doc, Double> e : expected.entrySet()) {
+                if (!hit.contains(e.getKey())) assertTrue(e.getValue() <= floor + 1e-4, q + ": missed " + e.getKey().id);
+            }
+        }
+    }
+
+    @Test
+    void matchesALinearScanAcrossReindexingAndCompaction() {
+        Random r = new Random(29);
+        CatalogSearch search = index();
+        Map<String, Doc> live = new LinkedHashMap<>();
+        for (int round = 0; round < 6; round++) {
+            // Enough rewrites of few objects that deleted docs outnumber live ones and get compacted
+            for (int i = 0; i < 2_000; i++) {
+                String id = "o" + r.nextInt(300);
+                String type = id.hashCode() % 3 == 0 ? "models" : "assets";
+                Doc d = put(search, r, type, id);
+                live.put(type + "/" + id, d);
+            }
+            for (int k = 0; k < 300; k++) {
+                String q = query(r), type = k % 3 == 0 ? "assets" : null;
+                Set<String> expected = new HashSet<>();
+                for (Doc d : scan(live.values(), q, type).keySet()) expected.add(d.type + "/" + d.id);
+                Set<String> found = new HashSet<>();
+                for (CatalogSearch.Hit h : search.search(q, type, CatalogSearch.MAX_LIMIT).hits) found.add(h.type + "/" + h.id);
+                assertEquals(expected, found, q);
+            }
+        }
+        assertTrue(search.stats().startsWith("(" + live.size() + " objects,"), search.stats());
+    }
+
+    @Test
+    void tokenizesWordsAndCamelCaseHumps() {
+        for (String text : List.of("close_price", "closePrice", "Close Price", "CLOSE-price", "  close,\tprice!")) {
+            List<String> words = new ArrayList<>();
+            CatalogSearch.tokenize(text, words::add);
+            assertEquals(List.of("close", "price"), words, text);
+        }
+        List<String> words = new ArrayList<>();
+        CatalogSearch.tokenize("eurUSD2024 x1Y " + "a".repeat(100), words::add);
+        assertEquals(List.of("eur", "usd2024", "x1y", "a".repeat(CatalogSearch.MAX_TOKEN)), words);
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        assertThrows(IllegalArgumentException.class, () -> index().search("price", "nothing", 10));
+        assertEquals(0, index().search("  --  ", null, 10).total);
+    }
+}
@@ -0,0 +1,81 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogWalTest {
+
+    @TempDir
+    Path dir;
+
+    /** Replays ticks of asset "a" into one history the way marketops2 does. */
+    private static final class History implements CatalogWal.Replay {
+        final PriceHistory history = new PriceHistory();
+
+        @Override public void snapshot(CatalogSnapshot snapshot) {
+            for (CatalogSnapshot.Section section : snapshot.sections()) {
+                for (int i = 0; i < section.size(); i++) if (section.id(i).equals("a")) section.readHistory(i, history);
+            }
+        }
+        @Override public void put(String type, String id, byte[] json) {}
+        @Override public void tick(String assetId, int index, long timestamp, double price, double demand) {
+            if (!assetId.equals("a") || history.holds(index, timestamp, price, demand)) return;
+            history.append(timestamp, price, Double.isNaN(demand) ? null : demand);
+        }
+        @Override public void grant(String username, String permission) {}
+    }
+
+    @Test
+    void replaysTicksLoggedDuringASnapshotOnce() throws IOException {
+        PriceHistory live = new PriceHistory();
+        try (CatalogWal wal = new CatalogWal(dir)) {
+            wal.recover(new History());
+            for (int i = 0; i < 5; i++) tick(wal, live, i);
+            // Ticks 5 and 6 land in the new segment while the snapshot is written, and in the snapshot too
+            wal.snapshot(out -> {
+                tick(wal, live, 5);
+                tick(wal, live, 6);
+                out.type("market-assets", List.of());
+                out.put("a", "{}".getBytes(), new String[0], live);
+            });
+            wal.awaitDurable(tick(wal, live, 7));
+        }
+
+        History replayed = new History();
+        try (CatalogWal wal = new CatalogWal(dir)) {
+            wal.recover(replayed);
+        }
+        assertEquals(8, replayed.history.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(1_000L * (i / 2), replayed.history.timestampAt(i));
+            assertEquals(10.0 + i / 2, replayed.history.priceAt(i));
+        }
+    }
+
+    @Test
+    void tellsOlderTickRecordsApartByTheLastTick() {
+        PriceHistory h = new PriceHistory();
+        h.append(1_000, 1.0, null);
+        h.append(2_000, 2.0, 5.0);
+        assertTrue(h.holds(1, 0, 0, 0));
+        assertFalse(h.holds(2, 0, 0, 0));
+        assertTrue(h.holds(-1, 1_500, 9.0, Double.NaN));
+        assertTrue(h.holds(-1, 2_000, 2.0, 5.0));
+        assertFalse(h.holds(-1, 2_000, 2.5, 5.0));
+        assertFalse(h.holds(-1, 2_001, 2.0, 5.0));
+    }
+
+    // Ticks come in identical pairs, which only the logged index tells apart
+    private static long tick(CatalogWal wal, PriceHistory h, int i) throws IOException {
+        int index = h.append(1_000L * (i / 2), 10.0 + i / 2, null);
+        return wal.appendTick("a", index, h.timestampAt(index), h.priceAt(index), h.demandAt(index));
+    }
+}
@@ -0,0 +1,73 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ColdHistoryTest {
+
+    @Test
+    void roundTripsMissingValuesAndSignedZeroBitForBit() {
+        long[] timestamps = { 1_000, 2_000, 3_000, 4_000, 5_000, 6_000, 7_000 };
+        double[] prices = { 1.5, Double.NaN, -0.0, 0.0, Double.longBitsToDouble(0x7ff8_0000_0000_0123L), Double.POSITIVE_INFINITY, -0.0 };
+        double[] demands = { Double.NaN, Double.NaN, 3.0, -0.0, Double.NaN, 0.0, Double.NEGATIVE_INFINITY };
+        assertRoundTrip(null, timestamps, prices, demands, 0, timestamps.length);
+    }
+
+    @Test
+    void roundTripsLargeAndNegativeDeltas() {
+        long[] timestamps = { 0, 1, Long.MAX_VALUE / 2, Long.MIN_VALUE / 2, 5, 5, 6, 1L << 40, (1L << 40) + 63, (1L << 40) + 64, Long.MAX_VALUE, Long.MIN_VALUE };
+        long[] seqs = { 7, 8, 1L << 33, 9, Long.MAX_VALUE, 0, -1, 10, 11, 12, Long.MIN_VALUE, 13 };
+        double[] prices = new double[timestamps.length], demands = new double[timestamps.length];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = i % 2 == 0 ? Double.MAX_VALUE / (i + 1) : Double.MIN_VALUE * i;
+            demands[i] = -prices[i];
+        }
+        assertRoundTrip(seqs, timestamps, prices, demands, 0, timestamps.length);
+    }
+
+    @Test
+    void roundTripsAFullBlockFromAnOffset() {
+        Random random = new Random(42);
+        int n = ColdHistory.BLOCK_TICKS + 10;
+        long[] seqs = new long[n], timestamps = new long[n];
+        double[] prices = new double[n], demands = new double[n];
+        long ts = 1_672_531_200_000L;
+        double price = 100;
+        for (int i = 0; i < n; i++) {
+            seqs[i] = 1_000 + i * (1 + random.nextInt(3));
+            ts += random.nextInt(10) == 0 ? random.nextInt(1 << 30) : 1_000;
+            timestamps[i] = ts;
+            price = Math.round(price * 100 + random.nextInt(5) - 2) / 100.0;
+            prices[i] = price;
+            demands[i] = random.nextInt(3) == 0 ? Double.NaN : random.nextInt(50);
+        }
+        assertRoundTrip(seqs, timestamps, prices, demands, 10, ColdHistory.BLOCK_TICKS);
+    }
+
+    @Test
+    void passesZeroSequenceNumbersForBlocksWithoutThem() {
+        byte[] block = ColdHistory.encode(null, new long[] { 1, 2 }, new double[] { 1, 2 }, new double[] { 3, 4 }, 0, 2);
+        long[] seen = { -1, -1 };
+        int[] n = { 0 };
+        ColdHistory.decode(block, (seq, timestamp, price, demand) -> seen[n[0]++] = seq);
+        assertEquals(2, ColdHistory.count(block));
+        assertEquals(0, seen[0]);
+        assertEquals(0, seen[1]);
+    }
+
+    private static void assertRoundTrip(long[] seqs, long[] timestamps, double[] prices, double[] demands, int from, int count) {
+        byte[] block = ColdHistory.encode(seqs, timestamps, prices, demands, from, count);
+        long[] s = new long[count], t = new long[count];
+        double[] p = new double[count], d = new double[count];
+        assertEquals(count, ColdHistory.decode(block, seqs == null ? null : s, t, p, d));
+        for (int i = 0; i < count; i++) {
+            if (seqs != null) assertEquals(seqs[from + i], s[i], "seq " + i);
+            assertEquals(timestamps[from + i], t[i], "timestamp " + i);
+            assertEquals(Double.doubleToRawLongBits(prices[from + i]), Double.doubleToRawLongBits(p[i]), "price " + i);
+            assertEquals(Double.doubleToRawLongBits(demands[from + i]), Double.doubleToRawLongBits(d[i]), "demand " + i);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineageGraphTest {
+
+    /** The edges of the live records as plain sets, walked breadth-first. */
+    private static final class Naive {
+        final Map<String, String[]> records = new HashMap<>();
+        final List<String[]> anonymous = new ArrayList<>();
+        final Map<String, Set<String>> kinds = new HashMap<>();
+
+        void record(String recordId, String dataSourceId, String assetId, String modelId, String userId) {
+            if (recordId != null) records.remove(recordId);
+            if (assetId == null) return;
+            String[] r = { dataSourceId, assetId, modelId, userId == null ? null : "user:" + userId };
+            String[] kind = { "SOURCE", "ASSET", "MODEL", "USER" };
+            for (int i = 0; i < 4; i++) if (r[i] != null) kinds.computeIfAbsent(r[i], k -> new TreeSet<>()).add(kind[i]);
+            if (recordId == null) anonymous.add(r); else records.put(recordId, r);
+        }
+
+        Map<String, Set<String>> edges(boolean down) {
+            Map<String, Set<String>> adj = new HashMap<>();
+            List<String[]> all = new ArrayList<>(records.values());
+            all.addAll(anonymous);
+            for (String[] r : all) {
+                for (int i : new int[] { 0, 2, 3 }) {
+                    if (r[i] == null) continue;
+                    if (down) adj.computeIfAbsent(r[i], k -> new HashSet<>()).add(r[1]);
+                    else adj.computeIfAbsent(r[1], k -> new HashSet<>()).add(r[i]);
+                }
+            }
+            return adj;
+        }
+
+        // Shortest hop count of every node reachable within maxDepth, the start excluded
+        Map<String, Integer> bfs(String start, boolean down, int maxDepth) {
+            Map<String, Set<String>> adj = edges(down);
+            Map<String, Integer> depth = new LinkedHashMap<>();
+            depth.put(start, 0);
+            ArrayDeque<String> queue = new ArrayDeque<>(List.of(start));
+            while (!queue.isEmpty()) {
+                String node = queue.poll();
+                int d = depth.get(node);
+                if (d == maxDepth) continue;
+                for (String next : adj.getOrDefault(node, Set.of())) {
+                    if (depth.putIfAbsent(next, d + 1) == null) queue.add(next);
+                }
+            }
+            depth.remove(start);
+            return depth;
+        }
+    }
+
+    private static void assertWalk(LineageGraph graph, Naive naive, String id, boolean down, int maxDepth, int limit) {
+        LineageGraph.Traversal t = down ? graph.downstream(id, maxDepth, limit) : graph.upstream(id, maxDepth, limit);
+        String label = (down ? "downstream " : "upstream ") + id + " depth " + maxDepth + " limit " + limit;
+        if (!naive.kinds.containsKey(id)) { assertNull(t, label); return; }
+        Map<String, Integer> expected = naive.bfs(id, down, maxDepth);
+        Map<String, Set<String>> adj = naive.edges(down);
+        assertEquals(Math.min(limit, expected.size()), t.nodes.size(), label);
+        assertEquals(expected.size() > limit, t.truncated, label);
+        Set<String> seen = new HashSet<>();
+        Map<Integer, Integer> byDepth = new TreeMap<>();
+        int last = 0;
+        for (LineageGraph.Node n : t.nodes) {
+            assertTrue(seen.add(n.id), label + ": " + n.id + " twice");
+            assertEquals(expected.get(n.id), n.depth, label + ": " + n.id);
+            assertTrue(n.depth >= last, label + ": not breadth-first");
+            last = n.depth;
+            assertEquals(List.copyOf(naive.kinds.get(n.id)), List.copyOf(new TreeSet<>(n.kinds)), label + ": kinds of " + n.id);
+            // via is one hop closer and links to the node
+            assertEquals(n.depth - 1, n.via.equals(id) ? 0 : expected.get(n.via), label + ": via of " + n.id);
+            assertTrue(adj.get(n.via).contains(n.id), label + ": via of " + n.id);
+            byDepth.merge(n.depth, 1, Integer::sum);
+        }
+        assertEquals(byDepth, t.byDepth, label);
+    }
+
+    @Test
+    void walksLikeANaiveBfs() {
+        Random r = new Random(31);
+        LineageGraph graph = new LineageGraph();
+        Naive naive = new Naive();
+        for (int step = 0; step < 3_000; step++) {
+            // Sources, assets and models share one namespace of 40 ids, so records chain and loop
+            String recordId = r.nextInt(20) == 0 ? null : "rec" + r.nextInt(150);
+            String source = r.nextInt(4) == 0 ? null : "n" + r.nextInt(40);
+            String asset = r.nextInt(30) == 0 ? null : "n" + r.nextInt(40);
+            String model = r.nextInt(2) == 0 ? null : "n" + r.nextInt(40);
+            String user = r.nextInt(3) == 0 ? null : "u" + r.nextInt(5);
+            graph.record(recordId, source, asset, model, user);
+            naive.record(recordId, source, asset, model, user);
+            if (step % 10 != 0) continue;
+            String id = r.nextInt(10) == 0 ? "user:u" + r.nextInt(6) : "n" + r.nextInt(42);
+            int depth = 1 + r.nextInt(6), limit = r.nextInt(4) == 0 ? 1 + r.nextInt(20) : LineageGraph.MAX_LIMIT;
+            assertWalk(graph, naive, id, true, depth, limit);
+            assertWalk(graph, naive, id, false, depth, limit);
+            if (naive.kinds.containsKey(id)) {
+                assertEquals(new TreeSet<>(naive.edges(false).getOrDefault(id, Set.of())), new TreeSet<>(graph.parents(id)), "parents of " + id);
+            }
+        }
+        long edges = naive.edges(true).values().stream().mapToLong(Set::size).sum();
+        assertEquals(edges, graph.stats().get("edges"));
+    }
+
+    @Test
+    void visitsEachNodeOfACycleOnce() {
+        LineageGraph graph = new LineageGraph();
+        graph.record("ab", "a", "b", null, null);
+        graph.record("bc", "b", "c", null, null);
+        graph.record("ca", "c", "a", "m", "ann");
+        LineageGraph.Traversal down = graph.downstream("a", LineageGraph.MAX_DEPTH, LineageGraph.MAX_LIMIT);
+        assertEquals(List.of("b", "c"), down.nodes.stream().map(n -> n.id).toList());
+        assertEquals(List.of(1, 2), down.nodes.stream().map(n -> n.depth).toList());
+        assertFalse(down.truncated);
+        LineageGraph.Traversal up = graph.upstream("a", LineageGraph.MAX_DEPTH, LineageGraph.MAX_LIMIT);
+        assertEquals(Set.of("c", "m", "user:ann", "b"), up.nodes.stream().map(n -> n.id).collect(Collectors.toSet()));
+        assertEquals(Map.of("ASSET", 2, "MODEL", 1, "SOURCE", 2, "USER", 1), up.byKind);
+
+        // Re-posting a record moves its edges, which opens the cycle
+        graph.record("ca", "c", "d", null, null);
+        assertEquals(List.of("b", "c", "d"), graph.downstream("a", LineageGraph.MAX_DEPTH, LineageGraph.MAX_LIMIT).nodes.stream().map(n -> n.id).toList());
+        assertEquals(List.of(), graph.upstream("a", LineageGraph.MAX_DEPTH, LineageGraph.MAX_LIMIT).nodes);
+    }
+}
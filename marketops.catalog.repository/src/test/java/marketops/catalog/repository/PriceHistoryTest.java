@@ -0,0 +1,29 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PriceHistoryTest {
+
+    @Test
+    void keepsTicksWhileTheFirstChunkGrows() {
+        PriceHistory h = new PriceHistory();
+        int n = 3 * 4096 + 5;
+        for (int i = 0; i < n; i++) {
+            h.append(10L * i, (double) i, i % 3 == 0 ? null : -1.0 * i);
+            assertEquals(10L * i, h.timestampAt(i));
+            assertEquals(10L * (i / 2), h.timestampAt(i / 2)); // ticks copied into a grown chunk are still there
+        }
+        assertEquals(2 * 4096, h.seal(10L * 4096 * 2));
+        long[] sum = new long[1];
+        h.forEach((timestamp, price, demand) -> sum[0] += timestamp);
+        assertEquals(10L * n * (n - 1) / 2, sum[0]);
+        for (int i = 0; i < n; i += 97) {
+            assertEquals(i, h.lowerBound(10L * i));
+            assertEquals(i + 1, h.upperBound(10L * i));
+            assertEquals((double) i, h.priceAt(i));
+            assertEquals(i % 3 == 0 ? Double.NaN : -1.0 * i, h.demandAt(i));
+        }
+    }
+}
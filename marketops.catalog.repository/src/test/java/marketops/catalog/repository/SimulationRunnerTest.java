@@ -0,0 +1,173 @@
+package marketops.catalog.repository;
+
+import io.javalin.http.BadRequestResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SimulationRunnerTest {
+
+    private static final List<String> NAMES = List.of("a", "b", "c");
+
+    /** A random expression: its source text and a direct evaluation of it. */
+    private record Expr(String src, ToDoubleFunction<Map<String, Double>> eval) {}
+
+    private static Expr random(Random r, int depth) {
+        if (depth == 0 || r.nextInt(4) == 0) {
+            switch (r.nextInt(6)) {
+                case 0: case 1: case 2: {
+                    String name = NAMES.get(r.nextInt(NAMES.size()));
+                    return new Expr(name, v -> v.get(name));
+                }
+                case 3: return new Expr("pi", v -> Math.PI);
+                default: {
+                    double value = r.nextInt(2) == 0 ? r.nextInt(10) : r.nextDouble() * Math.pow(10, r.nextInt(7) - 3);
+                    return new Expr(Double.toString(value), v -> value);
+                }
+            }
+        }
+        Expr x = random(r, depth - 1), y = random(r, depth - 1);
+        switch (r.nextInt(12)) {
+            case 0: return new Expr("(" + x.src + " + " + y.src + ")", v -> x.eval.applyAsDouble(v) + y.eval.applyAsDouble(v));
+            case 1: return new Expr("(" + x.src + " - " + y.src + ")", v -> x.eval.applyAsDouble(v) - y.eval.applyAsDouble(v));
+            case 2: return new Expr("(" + x.src + " * " + y.src + ")", v -> x.eval.applyAsDouble(v) * y.eval.applyAsDouble(v));
+            case 3: return new Expr("(" + x.src + " / " + y.src + ")", v -> x.eval.applyAsDouble(v) / y.eval.applyAsDouble(v));
+            case 4: return new Expr("(" + x.src + ")^(" + y.src + ")", v -> Math.pow(x.eval.applyAsDouble(v), y.eval.applyAsDouble(v)));
+            case 5: return new Expr("(-" + x.src + ")", v -> -x.eval.applyAsDouble(v));
+            case 6: return new Expr("exp(" + x.src + ")", v -> Math.exp(x.eval.applyAsDouble(v)));
+            case 7: return new Expr("log(" + x.src + ")", v -> Math.log(x.eval.applyAsDouble(v)));
+            case 8: return new Expr("sqrt(" + x.src + ")", v -> Math.sqrt(x.eval.applyAsDouble(v)));
+            case 9: return new Expr("abs(" + x.src + ")", v -> Math.abs(x.eval.applyAsDouble(v)));
+            case 10: return new Expr("min(" + x.src + ", " + y.src + ")", v -> Math.min(x.eval.applyAsDouble(v), y.eval.applyAsDouble(v)));
+            default: return new Expr("max(" + x.src + ", " + y.src + ")", v -> Math.max(x.eval.applyAsDouble(v), y.eval.applyAsDouble(v)));
+        }
+    }
+
+    // Evaluates the compiled program over n rows of random variables and checks each row against the oracle
+    private static void assertCompiles(String src, ToDoubleFunction<Map<String, Double>> oracle, Random r, int n) {
+        SimulationRunner.Program program = SimulationRunner.compile(src);
+        double[][] cols = program.workspace();
+        for (int v = 0; v < program.variables.size(); v++) {
+            for (int i = 0; i < n; i++) cols[v][i] = (r.nextDouble() - 0.5) * 6;
+        }
+        double[] result = program.eval(cols, n);
+        for (int i = 0; i < n; i++) {
+            Map<String, Double> values = new HashMap<>();
+            for (int v = 0; v < program.variables.size(); v++) values.put(program.variables.get(v), cols[v][i]);
+            for (String name : NAMES) values.putIfAbsent(name, Double.NaN);
+            assertEquals(oracle.applyAsDouble(values), result[i], src + " at " + values);
+        }
+    }
+
+    @Test
+    void compiledProgramsMatchDirectEvaluation() {
+        Random r = new Random(11);
+        for (int k = 0; k < 500; k++) {
+            Expr e = random(r, 1 + r.nextInt(6));
+            assertCompiles(e.src, e.eval, r, k % 2 == 0 ? SimulationRunner.BATCH : 1 + r.nextInt(50));
+        }
+    }
+
+    @Test
+    void followsPrecedenceAndAssociativity() {
+        Random r = new Random(5);
+        assertCompiles("-a^2", v -> -(v.get("a") * v.get("a")), r, 64);
+        assertCompiles("a^b^2", v -> Math.pow(v.get("a"), Math.pow(v.get("b"), 2)), r, 64);
+        assertCompiles("a^-1", v -> 1 / v.get("a"), r, 64);
+        assertCompiles("a - b - c", v -> (v.get("a") - v.get("b")) - v.get("c"), r, 64);
+        assertCompiles("a / b * c", v -> (v.get("a") / v.get("b")) * v.get("c"), r, 64);
+        assertCompiles("a + b * c", v -> v.get("a") + v.get("b") * v.get("c"), r, 64);
+        assertCompiles("2 * 3 + 4 * a", v -> 6 + 4 * v.get("a"), r, 64);
+        assertCompiles("2^3^2 + e", v -> 512 + Math.E, r, 64);
+        assertCompiles("- -a", v -> v.get("a"), r, 64);
+        assertCompiles("1.5e2 * .5 + a", v -> 75 + v.get("a"), r, 64);
+
+        SimulationRunner.Program program = SimulationRunner.compile("profit = price * demand - cost");
+        assertEquals("profit", program.output);
+        assertEquals(List.of("price", "demand", "cost"), program.variables);
+        assertEquals("result", SimulationRunner.compile("a").output);
+    }
+
+    @Test
+    void rejectsMalformedEquations() {
+        for (String src : List.of("", "1 +", "a b", "(a", "a)", "foo(a)", "min(a)", "max(a, b, c)", "= a", "x =", "1..2", "a * * b", "2 3")) {
+            assertThrows(IllegalArgumentException.class, () -> SimulationRunner.compile(src), src);
+        }
+    }
+
+    // --- RUNS ---
+
+    private static final SimulationRunner.Sampler UNIFORM = SimulationRunner.sampler("u", "uniform", Map.of("min", -1.0, "max", 1.0));
+
+    private static SimulationRunner.Result run(String equation, long paths, long seed) {
+        return SimulationRunner.run("s", equation, Map.of("x", "u"), id -> id.equals("u") ? UNIFORM : null, paths, seed);
+    }
+
+    // Every path one at a time, task by task, from the stream the runner documents for each task
+    private static double[] oracle(boolean log, long paths, long seed) {
+        long taskPaths = 64L * SimulationRunner.BATCH;
+        double count = 0, nonFinite = 0, sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        double[] x = new double[SimulationRunner.BATCH];
+        for (int task = 0; (long) task * taskPaths < paths; task++) {
+            SplittableRandom random = new SplittableRandom(seed ^ (task + 1) * 0x9E3779B97F4A7C15L);
+            long end = Math.min(paths, (task + 1) * taskPaths);
+            for (long first = task * taskPaths; first < end; first += SimulationRunner.BATCH) {
+                int n = (int) Math.min(SimulationRunner.BATCH, end - first);
+                UNIFORM.fill(x, n, random);
+                for (int i = 0; i < n; i++) {
+                    double y = log ? Math.log(x[i]) : x[i];
+                    if (!Double.isFinite(y)) { nonFinite++; continue; }
+                    count++;
+                    sum += y;
+                    min = Math.min(min, y);
+                    max = Math.max(max, y);
+                }
+            }
+        }
+        return new double[] { count, nonFinite, sum / count, min, max };
+    }
+
+    @Test
+    void coversEveryPathOnceAcrossBatchesAndTasks() {
+        long task = 64L * SimulationRunner.BATCH;
+        for (long paths : new long[] { 1, SimulationRunner.BATCH - 1, SimulationRunner.BATCH, SimulationRunner.BATCH + 1, task, task + 1, 3 * task + 777 }) {
+            for (boolean log : new boolean[] { false, true }) {
+                long seed = paths * 31 + (log ? 1 : 0);
+                SimulationRunner.Result result = run(log ? "log(x)" : "x", paths, seed);
+                double[] expected = oracle(log, paths, seed);
+                String label = paths + " paths, " + (log ? "log(x)" : "x");
+                assertEquals(expected[0], result.statistics.get("count"), label);
+                assertEquals((long) expected[1], result.nonFinite, label);
+                assertEquals(expected[2], result.statistics.get("mean"), 1e-9, label);
+                assertEquals(expected[3], result.statistics.get("min"), label);
+                assertEquals(expected[4], result.statistics.get("max"), label);
+            }
+        }
+    }
+
+    @Test
+    void sameSeedDrawsTheSameSamples() {
+        long paths = 5 * 64L * SimulationRunner.BATCH + 3;
+        SimulationRunner.Result first = run("x * x", paths, 42), again = run("x * x", paths, 42), other = run("x * x", paths, 43);
+        assertEquals(first.statistics.get("min"), again.statistics.get("min"));
+        assertEquals(first.statistics.get("max"), again.statistics.get("max"));
+        assertEquals(first.statistics.get("mean"), again.statistics.get("mean"), 1e-12);
+        assertNotEquals(first.statistics.get("min"), other.statistics.get("min"));
+    }
+
+    @Test
+    void rejectsUnmappedVariables() {
+        assertThrows(BadRequestResponse.class, () -> run("x + y", 10, 1));
+        assertThrows(BadRequestResponse.class, () -> SimulationRunner.run("s", "x", Map.of("x", "missing"), id -> null, 10, 1));
+        assertThrows(BadRequestResponse.class, () -> run("x +", 10, 1));
+    }
+}
@@ -0,0 +1,133 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TDigestTest {
+
+    private static final double[] QUANTILES = { 0.001, 0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999 };
+
+    // Continuous, so every value is distinct and the rank of an estimate is well defined
+    private static List<DoubleSupplier> distributions(Random r) {
+        return List.of(
+                r::nextDouble,
+                r::nextGaussian,
+                () -> -Math.log(1 - r.nextDouble()),
+                () -> Math.exp(3 * r.nextGaussian()),
+                () -> r.nextBoolean() ? r.nextGaussian() : 1_000 + r.nextDouble());
+    }
+
+    /**
+     * The stated bound: the estimate's rank is off from q * n by at most one k1 unit of mass at q,
+     * 2 pi sqrt(q (1 - q)) / compression of the values, i.e. about the width of the centroid there.
+     */
+    private static void assertQuantiles(double[] sorted, TDigest digest, double compression, String label) {
+        int n = sorted.length;
+        assertEquals(n, digest.size(), label);
+        assertEquals(sorted[0], digest.quantile(0), label);
+        assertEquals(sorted[n - 1], digest.quantile(1), label);
+        for (double q : QUANTILES) assertRank(sorted, digest.quantile(q), q, compression, label);
+    }
+
+    private static void assertRank(double[] sorted, double estimate, double q, double compression, String label) {
+        int n = sorted.length;
+        double rank = Math.abs(Arrays.binarySearch(sorted, estimate) + 0.5) - 0.5; // fractional position if not a value
+        double bound = 2 * Math.PI * Math.sqrt(q * (1 - q)) / compression * n;
+        assertTrue(Math.abs(rank - q * n) <= bound,
+                label + " q=" + q + ": rank " + rank + " of " + n + " for " + estimate + ", exact " + sorted[(int) (q * n)] + ", bound " + bound);
+    }
+
+    @Test
+    void quantilesStayWithinOneCentroidOfTheExactRank() {
+        Random r = new Random(41);
+        int n = 50_000;
+        for (double compression : new double[] { 25, 100 }) {
+            int d = 0;
+            for (DoubleSupplier distribution : distributions(r)) {
+                double[] values = new double[n];
+                for (int i = 0; i < n; i++) values[i] = distribution.getAsDouble();
+                double[] sorted = values.clone();
+                Arrays.sort(sorted);
+                String label = "compression " + compression + " distribution " + d++;
+
+                TDigest one = new TDigest(compression);
+                for (double v : values) one.add(v);
+                assertQuantiles(sorted, one, compression, label + " add");
+
+                // Uneven batches, as ingest hands them over
+                TDigest batched = new TDigest(compression);
+                for (int i = 0; i < n; ) {
+                    int len = Math.min(n - i, 1 + r.nextInt(3_000));
+                    batched.addAll(Arrays.copyOfRange(values, i, i + len), len);
+                    i += len;
+                }
+                assertQuantiles(sorted, batched, compression, label + " addAll");
+
+                // Per-bucket digests folded together, as a window query does
+                TDigest merged = new TDigest(compression);
+                for (int p = 0; p < 10; p++) {
+                    TDigest part = new TDigest(compression);
+                    for (int i = p * n / 10; i < (p + 1) * n / 10; i++) part.add(values[i]);
+                    merged.merge(part);
+                    assertEquals((p + 1) * n / 10, merged.size(), label);
+                }
+                assertQuantiles(sorted, merged, compression, label + " merge");
+            }
+        }
+    }
+
+    @Test
+    void staysWithinOneValueOnDiscreteData() {
+        // Interpolating between centroids lands between repeated values; it must not skip past a neighbour
+        Random r = new Random(43);
+        int n = 50_000;
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) values[i] = r.nextInt(20);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double compression : new double[] { 25, 100 }) {
+            TDigest digest = new TDigest(compression);
+            for (double v : values) digest.add(v);
+            for (double q : QUANTILES) assertEquals(sorted[(int) (q * n)], digest.quantile(q), 1, "compression " + compression + " q=" + q);
+        }
+    }
+
+    @Test
+    void summaryMatchesExactMomentsAndQuantiles() {
+        Random r = new Random(47);
+        int n = 40_000;
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) values[i] = 100 + 5 * r.nextGaussian();
+        // Added one by one, in a batch, and merged from another summary
+        RollingStats.Summary summary = new RollingStats.Summary(100), other = new RollingStats.Summary(25);
+        for (int i = 0; i < n / 4; i++) summary.add(values[i]);
+        summary.addAll(Arrays.copyOfRange(values, n / 4, n / 2), n / 2 - n / 4);
+        other.addAll(Arrays.copyOfRange(values, n / 2, n), n - n / 2);
+        summary.merge(other);
+
+        double mean = Arrays.stream(values).average().orElseThrow(), m2 = 0;
+        for (double v : values) m2 += (v - mean) * (v - mean);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Map<String, Double> stats = summary.toMap();
+        assertEquals(n, stats.get("count"));
+        assertEquals(mean, stats.get("mean"), 1e-9);
+        assertEquals(m2 / (n - 1), stats.get("variance"), 1e-9);
+        assertEquals(sorted[0], stats.get("min"));
+        assertEquals(sorted[n - 1], stats.get("max"));
+        // The merged-in part was kept at compression 25, so that is the bound that applies
+        for (double q : new double[] { 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99 }) {
+            assertRank(sorted, stats.get("p" + Math.round(q * 100)), q, 25, "p" + Math.round(q * 100));
+        }
+        assertEquals(Map.of("count", 0.0), new RollingStats.Summary(100).toMap());
+        assertTrue(Double.isNaN(new TDigest(100).quantile(0.5)));
+    }
+}
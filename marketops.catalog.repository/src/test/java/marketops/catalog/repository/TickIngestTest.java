@@ -0,0 +1,95 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickIngestTest {
+
+    private final List<String> committed = new ArrayList<>();
+    private final TickIngest ingest = new TickIngest("test-ticks", 8, 4, 1, batch -> {
+        synchronized (committed) {
+            for (int i = 0; i < batch.size; i++) {
+                committed.add(batch.assetIds[i] + " " + batch.timestamps[i] + " " + batch.prices[i] + " " + batch.demands[i]);
+            }
+        }
+    });
+
+    @AfterEach
+    void close() throws InterruptedException { ingest.close(); }
+
+    private int json(String body) throws IOException {
+        return ingest.offerJson("a", new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<String> drained() throws InterruptedException {
+        ingest.close();
+        synchronized (committed) { return new ArrayList<>(committed); }
+    }
+
+    @Test
+    void offersASingleTickOrAnArray() throws Exception {
+        assertEquals(1, json("{\"price\":1.5,\"timestamp\":10}"));
+        assertEquals(2, json("[{\"price\":2,\"demand\":null,\"timestamp\":11,\"extra\":{\"x\":[1]}}, {\"demand\":7,\"price\":3,\"timestamp\":12}]"));
+        assertEquals(0, json("[]"));
+        assertEquals(List.of("a 10 1.5 NaN", "a 11 2.0 NaN", "a 12 3.0 7.0"), drained());
+    }
+
+    @Test
+    void rejectsWholeBodiesWithABadTick() throws Exception {
+        for (String body : List.of(
+                "[{\"price\":1,\"timestamp\":1},5]",
+                "[{\"price\":1,\"timestamp\":1}]garbage",
+                "[{\"price\":1,\"timestamp\":1}] {\"price\":2}",
+                "{\"price\":1,\"timestamp\":1} {\"price\":2}",
+                "{\"price\":1,\"timestamp\":1}]",
+                "[{\"price\":1,\"timestamp\":1}",
+                "[{\"price\":1,\"timestamp\":1},{\"demand\":2}]",
+                "[{\"price\":1,\"timestamp\":1},{\"price\":\"NaN\"}]",
+                "5",
+                "")) {
+            assertThrows(IOException.class, () -> json(body), body);
+        }
+        assertEquals(List.of(), drained());
+    }
+
+    @Test
+    void rejectsBodiesLargerThanTheRing() {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i <= ingest.capacity(); i++) body.append(i == 0 ? "" : ",").append("{\"price\":1}");
+        assertThrows(IOException.class, () -> json(body.append(']').toString()));
+    }
+
+    @Test
+    void skipsBadLinesAndOffersTheRest() throws Exception {
+        StringBuilder errors = new StringBuilder();
+        String payload = "a 1.5 - 10\n\n  b 2 3 11  \nc 1 2 3\na\na x\na 1 2 y\na Infinity\na 1 NaN 12\na 4 5 13\n";
+        int accepted = ingest.offerLines(payload, Set.of("a", "b")::contains, errors);
+        assertEquals(3, accepted);
+        String[] lines = errors.toString().split("\n");
+        assertEquals(6, lines.length, errors.toString());
+        assertTrue(lines[0].startsWith("ERR line 4: unknown asset c"), lines[0]);
+        assertTrue(lines[1].startsWith("ERR line 5: expected"), lines[1]);
+        for (int i = 2; i < lines.length; i++) assertTrue(lines[i].startsWith("ERR line " + (i + 4) + ":"), lines[i]);
+        assertEquals(List.of("a 10 1.5 NaN", "b 11 2.0 3.0", "a 13 4.0 5.0"), drained());
+    }
+
+    @Test
+    void limitsOneMessageToTheRing() throws Exception {
+        StringBuilder payload = new StringBuilder(), errors = new StringBuilder();
+        for (int i = 0; i <= ingest.capacity(); i++) payload.append("a 1 - ").append(i).append('\n');
+        assertEquals(ingest.capacity(), ingest.offerLines(payload.toString(), id -> true, errors));
+        assertTrue(errors.toString().startsWith("ERR line " + (ingest.capacity() + 1) + ": more than"), errors.toString());
+        assertEquals(ingest.capacity(), drained().size());
+    }
+}
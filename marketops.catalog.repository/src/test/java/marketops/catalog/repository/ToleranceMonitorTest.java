@@ -0,0 +1,124 @@
+package marketops.catalog.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ToleranceMonitorTest {
+
+    private static final Map<String, List<String>> PARENTS = Map.of(
+            "a1", List.of("s1"),
+            "a2", List.of("s1", "m1"),
+            "a3", List.of(),
+            "a4", List.of("m1", "a1"));
+    private static final List<String> ASSETS = List.of("a1", "a2", "a3", "a4");
+    private static final List<String> IDS = Arrays.asList(null, "a1", "a2", "a4", "s1", "m1", "x");
+
+    /** Every monitor evaluated on every tick: in range until a price says otherwise, per asset and version. */
+    private static final class Oracle {
+        record Range(String dataSourceId, String modelId, Double start, Double end, int version) {
+            boolean inside(double price) { return (start == null || price >= start) && (end == null || price <= end); }
+            boolean applies(String assetId) { return matches(dataSourceId, assetId) && matches(modelId, assetId); }
+            private static boolean matches(String id, String assetId) { return id == null || id.equals(assetId) || parents(assetId).contains(id); }
+        }
+
+        final Map<String, Range> monitors = new HashMap<>();
+        final Map<String, Boolean> inside = new HashMap<>();
+        int versions;
+
+        void put(String id, String dataSourceId, String modelId, Double start, Double end) {
+            if ((start == null && end == null) || (start != null && end != null && start > end)) monitors.remove(id);
+            else monitors.put(id, new Range(dataSourceId, modelId, start, end, ++versions));
+        }
+
+        List<String> tick(String assetId, double price) {
+            List<String> alerts = new ArrayList<>();
+            monitors.forEach((id, m) -> {
+                if (!m.applies(assetId)) return;
+                String key = assetId + " " + id + " " + m.version;
+                boolean was = inside.getOrDefault(key, true), now = m.inside(price);
+                if (was != now) alerts.add((now ? ToleranceMonitor.RECOVERED : ToleranceMonitor.BREACH) + " " + id);
+                inside.put(key, now);
+            });
+            return sorted(alerts);
+        }
+    }
+
+    // a1.7 has the parents of a1, so fresh assets (and their first prices) keep coming
+    private static List<String> parents(String assetId) { return PARENTS.get(assetId.substring(0, 2)); }
+
+    private static List<String> sorted(List<String> alerts) {
+        List<String> copy = new ArrayList<>(alerts);
+        copy.sort(null);
+        return copy;
+    }
+
+    private static List<String> tick(ToleranceMonitor monitor, String assetId, long timestamp, double price) {
+        List<String> alerts = new ArrayList<>();
+        for (ToleranceMonitor.Alert a : monitor.evaluate(assetId, timestamp, price)) {
+            assertEquals(assetId, a.assetId);
+            assertEquals(price, a.price);
+            alerts.add(a.type + " " + a.monitorId);
+        }
+        return sorted(alerts);
+    }
+
+    @Test
+    void matchesAFullEvaluationOnARandomWalk() {
+        Random r = new Random(17);
+        ToleranceMonitor monitor = new ToleranceMonitor(ToleranceMonitorTest::parents);
+        Oracle oracle = new Oracle();
+        Map<String, Double> prices = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            if (r.nextInt(8) == 0) {
+                // Add, replace or drop a monitor between ticks; bounds on the price grid so ticks land on them
+                String id = "lpt" + r.nextInt(40);
+                Double start = r.nextInt(5) == 0 ? null : (double) r.nextInt(21);
+                Double end = r.nextInt(5) == 0 ? null : (double) r.nextInt(21);
+                String dataSourceId = IDS.get(r.nextInt(IDS.size())), modelId = r.nextInt(3) == 0 ? IDS.get(r.nextInt(IDS.size())) : null;
+                monitor.put(id, dataSourceId, modelId, start, end);
+                oracle.put(id, dataSourceId, modelId, start, end);
+                continue;
+            }
+            String assetId = ASSETS.get(r.nextInt(ASSETS.size())) + (r.nextInt(3) == 0 ? "" : "." + r.nextInt(200));
+            double last = prices.getOrDefault(assetId, 10.0);
+            // Mostly small moves, some repeats, some jumps across whole ranges
+            double price = switch (r.nextInt(10)) {
+                case 0 -> last;
+                case 1 -> r.nextInt(41) / 2.0 - 2;
+                default -> Math.max(-2, Math.min(22, last + (r.nextInt(9) - 4) / 2.0));
+            };
+            prices.put(assetId, price);
+            assertEquals(oracle.tick(assetId, price), tick(monitor, assetId, step, price), "step " + step + ": " + assetId + " " + last + " -> " + price);
+        }
+    }
+
+    @Test
+    void handlesFirstPricesDoubleCrossingsAndReplacedMonitors() {
+        ToleranceMonitor monitor = new ToleranceMonitor(PARENTS::get);
+        monitor.put("band", null, null, 5.0, 10.0);
+        monitor.put("floor", "s1", null, 5.0, null);
+        // First price: every monitor starts in range
+        assertEquals(List.of("BREACH band", "BREACH floor"), tick(monitor, "a1", 1, 4));
+        // Both bounds of band crossed in one tick: out of range before and after
+        assertEquals(List.of("RECOVERED floor"), tick(monitor, "a1", 2, 11));
+        assertEquals(List.of("RECOVERED band"), tick(monitor, "a1", 3, 10));
+        // A replaced monitor starts in range again; the unchanged one keeps its state
+        monitor.put("band", null, null, 0.0, 9.0);
+        assertEquals(List.of("BREACH band"), tick(monitor, "a1", 4, 10));
+        monitor.put("band", null, null, 0.0, 9.0);
+        assertEquals(List.of("BREACH band"), tick(monitor, "a1", 5, 10));
+        assertEquals(List.of(), tick(monitor, "a1", 6, 10));
+        // Dropped monitors raise nothing; floor does not apply to a3
+        monitor.put("band", null, null, null, null);
+        assertEquals(List.of(), tick(monitor, "a3", 7, 1));
+        assertEquals(List.of("BREACH floor"), tick(monitor, "a1", 8, 1));
+    }
+}